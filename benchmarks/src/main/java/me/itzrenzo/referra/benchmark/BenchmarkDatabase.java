@@ -0,0 +1,167 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.database.DatabaseManager;
+import me.itzrenzo.referra.database.impl.MysqlDatabaseManager;
+import me.itzrenzo.referra.database.impl.SqliteDatabaseManager;
+import me.itzrenzo.referra.database.impl.SqliteSettings;
+import me.itzrenzo.referra.util.BoundedExecutor;
+import org.bukkit.plugin.Plugin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A {@link DatabaseManager} on an empty scratch database, built the way ReferralDataManager builds it with the default
+ * settings. {@code sqlite} uses a file in a temporary folder; {@code mysql} uses the database given by the
+ * {@code referra.mysql.host}, {@code .port}, {@code .database}, {@code .user} and {@code .password} system properties
+ * and drops the plugin's tables in it first.
+ */
+public final class BenchmarkDatabase implements AutoCloseable {
+    private static final String[] MYSQL_TABLES = {"pending_referrals", "confirmed_referrals", "ip_history", "players",
+            "schema_version", "database_generation"};
+    /** Saves in flight at once while seeding, enough to fill the SQLite writer's batches and the MySQL pool */
+    private static final int SEED_WINDOW = 4096;
+
+    private final String backend;
+    private final Path dataFolder;
+    private final Plugin plugin;
+    private DatabaseManager database;
+    private BoundedExecutor executor;
+
+    private BenchmarkDatabase(String backend, Path dataFolder) {
+        this.backend = backend;
+        this.dataFolder = dataFolder;
+        this.plugin = HeadlessPlugin.create(dataFolder.toFile(), Map.of());
+    }
+
+    /**
+     * @param backend {@code sqlite} or {@code mysql}
+     */
+    public static BenchmarkDatabase open(String backend) {
+        Path dataFolder;
+        try {
+            dataFolder = Files.createTempDirectory("referra-persistence");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        BenchmarkDatabase database = new BenchmarkDatabase(backend.toLowerCase(Locale.ROOT), dataFolder);
+        database.dropMysqlTables();
+        database.connect();
+        return database;
+    }
+
+    public DatabaseManager manager() {
+        return database;
+    }
+
+    /**
+     * Closes the manager and connects a new one to the same data, so the next call finds no pooled connections,
+     * prepared statements or SQLite page cache. The operating system's file cache stays warm.
+     */
+    public void reconnect() {
+        disconnect();
+        connect();
+    }
+
+    /**
+     * Writes every player and referral with one saveAllPlayerData call, then each player's first join time and IP
+     * address one call at a time, as the join listener does.
+     */
+    public void seed(SyntheticReferrals dataset) {
+        database.saveAllPlayerData(dataset.toPlayerData()).join();
+
+        List<CompletableFuture<Void>> inFlight = new ArrayList<>(SEED_WINDOW * 2);
+        for (int i = 0; i < dataset.size(); i++) {
+            inFlight.add(database.saveFirstJoinTime(dataset.player(i), dataset.firstJoin(i)));
+            inFlight.add(database.savePlayerIP(dataset.player(i), dataset.ipAddress(i)));
+            if (inFlight.size() >= SEED_WINDOW * 2) {
+                CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new)).join();
+                inFlight.clear();
+            }
+        }
+        CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new)).join();
+        System.out.println("Seeded " + backend + " with " + dataset.describe());
+    }
+
+    private void connect() {
+        switch (backend) {
+            case "sqlite" -> {
+                SqliteSettings settings = SqliteSettings.DEFAULTS;
+                executor = new BoundedExecutor("bench-sqlite", BoundedExecutor.Mode.VIRTUAL, settings.readConnections(), 10000,
+                        BoundedExecutor.RejectionPolicy.CALLER_RUNS);
+                database = new SqliteDatabaseManager(plugin, "referrals.db", settings, 5000, executor);
+            }
+            case "mysql" -> {
+                executor = new BoundedExecutor("bench-mysql", BoundedExecutor.Mode.VIRTUAL, 10, 10000,
+                        BoundedExecutor.RejectionPolicy.CALLER_RUNS);
+                database = new MysqlDatabaseManager(plugin, mysqlHost(), mysqlPort(), mysqlDatabase(),
+                        System.getProperty("referra.mysql.user", "root"), System.getProperty("referra.mysql.password", ""),
+                        10, 30000, 1000, 5000, executor);
+            }
+            default -> throw new IllegalArgumentException("Unknown backend " + backend + ", expected sqlite or mysql");
+        }
+        database.initialize().join();
+    }
+
+    private void disconnect() {
+        database.close();
+        executor.shutdown(10, TimeUnit.SECONDS);
+    }
+
+    private void dropMysqlTables() {
+        if (!backend.equals("mysql")) {
+            return;
+        }
+        String url = "jdbc:mysql://" + mysqlHost() + ":" + mysqlPort() + "/" + mysqlDatabase()
+                + "?useSSL=false&allowPublicKeyRetrieval=true";
+        try (Connection conn = DriverManager.getConnection(url, System.getProperty("referra.mysql.user", "root"),
+                System.getProperty("referra.mysql.password", ""));
+             Statement stmt = conn.createStatement()) {
+            for (String table : MYSQL_TABLES) {
+                stmt.execute("DROP TABLE IF EXISTS " + table);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not reset the MySQL benchmark database", e);
+        }
+    }
+
+    private static String mysqlHost() {
+        return System.getProperty("referra.mysql.host", "localhost");
+    }
+
+    private static int mysqlPort() {
+        return Integer.getInteger("referra.mysql.port", 3306);
+    }
+
+    private static String mysqlDatabase() {
+        return System.getProperty("referra.mysql.database", "referra_bench");
+    }
+
+    @Override
+    public void close() {
+        disconnect();
+        dropMysqlTables();
+        try (Stream<Path> files = Files.walk(dataFolder)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
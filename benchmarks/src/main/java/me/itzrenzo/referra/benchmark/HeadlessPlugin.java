@@ -0,0 +1,111 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.data.ReferralDataManager;
+import org.bukkit.Server;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link Plugin} that runs without a server, so {@link ReferralDataManager} can be measured on its own. The config
+ * is the plugin's bundled {@code config.yml} with the given overrides, no player is online, and the scheduler accepts
+ * tasks but never runs them. Every other server call does nothing and returns null, false or zero.
+ */
+public final class HeadlessPlugin {
+
+    private HeadlessPlugin() {
+    }
+
+    public static Plugin create(File dataFolder, Map<String, Object> configOverrides) {
+        BukkitTask task = proxy(BukkitTask.class, (self, method, args) -> defaultValue(method));
+        BukkitScheduler scheduler = proxy(BukkitScheduler.class,
+                (self, method, args) -> method.getReturnType() == BukkitTask.class ? task : defaultValue(method));
+        Server server = proxy(Server.class, (self, method, args) -> switch (method.getName()) {
+            case "getScheduler" -> scheduler;
+            case "getLogger" -> logger();
+            case "getOnlinePlayers" -> List.of();
+            default -> defaultValue(method);
+        });
+        return create(dataFolder, configOverrides, server);
+    }
+
+    /**
+     * The same plugin on a server supplied by the caller, such as a {@link SimulatedServer}.
+     */
+    public static Plugin create(File dataFolder, Map<String, Object> configOverrides, Server server) {
+        YamlConfiguration config;
+        try (Reader reader = new InputStreamReader(ReferralDataManager.class.getResourceAsStream("/config.yml"), StandardCharsets.UTF_8)) {
+            config = YamlConfiguration.loadConfiguration(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        configOverrides.forEach(config::set);
+
+        Logger logger = logger();
+        return proxy(Plugin.class, (self, method, args) -> switch (method.getName()) {
+            case "getConfig" -> config;
+            case "getLogger" -> logger;
+            case "getDataFolder" -> dataFolder;
+            case "getServer" -> server;
+            case "getName" -> "Referra";
+            case "isEnabled" -> true;
+            default -> defaultValue(method);
+        });
+    }
+
+    /**
+     * An online player with the given play time, who ignores every message sent to them.
+     */
+    public static Player player(UUID playerId, String name, int playTimeTicks) {
+        return proxy(Player.class, (self, method, args) -> switch (method.getName()) {
+            case "getUniqueId" -> playerId;
+            case "getName" -> name;
+            case "getStatistic" -> playTimeTicks;
+            case "isOnline" -> true;
+            default -> defaultValue(method);
+        });
+    }
+
+    /**
+     * The plugin's logger, at the level given by the {@code referra.log-level} system property.
+     */
+    static Logger logger() {
+        Logger logger = Logger.getLogger("Referra");
+        logger.setLevel(Level.parse(System.getProperty("referra.log-level", "WARNING")));
+        return logger;
+    }
+
+    static <T> T proxy(Class<T> type, InvocationHandler answers) {
+        return type.cast(Proxy.newProxyInstance(HeadlessPlugin.class.getClassLoader(), new Class<?>[] {type}, (self, method, args) ->
+                switch (method.getName()) {
+                    case "equals" -> self == args[0];
+                    case "hashCode" -> System.identityHashCode(self);
+                    case "toString" -> "Headless" + type.getSimpleName();
+                    default -> answers.invoke(self, method, args);
+                }));
+    }
+
+    static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        // A one-element array of a primitive type holds that type's zero value
+        return type.isPrimitive() && type != void.class ? Array.get(Array.newInstance(type, 1), 0) : null;
+    }
+}
@@ -0,0 +1,79 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.data.ReferralDataManager;
+import me.itzrenzo.referra.database.impl.InMemoryDatabaseManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * A {@link ReferralDataManager} running on a {@link HeadlessPlugin} with the in-memory database, loaded with a
+ * {@link SyntheticReferrals} dataset the same way a real server loads its database at startup.
+ */
+public final class HeadlessReferra implements AutoCloseable {
+    private final Path dataFolder;
+    private final ReferralDataManager dataManager;
+    private final InMemoryDatabaseManager database;
+
+    private HeadlessReferra(Path dataFolder, ReferralDataManager dataManager) {
+        this.dataFolder = dataFolder;
+        this.dataManager = dataManager;
+        this.database = (InMemoryDatabaseManager) dataManager.getDatabaseManager();
+    }
+
+    /**
+     * Starts on an empty in-memory database, seeds it and reloads, so the data goes through the normal startup load.
+     *
+     * @param configOverrides config values set on top of the defaults below, e.g. injected database faults
+     */
+    public static HeadlessReferra start(SyntheticReferrals dataset, Map<String, Object> configOverrides) {
+        Map<String, Object> config = new HashMap<>();
+        config.put("database.type", "MEMORY");
+        config.put("cache.loading", "EAGER");
+        config.put("discord.enabled", false);
+        config.put("referral.max-referrals-per-player", SyntheticReferrals.MAX_REFERRALS);
+        config.put("referral.required-playtime-hours", 1);
+        config.putAll(configOverrides);
+
+        Path dataFolder;
+        try {
+            dataFolder = Files.createTempDirectory("referra-headless");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        ReferralDataManager dataManager = new ReferralDataManager(HeadlessPlugin.create(dataFolder.toFile(), config));
+        dataManager.start().join();
+        HeadlessReferra referra = new HeadlessReferra(dataFolder, dataManager);
+        dataset.seed(referra.database);
+        dataManager.loadData();
+        System.out.println("Loaded " + dataset.describe());
+        return referra;
+    }
+
+    public ReferralDataManager dataManager() {
+        return dataManager;
+    }
+
+    public InMemoryDatabaseManager database() {
+        return database;
+    }
+
+    @Override
+    public void close() {
+        dataManager.close();
+        try (Stream<Path> files = Files.walk(dataFolder)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
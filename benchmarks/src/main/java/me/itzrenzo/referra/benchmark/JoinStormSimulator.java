@@ -0,0 +1,455 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.commands.ReferralCommand;
+import me.itzrenzo.referra.data.ReferralDataManager;
+import me.itzrenzo.referra.database.WriteBehindQueue;
+import me.itzrenzo.referra.database.impl.InMemoryDatabaseManager;
+import me.itzrenzo.referra.listeners.PlayerEventListener;
+import me.itzrenzo.referra.util.BoundedExecutor;
+import net.kyori.adventure.text.Component;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Replays a join storm against the real {@link PlayerEventListener} and {@link ReferralCommand} on a
+ * {@link SimulatedServer}, with the in-memory database behind them slowed down by an injected latency. The database
+ * holds a {@link SyntheticReferrals} dataset and is loaded before the first tick, so the storm hits a freshly started
+ * server. Players log in, join and later run one {@code /referral} command each; the periodic confirmation check
+ * runs on its configured interval. Ticks are paced at 20 per second of wall time, so database calls finish at their
+ * real speed, and every second it prints the main-thread time spent per tick next to the database backlog.
+ *
+ * <pre>
+ * java -cp benchmarks.jar me.itzrenzo.referra.benchmark.JoinStormSimulator joins=500 storm-seconds=5 db-latency-ms=5
+ * </pre>
+ */
+public final class JoinStormSimulator {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    /** Ticks between a player's login on the async login threads and their join on the main thread */
+    private static final int LOGIN_TICKS = 2;
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("players", "100000");
+        DEFAULTS.put("joins", "2000");
+        DEFAULTS.put("storm-seconds", "5");
+        DEFAULTS.put("duration-seconds", "180");
+        DEFAULTS.put("returning-percent", "70");
+        DEFAULTS.put("command-percent", "60");
+        DEFAULTS.put("cache", "LAZY");
+        DEFAULTS.put("db-latency-ms", "2");
+        DEFAULTS.put("db-jitter-ms", "1");
+        DEFAULTS.put("check-interval-minutes", "1");
+        DEFAULTS.put("seed", "42");
+    }
+
+    private final Map<String, String> settings;
+    private final SimulatedServer server = new SimulatedServer();
+    private final SplittableRandom random;
+    private final Command referralCommand = new Command("referral") {
+        @Override
+        public boolean execute(CommandSender sender, String label, String[] args) {
+            return false;
+        }
+    };
+
+    private SyntheticReferrals dataset;
+    private ReferralDataManager dataManager;
+    private PlayerEventListener listener;
+    private ReferralCommand command;
+    private final List<Player> onlineReferrers = new ArrayList<>();
+    private final List<Player> onlinePlayers = new ArrayList<>();
+    private long commandsRun;
+
+    private JoinStormSimulator(Map<String, String> settings) {
+        this.settings = settings;
+        // Offset from the dataset's seed, or newcomers would get the dataset players' UUIDs
+        this.random = new SplittableRandom(getLong("seed") + 1);
+    }
+
+    /**
+     * @param args settings as {@code key=value}, see {@link #DEFAULTS} for the keys
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> settings = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0 || !DEFAULTS.containsKey(arg.substring(0, separator))) {
+                System.err.println("Unknown setting '" + arg + "', expected key=value with a key from " + DEFAULTS.keySet());
+                System.exit(2);
+            }
+            settings.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new JoinStormSimulator(settings).run();
+    }
+
+    private void run() throws IOException {
+        System.out.println("Settings: " + settings);
+        LogCounter logCounter = LogCounter.install(HeadlessPlugin.logger());
+        Path dataFolder = Files.createTempDirectory("referra-storm");
+        server.install();
+        try {
+            start(dataFolder);
+            simulate(logCounter);
+        } finally {
+            if (dataManager != null) {
+                dataManager.close();
+            }
+            server.shutdown();
+            try (Stream<Path> files = Files.walk(dataFolder)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private void start(Path dataFolder) {
+        dataset = SyntheticReferrals.generate(getInt("players"), getLong("seed"));
+
+        Map<String, Object> config = new HashMap<>();
+        config.put("database.type", "MEMORY");
+        config.put("database.memory.faults.default.latency-ms", getLong("db-latency-ms"));
+        config.put("database.memory.faults.default.jitter-ms", getLong("db-jitter-ms"));
+        config.put("cache.loading", settings.get("cache"));
+        config.put("discord.enabled", false);
+        config.put("referral.max-referrals-per-player", SyntheticReferrals.MAX_REFERRALS);
+        config.put("referral.required-playtime-hours", 1);
+        config.put("referral.check-interval-minutes", getInt("check-interval-minutes"));
+        Plugin plugin = HeadlessPlugin.create(dataFolder.toFile(), config, server.server());
+
+        long started = System.nanoTime();
+        dataManager = new ReferralDataManager(plugin);
+        dataManager.start().join();
+        dataset.seed((InMemoryDatabaseManager) dataManager.getDatabaseManager());
+        dataManager.loadData();
+        System.out.printf("Loaded %s in %d ms%n", dataset.describe(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+        listener = new PlayerEventListener(dataManager, plugin);
+        command = new ReferralCommand(dataManager, plugin);
+    }
+
+    private void simulate(LogCounter logCounter) {
+        int durationTicks = getInt("duration-seconds") * 20;
+        List<Joiner>[] logins = ticks(durationTicks);
+        List<Joiner>[] joins = ticks(durationTicks);
+        List<Joiner>[] commands = ticks(durationTicks);
+        for (Joiner joiner : planJoins(durationTicks)) {
+            logins[Math.max(1, joiner.joinTick - LOGIN_TICKS)].add(joiner);
+            joins[joiner.joinTick].add(joiner);
+            if (joiner.commandTick > 0) {
+                commands[joiner.commandTick].add(joiner);
+            }
+        }
+
+        BoundedExecutor executor = dataManager.getDatabaseExecutor();
+        WriteBehindQueue saveQueue = dataManager.getSaveQueue();
+        long[] tickNanos = new long[durationTicks + 1];
+        long peakDbQueued = 0;
+        long peakSaveQueued = 0;
+        SecondStats second = new SecondStats();
+
+        System.out.printf("%6s %7s %6s %5s %9s %9s %6s %10s %10s %11s%n",
+                "time s", "online", "joins", "cmds", "tick avg", "tick max", ">50ms", "db running", "db queued", "save queued");
+        long tickStart = System.nanoTime();
+        for (int tick = 1; tick <= durationTicks; tick++) {
+            long started = System.nanoTime();
+            server.tick();
+            for (Joiner joiner : logins[tick]) {
+                login(joiner);
+            }
+            for (Joiner joiner : joins[tick]) {
+                join(joiner);
+            }
+            for (Joiner joiner : commands[tick]) {
+                runCommand(joiner);
+            }
+            tickNanos[tick] = System.nanoTime() - started;
+
+            int dbQueued = executor.getQueueDepth();
+            int saveQueued = saveQueue.getQueueDepth();
+            peakDbQueued = Math.max(peakDbQueued, dbQueued);
+            peakSaveQueued = Math.max(peakSaveQueued, saveQueued);
+            second.add(tickNanos[tick], joins[tick].size(), commands[tick].size());
+            if (tick % 20 == 0) {
+                System.out.printf("%6d %7d %6d %5d %7.2fms %7.2fms %6d %10d %10d %11d%n", tick / 20, server.getOnlineCount(),
+                        second.joins, second.commands, second.totalNanos / 20 / 1e6, second.maxNanos / 1e6, second.overBudget,
+                        executor.getRunningCount(), dbQueued, saveQueued);
+                second = new SecondStats();
+            }
+
+            // A tick that overran its 50 ms starts the next one straight away, as a lagging server does
+            tickStart += TICK_NANOS;
+            long wait = tickStart - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            } else {
+                tickStart = System.nanoTime();
+            }
+        }
+
+        printSummary(tickNanos, peakDbQueued, peakSaveQueued, logCounter);
+    }
+
+    /** Who joins when, which of them come back from the dataset and which run a command afterwards */
+    private List<Joiner> planJoins(int durationTicks) {
+        int joinCount = getInt("joins");
+        int stormTicks = Math.max(1, getInt("storm-seconds") * 20);
+        long requiredTicks = dataManager.getRequiredPlaytimeTicks();
+        Set<Integer> returning = new HashSet<>();
+        List<Joiner> joiners = new ArrayList<>(joinCount);
+
+        for (int i = 0; i < joinCount; i++) {
+            int joinTick = 1 + LOGIN_TICKS + random.nextInt(stormTicks);
+            if (joinTick > durationTicks) {
+                break;
+            }
+            int commandTick = random.nextInt(100) < getInt("command-percent") ? joinTick + 100 + random.nextInt(1100) : -1;
+            if (commandTick > durationTicks) {
+                commandTick = -1;
+            }
+
+            int index = -1;
+            if (random.nextInt(100) < getInt("returning-percent") && returning.size() < dataset.size()) {
+                do {
+                    index = random.nextInt(dataset.size());
+                } while (!returning.add(index));
+            }
+
+            if (index >= 0) {
+                joiners.add(new Joiner(dataset.player(index), dataset.name(index), address(10, index), index,
+                        random.nextLong(requiredTicks * 3), random.nextInt(100) == 0, joinTick, commandTick));
+            } else {
+                // Newcomers are close enough to the required play time that some of them pass it during the run
+                long playTime = Math.max(0, requiredTicks - random.nextLong(durationTicks * 2L));
+                joiners.add(new Joiner(SyntheticUuids.next(random), "newcomer" + i, address(172, 0x100000 + i), -1,
+                        playTime, false, joinTick, commandTick));
+            }
+        }
+        return joiners;
+    }
+
+    @SuppressWarnings("deprecation")
+    private void login(Joiner joiner) {
+        server.runAsync(() -> listener.onPlayerPreLogin(
+                new AsyncPlayerPreLoginEvent(joiner.name, joiner.address.getAddress(), joiner.playerId)));
+    }
+
+    private void join(Joiner joiner) {
+        long joinTick = server.currentTick();
+        joiner.player = server.join(joiner.playerId, joiner.name, joiner.address,
+                () -> joiner.playTimeTicks + server.currentTick() - joinTick, joiner.admin);
+        listener.onPlayerJoin(new PlayerJoinEvent(joiner.player, Component.empty()));
+
+        onlinePlayers.add(joiner.player);
+        if (joiner.datasetIndex >= 0 && dataset.isReferralEnabled(joiner.datasetIndex)) {
+            onlineReferrers.add(joiner.player);
+        }
+    }
+
+    private void runCommand(Joiner joiner) {
+        command.onCommand(joiner.player, referralCommand, "referral", commandArgs(joiner));
+        commandsRun++;
+    }
+
+    private String[] commandArgs(Joiner joiner) {
+        int roll = random.nextInt(100);
+        if (joiner.datasetIndex < 0) {
+            // Newcomers mostly name someone online who refers players
+            if (roll < 80 && !onlineReferrers.isEmpty()) {
+                return new String[] {onlineReferrers.get(random.nextInt(onlineReferrers.size())).getName()};
+            }
+            return new String[] {"help"};
+        }
+        if (joiner.admin) {
+            return roll < 50
+                    ? new String[] {"admin", "queue"}
+                    : new String[] {"admin", "stats", onlinePlayers.get(random.nextInt(onlinePlayers.size())).getName()};
+        }
+        if (roll < 40) {
+            return new String[] {"top"};
+        }
+        if (roll < 50) {
+            return new String[] {"top", String.valueOf(2 + random.nextInt(4))};
+        }
+        if (roll < 75) {
+            return new String[] {"create"};
+        }
+        if (roll < 90) {
+            return new String[] {"claim"};
+        }
+        return new String[] {"help"};
+    }
+
+    private void printSummary(long[] tickNanos, long peakDbQueued, long peakSaveQueued, LogCounter logCounter) {
+        long[] sorted = Arrays.copyOfRange(tickNanos, 1, tickNanos.length);
+        Arrays.sort(sorted);
+        long total = 0;
+        int overBudget = 0;
+        for (long nanos : sorted) {
+            total += nanos;
+            if (nanos > TICK_NANOS) {
+                overBudget++;
+            }
+        }
+
+        InMemoryDatabaseManager database = (InMemoryDatabaseManager) dataManager.getDatabaseManager();
+        long dbCalls = 0;
+        long dbFailures = 0;
+        for (InMemoryDatabaseManager.Operation operation : InMemoryDatabaseManager.Operation.values()) {
+            dbCalls += database.getCallCount(operation);
+            dbFailures += database.getFailureCount(operation);
+        }
+
+        System.out.println();
+        System.out.printf("Main thread: %.1f ms over %d ticks, per tick p50 %.2f ms, p99 %.2f ms, max %.2f ms, %d ticks over 50 ms%n",
+                total / 1e6, sorted.length, percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6,
+                sorted[sorted.length - 1] / 1e6, overBudget);
+        System.out.printf("Backlog: peak %d queued database calls, peak %d players waiting to be saved%n", peakDbQueued, peakSaveQueued);
+        System.out.printf("Activity: %d joins, %d commands, %d messages to players, %d console commands, %d database calls (%d failed)%n",
+                onlinePlayers.size(), commandsRun, server.getMessageCount(), server.getConsoleCommandCount(), dbCalls, dbFailures);
+        logCounter.print();
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Joiner>[] ticks(int durationTicks) {
+        List<Joiner>[] ticks = new List[durationTicks + 1];
+        for (int i = 0; i < ticks.length; i++) {
+            ticks[i] = new ArrayList<>();
+        }
+        return ticks;
+    }
+
+    private static InetSocketAddress address(int firstOctet, int host) {
+        try {
+            InetAddress address = InetAddress.getByAddress(new byte[] {(byte) firstOctet, (byte) (host >>> 16), (byte) (host >>> 8), (byte) host});
+            return new InetSocketAddress(address, 25565);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int getInt(String key) {
+        return Integer.parseInt(settings.get(key));
+    }
+
+    private long getLong(String key) {
+        return Long.parseLong(settings.get(key));
+    }
+
+    private static final class Joiner {
+        private final UUID playerId;
+        private final String name;
+        private final InetSocketAddress address;
+        /** Index in the dataset, or -1 for a newcomer */
+        private final int datasetIndex;
+        private final long playTimeTicks;
+        private final boolean admin;
+        private final int joinTick;
+        /** Tick of the player's command, or -1 */
+        private final int commandTick;
+        private Player player;
+
+        private Joiner(UUID playerId, String name, InetSocketAddress address, int datasetIndex, long playTimeTicks,
+                       boolean admin, int joinTick, int commandTick) {
+            this.playerId = playerId;
+            this.name = name;
+            this.address = address;
+            this.datasetIndex = datasetIndex;
+            this.playTimeTicks = playTimeTicks;
+            this.admin = admin;
+            this.joinTick = joinTick;
+            this.commandTick = commandTick;
+        }
+    }
+
+    private static final class SecondStats {
+        private long totalNanos;
+        private long maxNanos;
+        private int overBudget;
+        private int joins;
+        private int commands;
+
+        private void add(long nanos, int joins, int commands) {
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            if (nanos > TICK_NANOS) {
+                overBudget++;
+            }
+            this.joins += joins;
+            this.commands += commands;
+        }
+    }
+
+    /**
+     * Counts the plugin's warnings instead of printing each one, since a storm can log one per player.
+     */
+    private static final class LogCounter extends Handler {
+        private final Map<String, AtomicLong> counts = new LinkedHashMap<>();
+
+        static LogCounter install(Logger logger) {
+            LogCounter counter = new LogCounter();
+            logger.setUseParentHandlers(false);
+            logger.addHandler(counter);
+            return counter;
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            if (record.getLevel().intValue() >= Level.SEVERE.intValue()) {
+                System.err.println("[SEVERE] " + record.getMessage());
+            }
+            String message = record.getMessage().replaceAll("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}", "<uuid>");
+            synchronized (counts) {
+                counts.computeIfAbsent(record.getLevel() + " " + message, ignored -> new AtomicLong()).incrementAndGet();
+            }
+        }
+
+        void print() {
+            synchronized (counts) {
+                counts.forEach((message, count) -> System.out.printf("Logged %dx: %s%n", count.get(), message));
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
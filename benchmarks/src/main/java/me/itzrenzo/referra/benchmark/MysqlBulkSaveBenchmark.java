@@ -0,0 +1,147 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.data.PlayerReferralData;
+import me.itzrenzo.referra.database.impl.MysqlBatchSaver;
+import me.itzrenzo.referra.util.UuidBytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One bulk save of {@code players} freshly created players, each with a few pending referrals, written in one
+ * transaction either one statement per row (the old saveAllPlayerData) or through {@link MysqlBatchSaver}.
+ * Needs a scratch database given by the {@code referra.mysql.url}, {@code .user} and {@code .password} system properties.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MysqlBulkSaveBenchmark {
+    private static final int REFERRALS_PER_PLAYER = 3;
+
+    @Param({"100000"})
+    private int players;
+
+    @Param({"per-row", "batched"})
+    private String savePath;
+
+    @Param({"1000"})
+    private int batchSize;
+
+    private Connection conn;
+    private List<PlayerReferralData> batch;
+
+    @Setup(Level.Trial)
+    public void connect() throws SQLException {
+        String url = System.getProperty("referra.mysql.url", "jdbc:mysql://localhost:3306/referra_bench");
+        String separator = url.contains("?") ? "&" : "?";
+        conn = DriverManager.getConnection(url + separator + "rewriteBatchedStatements=" + savePath.equals("batched"),
+                System.getProperty("referra.mysql.user", "root"), System.getProperty("referra.mysql.password", ""));
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS pending_referrals, confirmed_referrals, players");
+            stmt.execute("CREATE TABLE players (uuid BINARY(16) PRIMARY KEY, name VARCHAR(16) NOT NULL, " +
+                    "referral_enabled BOOLEAN DEFAULT FALSE, claimed_payout BOOLEAN DEFAULT FALSE)");
+            stmt.execute("CREATE TABLE confirmed_referrals (referrer_uuid BINARY(16), referred_uuid BINARY(16), " +
+                    "PRIMARY KEY (referrer_uuid, referred_uuid), FOREIGN KEY (referrer_uuid) REFERENCES players(uuid) ON DELETE CASCADE)");
+            stmt.execute("CREATE TABLE pending_referrals (referrer_uuid BINARY(16), referred_uuid BINARY(16), timestamp BIGINT, " +
+                    "PRIMARY KEY (referrer_uuid, referred_uuid), FOREIGN KEY (referrer_uuid) REFERENCES players(uuid) ON DELETE CASCADE)");
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createPlayers() throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DELETE FROM players");
+        }
+
+        SplittableRandom random = new SplittableRandom(42);
+        batch = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            PlayerReferralData data = new PlayerReferralData(SyntheticUuids.next(random), "player" + i);
+            data.setReferralEnabled(true);
+            for (int r = 0; r < REFERRALS_PER_PLAYER; r++) {
+                data.addPendingReferral(SyntheticUuids.next(random), 1_700_000_000_000L + i);
+            }
+            batch.add(data);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() throws SQLException {
+        conn.close();
+    }
+
+    @Benchmark
+    public int save() throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            if (savePath.equals("batched")) {
+                saveBatched();
+            } else {
+                savePerRow();
+            }
+            conn.commit();
+        } finally {
+            conn.setAutoCommit(true);
+        }
+        return batch.size();
+    }
+
+    private void saveBatched() throws SQLException {
+        try (MysqlBatchSaver saver = new MysqlBatchSaver(conn, batchSize)) {
+            for (PlayerReferralData data : batch) {
+                saver.add(data, true);
+            }
+            saver.flush();
+        }
+    }
+
+    private void savePerRow() throws SQLException {
+        for (PlayerReferralData data : batch) {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO players (uuid, name, referral_enabled, claimed_payout) VALUES (?, ?, ?, ?) " +
+                            "ON DUPLICATE KEY UPDATE name = VALUES(name), referral_enabled = VALUES(referral_enabled), claimed_payout = VALUES(claimed_payout)")) {
+                stmt.setBytes(1, UuidBytes.toBytes(data.getPlayerId()));
+                stmt.setString(2, data.getPlayerName());
+                stmt.setBoolean(3, data.isReferralEnabled());
+                stmt.setBoolean(4, data.hasClaimedReward());
+                stmt.executeUpdate();
+            }
+
+            for (UUID referredId : data.getChangedReferrals()) {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "INSERT INTO pending_referrals (referrer_uuid, referred_uuid, timestamp) VALUES (?, ?, ?) " +
+                                "ON DUPLICATE KEY UPDATE timestamp = VALUES(timestamp)")) {
+                    stmt.setBytes(1, UuidBytes.toBytes(data.getPlayerId()));
+                    stmt.setBytes(2, UuidBytes.toBytes(referredId));
+                    stmt.setLong(3, data.getPendingReferrals().get(referredId));
+                    stmt.executeUpdate();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.data.PlayerReferralData;
+import me.itzrenzo.referra.database.DataLoadSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The two whole-database calls on a {@link SyntheticReferrals} dataset written through the {@code DatabaseManager}
+ * API: the startup {@code loadAll} on a freshly connected manager, and a {@code saveAllPlayerData} of every player
+ * with nothing marked clean, as on a shutdown after an eager load. Saving writes the same dataset again, so the
+ * database keeps its size. Run MySQL with {@code -p backend=mysql} against a local scratch database.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class PersistenceBulkBenchmark {
+
+    @Param({"sqlite"})
+    private String backend;
+
+    @Param({"100000", "1000000"})
+    private int players;
+
+    private SyntheticReferrals dataset;
+    private BenchmarkDatabase database;
+    private Map<UUID, PlayerReferralData> unsaved;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataset = SyntheticReferrals.generate(players, 42);
+        database = BenchmarkDatabase.open(backend);
+        database.seed(dataset);
+    }
+
+    @Setup(Level.Iteration)
+    public void reconnect() {
+        database.reconnect();
+        unsaved = dataset.toPlayerData();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    /** Rows streamed into a sink that only counts them, so the score is the database side of a startup load */
+    @Benchmark
+    public long coldLoadAll() {
+        CountingSink sink = new CountingSink();
+        database.manager().loadAll(sink).join();
+        if (sink.players != players) {
+            throw new IllegalStateException("Loaded " + sink.players + " players, expected " + players);
+        }
+        return sink.players + sink.referrals;
+    }
+
+    @Benchmark
+    public void saveAllPlayerData() {
+        database.manager().saveAllPlayerData(unsaved).join();
+    }
+
+    private static final class CountingSink implements DataLoadSink {
+        private long players;
+        private long referrals;
+
+        @Override
+        public void expect(int players, int referrals) {
+        }
+
+        @Override
+        public void player(UUID playerId, String name, boolean referralEnabled, boolean claimedReward, Long firstJoinTime, String ipAddress) {
+            players++;
+        }
+
+        @Override
+        public void confirmedReferral(UUID referrerId, UUID referredId) {
+            referrals++;
+        }
+
+        @Override
+        public void pendingReferral(UUID referrerId, UUID referredId, long timestamp) {
+            referrals++;
+        }
+    }
+}
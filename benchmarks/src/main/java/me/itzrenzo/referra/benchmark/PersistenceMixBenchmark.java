@@ -0,0 +1,118 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.data.PlayerReferralData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The single-row writes a busy server sends at once, run together on a seeded {@link SyntheticReferrals} database:
+ * write-behind saves of referrers through {@code savePlayerData}, next to the IP address and first join time the join
+ * listener records. Each call waits for its future, so throughput is per operation and the sample-time percentiles
+ * (p50, p99) include the time spent queued behind the other threads. Run MySQL with {@code -p backend=mysql}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class PersistenceMixBenchmark {
+    /** Every this many saves of a referrer also add a pending referral, the rest only change the profile */
+    private static final int NEW_REFERRAL_EVERY = 4;
+    private static final int SAMPLE_SIZE = 1 << 10;
+
+    @State(Scope.Benchmark)
+    public static class Database {
+        @Param({"sqlite"})
+        private String backend;
+
+        @Param({"100000"})
+        private int players;
+
+        private SyntheticReferrals dataset;
+        private BenchmarkDatabase database;
+        private final AtomicInteger threadSeeds = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            dataset = SyntheticReferrals.generate(players, 42);
+            database = BenchmarkDatabase.open(backend);
+            database.seed(dataset);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            database.close();
+        }
+    }
+
+    /** Each thread's own referrers and random source, seeded by thread so runs repeat */
+    @State(Scope.Thread)
+    public static class Writer {
+        private SplittableRandom random;
+        private PlayerReferralData[] referrers;
+        private int cursor;
+
+        @Setup(Level.Trial)
+        public void setUp(Database database) {
+            random = new SplittableRandom(1000 + database.threadSeeds.getAndIncrement());
+            referrers = new PlayerReferralData[SAMPLE_SIZE];
+            for (int i = 0; i < SAMPLE_SIZE; i++) {
+                int index = random.nextInt(database.dataset.size());
+                PlayerReferralData data = new PlayerReferralData(database.dataset.player(index), database.dataset.name(index));
+                data.setReferralEnabled(database.dataset.isReferralEnabled(index));
+                data.markClean();
+                referrers[i] = data;
+            }
+        }
+
+        UUID randomPlayer(Database database) {
+            return database.dataset.player(random.nextInt(database.dataset.size()));
+        }
+    }
+
+    @Benchmark
+    @Group("mix")
+    @GroupThreads(4)
+    public void savePlayerData(Database database, Writer writer) {
+        int call = writer.cursor++;
+        PlayerReferralData data = writer.referrers[call & (SAMPLE_SIZE - 1)];
+        data.setReferralEnabled(!data.isReferralEnabled());
+        if (call % NEW_REFERRAL_EVERY == 0) {
+            data.addPendingReferral(SyntheticUuids.next(writer.random), 1_700_000_000_000L + call);
+        }
+        database.database.manager().savePlayerData(data).join();
+    }
+
+    @Benchmark
+    @Group("mix")
+    @GroupThreads(2)
+    public void savePlayerIP(Database database, Writer writer) {
+        String ipAddress = "172.16." + writer.random.nextInt(256) + "." + writer.random.nextInt(256);
+        database.database.manager().savePlayerIP(writer.randomPlayer(database), ipAddress).join();
+    }
+
+    @Benchmark
+    @Group("mix")
+    @GroupThreads(2)
+    public void saveFirstJoinTime(Database database, Writer writer) {
+        database.database.manager().saveFirstJoinTime(writer.randomPlayer(database), 1_700_000_000_000L + writer.random.nextInt()).join();
+    }
+}
@@ -0,0 +1,51 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.util.Placeholders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Placeholders#apply} on the default messages and a typical reward command, as filled in when a referral is
+ * confirmed or a reward is claimed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlaceholderBenchmark {
+    private final String payoutMessage = "&a&lCongratulations! &r&aYour referral has been confirmed.";
+    private final String discordMessage = "&eJoin our Discord server and create a ticket to claim your reward: &b{invite}";
+    private final String rewardCommand = "/lp user {player} parent add referrer-{count} server={server}";
+
+    private final Map<String, String> twoValues = Map.of("player", "Steve", "count", "3");
+    private final Map<String, String> fourValues = Map.of("player", "Steve", "count", "3",
+            "invite", "https://discord.gg/example", "server", "survival");
+
+    /** No placeholder in the text */
+    @Benchmark
+    public String plainMessage() {
+        return Placeholders.apply(payoutMessage, twoValues);
+    }
+
+    @Benchmark
+    public String messageWithInvite() {
+        return Placeholders.apply(discordMessage, fourValues);
+    }
+
+    @Benchmark
+    public String rewardCommand() {
+        return Placeholders.apply(rewardCommand, fourValues);
+    }
+}
@@ -0,0 +1,80 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.data.PlayerReferralData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mutations of a single {@link PlayerReferralData} followed by the save bookkeeping the write-behind queue does, on a
+ * player who already has {@code referrals} confirmed referrals. Each call undoes its change so the size stays fixed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlayerReferralDataBenchmark {
+    private static final int SAMPLE_SIZE = 1 << 12;
+
+    @Param({"0", "100", "10000"})
+    private int referrals;
+
+    private PlayerReferralData data;
+    private UUID[] newcomers;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        data = new PlayerReferralData(SyntheticUuids.next(random), "player");
+        data.setReferralEnabled(true);
+        for (int i = 0; i < referrals; i++) {
+            data.addReferral(SyntheticUuids.next(random));
+        }
+        data.markClean();
+        newcomers = SyntheticUuids.generate(random, SAMPLE_SIZE);
+    }
+
+    /** A newcomer is referred, confirmed and saved, then removed and saved again */
+    @Benchmark
+    public int pendingThenConfirm() {
+        UUID newcomer = newcomers[cursor++ & (SAMPLE_SIZE - 1)];
+        data.addPendingReferral(newcomer, 1_700_000_000_000L);
+        data.confirmReferral(newcomer);
+        int changed = save();
+        data.removeReferral(newcomer);
+        return changed + save();
+    }
+
+    /** The referral toggle flips and is saved */
+    @Benchmark
+    public int toggleReferralEnabled() {
+        data.setReferralEnabled(!data.isReferralEnabled());
+        return save();
+    }
+
+    /** What a save reads before writing, then marks clean */
+    private int save() {
+        long version = data.getVersion();
+        int dirtyFields = data.getDirtyFields();
+        List<UUID> changed = data.getChangedReferrals();
+        data.markClean(version);
+        return dirtyFields + changed.size();
+    }
+}
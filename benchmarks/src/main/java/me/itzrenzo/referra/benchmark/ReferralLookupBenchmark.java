@@ -0,0 +1,124 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.data.PlayerReferralData;
+import me.itzrenzo.referra.data.ReferralDataManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-only {@link ReferralDataManager} paths on a {@link SyntheticReferrals} dataset: the cycle check every referral
+ * goes through, and leaderboard pages. Referrers are sampled from referred players, so chain depths follow the dataset.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx24g")
+public class ReferralLookupBenchmark {
+    private static final int SAMPLE_SIZE = 1 << 16;
+
+    @Param({"10000", "1000000", "10000000"})
+    private int players;
+
+    private HeadlessReferra referra;
+    private ReferralDataManager dataManager;
+    private UUID[] referrers;
+    private UUID[] newcomers;
+    private UUID[] referredPlayers;
+    private UUID[] ancestors;
+    private int middleOffset;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticReferrals dataset = SyntheticReferrals.generate(players, 42);
+        referra = HeadlessReferra.start(dataset, Map.of());
+        dataManager = referra.dataManager();
+        middleOffset = dataManager.getRankedReferrerCount() / 2;
+
+        SplittableRandom random = new SplittableRandom(7);
+        referrers = new UUID[SAMPLE_SIZE];
+        newcomers = new UUID[SAMPLE_SIZE];
+        referredPlayers = new UUID[SAMPLE_SIZE];
+        ancestors = new UUID[SAMPLE_SIZE];
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            int referrer = randomReferred(dataset, random);
+            int root = referrer;
+            while (dataset.referrer(root) >= 0) {
+                root = dataset.referrer(root);
+            }
+
+            referrers[i] = dataset.player(referrer);
+            newcomers[i] = SyntheticUuids.next(random);
+            referredPlayers[i] = dataset.player(randomReferred(dataset, random));
+            ancestors[i] = dataset.player(root);
+        }
+    }
+
+    private static int randomReferred(SyntheticReferrals dataset, SplittableRandom random) {
+        while (true) {
+            int index = random.nextInt(dataset.size());
+            if (dataset.referrer(index) >= 0) {
+                return index;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        referra.close();
+    }
+
+    private int nextIndex() {
+        return cursor++ & (SAMPLE_SIZE - 1);
+    }
+
+    /** A newcomer who was never referred, the usual case when a referral is created */
+    @Benchmark
+    public boolean cycleCheckNewcomer() {
+        int i = nextIndex();
+        return dataManager.wouldCreateReferralCycle(referrers[i], newcomers[i]);
+    }
+
+    /** A player who is already referred, which walks the referrer's whole chain */
+    @Benchmark
+    public boolean cycleCheckReferredPlayer() {
+        int i = nextIndex();
+        return dataManager.wouldCreateReferralCycle(referrers[i], referredPlayers[i]);
+    }
+
+    /** The top of the referrer's own tree, which would close a loop */
+    @Benchmark
+    public boolean cycleCheckAncestor() {
+        int i = nextIndex();
+        return dataManager.wouldCreateReferralCycle(referrers[i], ancestors[i]);
+    }
+
+    @Benchmark
+    public List<PlayerReferralData> topReferrersFirstPage() {
+        return dataManager.getTopReferrers(10);
+    }
+
+    @Benchmark
+    public List<PlayerReferralData> topReferrersMiddlePage() {
+        return dataManager.getTopReferrers(middleOffset, 10);
+    }
+}
@@ -0,0 +1,118 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.data.ReferralDataManager;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ReferralDataManager#addReferral} and {@link ReferralDataManager#checkAndConfirmReferrals} on a
+ * {@link SyntheticReferrals} dataset. Both change the data, so each iteration runs a fixed batch of {@value #BATCH}
+ * calls on newcomers prepared beforehand instead of running for a fixed time; the dataset grows by at most one batch
+ * per iteration. Scores are milliseconds per batch, which is the same number as microseconds per call.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = ReferralMutationBenchmark.BATCH)
+@Measurement(iterations = 10, batchSize = ReferralMutationBenchmark.BATCH)
+@Fork(value = 1, jvmArgsAppend = "-Xmx24g")
+public class ReferralMutationBenchmark {
+    static final int BATCH = 1000;
+    /** Play time well above the required hour, so every referral can be confirmed */
+    private static final int PLAY_TIME_TICKS = 1_000_000;
+
+    @State(Scope.Benchmark)
+    public static class Dataset {
+        @Param({"10000", "1000000", "10000000"})
+        private int players;
+
+        private HeadlessReferra referra;
+        private SyntheticReferrals dataset;
+        private final SplittableRandom random = new SplittableRandom(7);
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            dataset = SyntheticReferrals.generate(players, 42);
+            referra = HeadlessReferra.start(dataset, Map.of());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            referra.close();
+        }
+
+        /** A player who refers others, picked the same way the dataset picks them */
+        UUID nextReferrer() {
+            while (true) {
+                int index = random.nextInt(dataset.size());
+                if (dataset.isReferralEnabled(index) && dataset.referralCount(index) < SyntheticReferrals.MAX_REFERRALS / 2) {
+                    return dataset.player(index);
+                }
+            }
+        }
+    }
+
+    /** Referrer and newcomer pairs that have not been linked yet */
+    @State(Scope.Benchmark)
+    public static class NewReferrals {
+        private final UUID[] referrers = new UUID[BATCH];
+        private final UUID[] newcomers = new UUID[BATCH];
+        private int cursor;
+
+        @Setup(Level.Iteration)
+        public void prepare(Dataset dataset) {
+            for (int i = 0; i < BATCH; i++) {
+                referrers[i] = dataset.nextReferrer();
+                newcomers[i] = SyntheticUuids.next(dataset.random);
+            }
+            cursor = 0;
+        }
+    }
+
+    /** Newcomers with a pending referral who have played long enough to confirm it */
+    @State(Scope.Benchmark)
+    public static class PendingReferrals {
+        private final Player[] newcomers = new Player[BATCH];
+        private int cursor;
+
+        @Setup(Level.Iteration)
+        public void prepare(Dataset dataset) {
+            ReferralDataManager dataManager = dataset.referra.dataManager();
+            for (int i = 0; i < BATCH; i++) {
+                UUID newcomer = SyntheticUuids.next(dataset.random);
+                if (!dataManager.addReferral(dataset.nextReferrer(), newcomer)) {
+                    throw new IllegalStateException("Could not add a pending referral for " + newcomer);
+                }
+                newcomers[i] = HeadlessPlugin.player(newcomer, "newcomer", PLAY_TIME_TICKS);
+            }
+            cursor = 0;
+        }
+    }
+
+    @Benchmark
+    public boolean addReferral(Dataset dataset, NewReferrals referrals) {
+        int i = referrals.cursor++;
+        return dataset.referra.dataManager().addReferral(referrals.referrers[i], referrals.newcomers[i]);
+    }
+
+    @Benchmark
+    public void checkAndConfirmReferrals(Dataset dataset, PendingReferrals pending) {
+        dataset.referra.dataManager().checkAndConfirmReferrals(pending.newcomers[pending.cursor++]);
+    }
+}
@@ -0,0 +1,263 @@
+package me.itzrenzo.referra.benchmark;
+
+import com.destroystokyo.paper.profile.PlayerProfile;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link Server} whose main thread is the thread that created it and which only moves on when that thread calls
+ * {@link #tick()}. Synchronous tasks run inside {@code tick()} the way the Bukkit scheduler runs them, one tick after
+ * they are scheduled at the earliest; asynchronous tasks are handed to a thread pool when they come due. Players are
+ * added and removed by the caller, messages to them are only counted, and console commands are counted instead of run.
+ */
+public final class SimulatedServer {
+    private final Thread mainThread = Thread.currentThread();
+    private final Map<UUID, Player> playersById = new ConcurrentHashMap<>();
+    private final Map<String, Player> playersByName = new ConcurrentHashMap<>();
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>(Comparator.comparingLong((Task task) -> task.nextTick)
+            .thenComparingInt(task -> task.id));
+    private final ExecutorService asyncPool = Executors.newCachedThreadPool(Thread.ofPlatform().name("sim-async-", 0).daemon().factory());
+    private final AtomicInteger taskIds = new AtomicInteger();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong consoleCommands = new AtomicLong();
+    private final Server server;
+    private volatile long currentTick;
+
+    public SimulatedServer() {
+        BukkitScheduler scheduler = HeadlessPlugin.proxy(BukkitScheduler.class, (self, method, args) -> schedule(method, args));
+        ConsoleCommandSender console = HeadlessPlugin.proxy(ConsoleCommandSender.class,
+                (self, method, args) -> HeadlessPlugin.defaultValue(method));
+        server = HeadlessPlugin.proxy(Server.class, (self, method, args) -> switch (method.getName()) {
+            case "getScheduler" -> scheduler;
+            case "getLogger" -> HeadlessPlugin.logger();
+            case "isPrimaryThread" -> Thread.currentThread() == mainThread;
+            case "getOnlinePlayers" -> List.copyOf(playersById.values());
+            case "getPlayer" -> args[0] instanceof UUID playerId
+                    ? playersById.get(playerId)
+                    : playersByName.get(((String) args[0]).toLowerCase(Locale.ROOT));
+            case "getPlayerExact" -> playersByName.get(((String) args[0]).toLowerCase(Locale.ROOT));
+            case "createProfile" -> profile((UUID) args[0], (String) args[1]);
+            case "getConsoleSender" -> console;
+            case "dispatchCommand" -> {
+                consoleCommands.incrementAndGet();
+                yield true;
+            }
+            default -> HeadlessPlugin.defaultValue(method);
+        });
+    }
+
+    /**
+     * Makes this the server behind the static {@link Bukkit} methods, which BukkitRunnable and the command use. Bukkit
+     * only accepts one server per JVM and announces it through build information a bare API jar does not have, so
+     * the field is set directly.
+     */
+    public void install() {
+        try {
+            Field field = Bukkit.class.getDeclaredField("server");
+            field.setAccessible(true);
+            field.set(null, server);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not install the simulated server", e);
+        }
+    }
+
+    public Server server() {
+        return server;
+    }
+
+    public long currentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Advances to the next tick and runs every task due by then. Must be called from the main thread.
+     */
+    public void tick() {
+        if (Thread.currentThread() != mainThread) {
+            throw new IllegalStateException("Ticks must run on the main thread");
+        }
+
+        long tick = ++currentTick;
+        while (true) {
+            Task task;
+            synchronized (tasks) {
+                if (tasks.isEmpty() || tasks.peek().nextTick > tick) {
+                    return;
+                }
+                task = tasks.poll();
+                if (task.period > 0 && !task.cancelled) {
+                    task.nextTick += task.period;
+                    tasks.add(task);
+                }
+            }
+
+            if (task.cancelled) {
+                continue;
+            }
+            if (task.async) {
+                asyncPool.execute(task.runnable);
+            } else {
+                task.runnable.run();
+            }
+        }
+    }
+
+    /**
+     * An online player with an address and a play time that can change while they are online.
+     */
+    public Player join(UUID playerId, String name, InetSocketAddress address, LongSupplier playTimeTicks, boolean admin) {
+        Player player = HeadlessPlugin.proxy(Player.class, (self, method, args) -> switch (method.getName()) {
+            case "getUniqueId" -> playerId;
+            case "getName" -> name;
+            case "getAddress" -> address;
+            case "getStatistic" -> (int) Math.min(Integer.MAX_VALUE, playTimeTicks.getAsLong());
+            case "isOnline" -> playersById.containsKey(playerId);
+            case "hasPermission" -> admin;
+            case "sendMessage" -> {
+                messages.incrementAndGet();
+                yield null;
+            }
+            default -> HeadlessPlugin.defaultValue(method);
+        });
+        playersById.put(playerId, player);
+        playersByName.put(name.toLowerCase(Locale.ROOT), player);
+        return player;
+    }
+
+    public void quit(Player player) {
+        playersById.remove(player.getUniqueId());
+        playersByName.remove(player.getName().toLowerCase(Locale.ROOT));
+    }
+
+    public int getOnlineCount() {
+        return playersById.size();
+    }
+
+    /**
+     * Runs work on the pool that asynchronous tasks use, like the server's login threads.
+     */
+    public void runAsync(Runnable work) {
+        asyncPool.execute(work);
+    }
+
+    public long getMessageCount() {
+        return messages.get();
+    }
+
+    public long getConsoleCommandCount() {
+        return consoleCommands.get();
+    }
+
+    public void shutdown() {
+        asyncPool.shutdown();
+        try {
+            asyncPool.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Object schedule(Method method, Object[] args) {
+        String name = method.getName();
+        switch (name) {
+            case "cancelTask" -> {
+                cancel((int) args[0]);
+                return null;
+            }
+            case "cancelTasks" -> {
+                synchronized (tasks) {
+                    tasks.forEach(task -> task.cancelled = true);
+                    tasks.clear();
+                }
+                return null;
+            }
+            case "runTask", "runTaskLater", "runTaskTimer",
+                 "runTaskAsynchronously", "runTaskLaterAsynchronously", "runTaskTimerAsynchronously" -> {
+                if (!(args[1] instanceof Runnable runnable) || method.getReturnType() != BukkitTask.class) {
+                    throw new UnsupportedOperationException(name + " is only simulated with a Runnable");
+                }
+                long delay = args.length > 2 ? (long) args[2] : 0;
+                long period = args.length > 3 ? (long) args[3] : 0;
+                return submit((Plugin) args[0], runnable, delay, period, name.endsWith("Asynchronously"));
+            }
+            default -> throw new UnsupportedOperationException("BukkitScheduler." + name + " is not simulated");
+        }
+    }
+
+    private BukkitTask submit(Plugin owner, Runnable runnable, long delay, long period, boolean async) {
+        Task task = new Task(taskIds.incrementAndGet(), runnable, currentTick + Math.max(1, delay), period, async);
+        synchronized (tasks) {
+            tasks.add(task);
+        }
+        return HeadlessPlugin.proxy(BukkitTask.class, (self, method, args) -> switch (method.getName()) {
+            case "getTaskId" -> task.id;
+            case "getOwner" -> owner;
+            case "isSync" -> !task.async;
+            case "isCancelled" -> task.cancelled;
+            case "cancel" -> {
+                cancel(task.id);
+                yield null;
+            }
+            default -> HeadlessPlugin.defaultValue(method);
+        });
+    }
+
+    private void cancel(int taskId) {
+        synchronized (tasks) {
+            tasks.removeIf(task -> {
+                if (task.id == taskId) {
+                    task.cancelled = true;
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    private static PlayerProfile profile(UUID playerId, String name) {
+        return HeadlessPlugin.proxy(PlayerProfile.class, (self, method, args) -> switch (method.getName()) {
+            case "getId" -> playerId;
+            case "getName" -> name;
+            default -> HeadlessPlugin.defaultValue(method);
+        });
+    }
+
+    private static final class Task {
+        private final int id;
+        private final Runnable runnable;
+        private final long period;
+        private final boolean async;
+        private long nextTick;
+        private volatile boolean cancelled;
+
+        private Task(int id, Runnable runnable, long nextTick, long period, boolean async) {
+            this.id = id;
+            this.runnable = runnable;
+            this.nextTick = nextTick;
+            this.period = period;
+            this.async = async;
+        }
+    }
+}
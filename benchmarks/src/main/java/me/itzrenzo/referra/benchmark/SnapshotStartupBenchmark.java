@@ -0,0 +1,219 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.data.PlayerReferralData;
+import me.itzrenzo.referra.data.ReferralSnapshot;
+import me.itzrenzo.referra.database.DataLoadSink;
+import me.itzrenzo.referra.database.impl.SqliteConnectionProvider;
+import me.itzrenzo.referra.database.impl.SqliteSettings;
+import me.itzrenzo.referra.database.impl.StartupScan;
+import me.itzrenzo.referra.util.UuidBytes;
+import me.itzrenzo.referra.util.UuidLongMap;
+import me.itzrenzo.referra.util.UuidUuidMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * One eager startup load of {@code players} players, every fifth of them with a confirmed and a pending referral,
+ * either streamed from SQLite the way {@code loadAll} does or decoded from a {@link ReferralSnapshot} of the same data.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SnapshotStartupBenchmark {
+    private static final long GENERATION = 1;
+
+    @Param({"1000000"})
+    private int players;
+
+    @Param({"sql", "snapshot"})
+    private String source;
+
+    private Path directory;
+    private SqliteConnectionProvider connections;
+    private Path snapshot;
+
+    private Map<UUID, PlayerReferralData> playerData;
+    private UuidUuidMap referredBy;
+    private UuidLongMap firstJoinTimes;
+    private Map<UUID, String> playerIPs;
+
+    @Setup(Level.Trial)
+    public void createData() throws IOException, SQLException {
+        directory = Files.createTempDirectory("referra-snapshot-bench");
+        connections = new SqliteConnectionProvider("jdbc:sqlite:" + directory.resolve("referrals.db"), SqliteSettings.DEFAULTS);
+        snapshot = directory.resolve("snapshot.bin");
+        clearMaps();
+
+        SplittableRandom random = new SplittableRandom(42);
+        try (SqliteConnectionProvider.PooledConnection writer = connections.openWriteConnection()) {
+            Connection conn = writer.connection();
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE players (uuid BLOB PRIMARY KEY, name TEXT NOT NULL, referral_enabled BOOLEAN DEFAULT FALSE, " +
+                        "claimed_payout BOOLEAN DEFAULT FALSE, first_join_time INTEGER, ip_address TEXT)");
+                stmt.execute("CREATE TABLE confirmed_referrals (referrer_uuid BLOB, referred_uuid BLOB, PRIMARY KEY (referrer_uuid, referred_uuid))");
+                stmt.execute("CREATE TABLE pending_referrals (referrer_uuid BLOB, referred_uuid BLOB, timestamp INTEGER, " +
+                        "PRIMARY KEY (referrer_uuid, referred_uuid))");
+            }
+
+            conn.setAutoCommit(false);
+            try (PreparedStatement player = conn.prepareStatement(
+                    "INSERT INTO players (uuid, name, referral_enabled, first_join_time, ip_address) VALUES (?, ?, ?, ?, ?)");
+                 PreparedStatement confirmed = conn.prepareStatement("INSERT INTO confirmed_referrals (referrer_uuid, referred_uuid) VALUES (?, ?)");
+                 PreparedStatement pending = conn.prepareStatement(
+                         "INSERT INTO pending_referrals (referrer_uuid, referred_uuid, timestamp) VALUES (?, ?, ?)")) {
+                for (int i = 0; i < players; i++) {
+                    UUID playerId = SyntheticUuids.next(random);
+                    String name = "player" + i;
+                    long firstJoin = 1_700_000_000_000L + i;
+                    String ip = "10." + (i >>> 16 & 0xFF) + "." + (i >>> 8 & 0xFF) + "." + (i & 0xFF);
+                    player.setBytes(1, UuidBytes.toBytes(playerId));
+                    player.setString(2, name);
+                    player.setBoolean(3, i % 5 == 0);
+                    player.setLong(4, firstJoin);
+                    player.setString(5, ip);
+                    player.addBatch();
+
+                    PlayerReferralData data = new PlayerReferralData(playerId, name);
+                    data.setReferralEnabled(i % 5 == 0);
+                    if (i % 5 == 0) {
+                        UUID confirmedId = SyntheticUuids.next(random);
+                        UUID pendingId = SyntheticUuids.next(random);
+                        confirmed.setBytes(1, UuidBytes.toBytes(playerId));
+                        confirmed.setBytes(2, UuidBytes.toBytes(confirmedId));
+                        confirmed.addBatch();
+                        pending.setBytes(1, UuidBytes.toBytes(playerId));
+                        pending.setBytes(2, UuidBytes.toBytes(pendingId));
+                        pending.setLong(3, firstJoin);
+                        pending.addBatch();
+
+                        data.addReferral(confirmedId);
+                        data.addPendingReferral(pendingId, firstJoin);
+                        referredBy.put(confirmedId, playerId);
+                        referredBy.put(pendingId, playerId);
+                    }
+                    playerData.put(playerId, data);
+                    firstJoinTimes.put(playerId, firstJoin);
+                    playerIPs.put(playerId, ip);
+
+                    if (i % 10_000 == 9_999) {
+                        player.executeBatch();
+                        confirmed.executeBatch();
+                        pending.executeBatch();
+                    }
+                }
+                player.executeBatch();
+                confirmed.executeBatch();
+                pending.executeBatch();
+            }
+            conn.commit();
+        }
+
+        ReferralSnapshot.write(snapshot, GENERATION, playerData, referredBy, firstJoinTimes, playerIPs);
+    }
+
+    @Setup(Level.Iteration)
+    public void clearMaps() {
+        playerData = new ConcurrentHashMap<>();
+        referredBy = new UuidUuidMap();
+        firstJoinTimes = new UuidLongMap();
+        playerIPs = new ConcurrentHashMap<>();
+        System.gc();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteData() throws IOException, SQLException {
+        connections.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public int load() throws IOException, SQLException {
+        if (source.equals("snapshot")) {
+            ReferralSnapshot.read(snapshot, GENERATION, playerData, referredBy, firstJoinTimes, playerIPs);
+        } else {
+            try (Connection conn = connections.getConnection()) {
+                DataLoadSink sink = new MapSink();
+                sink.expect(StartupScan.estimateRowCount(conn, "players"),
+                        StartupScan.estimateRowCount(conn, "confirmed_referrals") + StartupScan.estimateRowCount(conn, "pending_referrals"));
+                StartupScan.players(conn, null, null, 0, sink);
+                StartupScan.referrals(conn, null, null, 0, sink);
+            }
+            playerData.values().forEach(PlayerReferralData::markClean);
+        }
+        return playerData.size();
+    }
+
+    /** Same indexing as the plugin's startup loader */
+    private final class MapSink implements DataLoadSink {
+        @Override
+        public void expect(int players, int referrals) {
+            referredBy.ensureCapacity(referrals);
+            firstJoinTimes.ensureCapacity(players);
+        }
+
+        @Override
+        public void player(UUID playerId, String name, boolean referralEnabled, boolean claimedReward, Long firstJoinTime, String ipAddress) {
+            PlayerReferralData data = new PlayerReferralData(playerId, name);
+            data.setReferralEnabled(referralEnabled);
+            data.setClaimedReward(claimedReward);
+            playerData.put(playerId, data);
+            if (firstJoinTime != null) {
+                firstJoinTimes.put(playerId, firstJoinTime);
+            }
+            if (ipAddress != null) {
+                playerIPs.put(playerId, ipAddress);
+            }
+        }
+
+        @Override
+        public void confirmedReferral(UUID referrerId, UUID referredId) {
+            referredBy.put(referredId, referrerId);
+            PlayerReferralData data = playerData.get(referrerId);
+            if (data != null) {
+                data.addReferral(referredId);
+            }
+        }
+
+        @Override
+        public void pendingReferral(UUID referrerId, UUID referredId, long timestamp) {
+            referredBy.put(referredId, referrerId);
+            PlayerReferralData data = playerData.get(referrerId);
+            if (data != null) {
+                data.addPendingReferral(referredId, timestamp);
+            }
+        }
+    }
+}
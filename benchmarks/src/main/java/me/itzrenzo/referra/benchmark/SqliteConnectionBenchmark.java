@@ -0,0 +1,135 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.database.impl.SqliteConnectionProvider;
+import me.itzrenzo.referra.database.impl.SqliteSettings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-operation latency of the join-time SQLite writes and the player lookup, opening a connection per operation
+ * (the old behaviour) against the persistent connection with pragmas and the prepared-statement cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqliteConnectionBenchmark {
+    private static final int PLAYERS = 10_000;
+
+    @Param({"per-operation", "persistent"})
+    private String connectionMode;
+
+    private Path directory;
+    private SqliteConnectionProvider connections;
+    private SqliteConnectionProvider.PooledConnection writer;
+    private UUID[] players;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        directory = Files.createTempDirectory("referra-sqlite-bench");
+        // Per-operation connections skip the pragmas entirely, like the old getConnection() did
+        SqliteSettings settings = SqliteSettings.DEFAULTS.withPersistentConnection(connectionMode.equals("persistent"));
+        connections = new SqliteConnectionProvider("jdbc:sqlite:" + directory.resolve("referrals.db"), settings);
+
+        if (settings.persistentConnection()) {
+            writer = connections.openWriteConnection();
+        }
+
+        random = new SplittableRandom(42);
+        players = SyntheticUuids.generate(random, PLAYERS);
+        try (Connection conn = writeConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE players (uuid TEXT PRIMARY KEY, name TEXT NOT NULL, referral_enabled BOOLEAN DEFAULT FALSE, " +
+                    "claimed_payout BOOLEAN DEFAULT FALSE, first_join_time INTEGER, ip_address TEXT)");
+            conn.setAutoCommit(false);
+            try (PreparedStatement insert = conn.prepareStatement("INSERT INTO players (uuid, name, first_join_time) VALUES (?, ?, ?)")) {
+                for (int i = 0; i < PLAYERS; i++) {
+                    insert.setString(1, players[i].toString());
+                    insert.setString(2, "player" + i);
+                    insert.setLong(3, 1_700_000_000_000L + i);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            conn.commit();
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private Connection writeConnection() throws SQLException {
+        return writer != null ? writer.lease(released -> { }) : connections.getConnection();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, SQLException {
+        connections.close();
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public int savePlayerIP() throws SQLException {
+        try (Connection conn = writeConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "INSERT INTO players (uuid, name, referral_enabled, claimed_payout, ip_address) VALUES (?, 'Unknown', FALSE, FALSE, ?) " +
+                             "ON CONFLICT(uuid) DO UPDATE SET ip_address = excluded.ip_address")) {
+            stmt.setString(1, players[random.nextInt(PLAYERS)].toString());
+            stmt.setString(2, "10.0." + random.nextInt(256) + "." + random.nextInt(256));
+            return stmt.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    public int saveFirstJoinTime() throws SQLException {
+        try (Connection conn = writeConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "INSERT INTO players (uuid, name, referral_enabled, claimed_payout, first_join_time) VALUES (?, 'Unknown', FALSE, FALSE, ?) " +
+                             "ON CONFLICT(uuid) DO UPDATE SET first_join_time = excluded.first_join_time")) {
+            stmt.setString(1, players[random.nextInt(PLAYERS)].toString());
+            stmt.setLong(2, System.currentTimeMillis());
+            return stmt.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    public String loadPlayer() throws SQLException {
+        try (Connection conn = connections.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "SELECT name, referral_enabled, claimed_payout, first_join_time, ip_address FROM players WHERE uuid = ?")) {
+            stmt.setString(1, players[random.nextInt(PLAYERS)].toString());
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString("name") : null;
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.data.PlayerReferralData;
+import me.itzrenzo.referra.database.impl.InMemoryDatabaseManager;
+import me.itzrenzo.referra.database.impl.JournalEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * A seeded referral forest shaped like a live server's. Players join one after another and {@value #REFERRED_PERCENT}%
+ * of them were referred by someone who joined earlier. Half of the referrers are picked in proportion to how many
+ * players they already referred, so a few players bring in most newcomers, and the rest are picked uniformly. That
+ * gives short chains for most players with a long tail, growing with the logarithm of the player count.
+ * {@value #CONFIRMED_PERCENT}% of referrals are confirmed and the rest still pending.
+ */
+public final class SyntheticReferrals {
+    /** Highest number of referrals any generated player has, also used as the benchmark's per-player limit */
+    public static final int MAX_REFERRALS = 10_000;
+    private static final int REFERRED_PERCENT = 40;
+    private static final int CONFIRMED_PERCENT = 80;
+    private static final long FIRST_JOIN = 1_700_000_000_000L;
+
+    private final UUID[] players;
+    /** Index of each player's referrer, or -1 */
+    private final int[] referrers;
+    private final boolean[] confirmed;
+    private final boolean[] referralEnabled;
+    private final int[] depths;
+    private final int[] referralCounts;
+    private int maxDepth;
+    private long totalDepth;
+    private int referredCount;
+
+    private SyntheticReferrals(int count) {
+        players = new UUID[count];
+        referrers = new int[count];
+        confirmed = new boolean[count];
+        referralEnabled = new boolean[count];
+        depths = new int[count];
+        referralCounts = new int[count];
+    }
+
+    public static SyntheticReferrals generate(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        SyntheticReferrals forest = new SyntheticReferrals(count);
+        // Every referral made so far, by referrer, so picking a random entry picks referrers by how many they made
+        int[] referralLog = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            forest.players[i] = SyntheticUuids.next(random);
+            forest.referrers[i] = -1;
+            forest.referralEnabled[i] = random.nextInt(100) < 20;
+            if (i == 0 || random.nextInt(100) >= REFERRED_PERCENT) {
+                continue;
+            }
+
+            int referrer = forest.referredCount > 0 && random.nextBoolean()
+                    ? referralLog[random.nextInt(forest.referredCount)]
+                    : random.nextInt(i);
+            if (forest.referralCounts[referrer] >= MAX_REFERRALS) {
+                continue;
+            }
+
+            forest.referrers[i] = referrer;
+            forest.confirmed[i] = random.nextInt(100) < CONFIRMED_PERCENT;
+            forest.referralEnabled[referrer] = true;
+            forest.referralCounts[referrer]++;
+            forest.depths[i] = forest.depths[referrer] + 1;
+            forest.maxDepth = Math.max(forest.maxDepth, forest.depths[i]);
+            forest.totalDepth += forest.depths[i];
+            referralLog[forest.referredCount++] = referrer;
+        }
+        return forest;
+    }
+
+    /**
+     * Writes every player and referral straight into the tables, skipping the injected faults.
+     */
+    public void seed(InMemoryDatabaseManager database) {
+        database.seed(events -> {
+            for (int i = 0; i < players.length; i++) {
+                events.accept(new JournalEvent.Profile(players[i], name(i), referralEnabled[i], false));
+                events.accept(new JournalEvent.FirstJoin(players[i], firstJoin(i)));
+                events.accept(new JournalEvent.PlayerIp(players[i], ipAddress(i)));
+            }
+            for (int i = 0; i < players.length; i++) {
+                if (referrers[i] < 0) {
+                    continue;
+                }
+                UUID referrerId = players[referrers[i]];
+                if (confirmed[i]) {
+                    events.accept(new JournalEvent.Confirmed(referrerId, players[i]));
+                } else {
+                    events.accept(new JournalEvent.PendingAdded(referrerId, players[i], firstJoin(i)));
+                }
+            }
+        });
+    }
+
+    /**
+     * Every player with their referrals as new, unsaved {@link PlayerReferralData}, the way a save sees players
+     * nobody has written yet. Each call builds new objects, so a save of one copy does not mark another clean.
+     */
+    public Map<UUID, PlayerReferralData> toPlayerData() {
+        Map<UUID, PlayerReferralData> data = new HashMap<>(players.length * 4 / 3 + 1);
+        for (int i = 0; i < players.length; i++) {
+            PlayerReferralData player = new PlayerReferralData(players[i], name(i));
+            player.setReferralEnabled(referralEnabled[i]);
+            data.put(players[i], player);
+        }
+        for (int i = 0; i < players.length; i++) {
+            if (referrers[i] < 0) {
+                continue;
+            }
+            PlayerReferralData referrer = data.get(players[referrers[i]]);
+            if (confirmed[i]) {
+                referrer.addReferral(players[i]);
+            } else {
+                referrer.addPendingReferral(players[i], firstJoin(i));
+            }
+        }
+        return data;
+    }
+
+    public int size() {
+        return players.length;
+    }
+
+    public UUID player(int index) {
+        return players[index];
+    }
+
+    public String name(int index) {
+        return "player" + index;
+    }
+
+    public long firstJoin(int index) {
+        return FIRST_JOIN + index;
+    }
+
+    public String ipAddress(int index) {
+        return "10." + (index >>> 16 & 0xFF) + "." + (index >>> 8 & 0xFF) + "." + (index & 0xFF);
+    }
+
+    public int referrer(int index) {
+        return referrers[index];
+    }
+
+    public boolean isReferralEnabled(int index) {
+        return referralEnabled[index];
+    }
+
+    public int depth(int index) {
+        return depths[index];
+    }
+
+    public int referralCount(int index) {
+        return referralCounts[index];
+    }
+
+    public String describe() {
+        return String.format("%d players, %d referred, chain depth mean %.2f, max %d", players.length, referredCount,
+                referredCount == 0 ? 0.0 : (double) totalDepth / referredCount, maxDepth);
+    }
+}
@@ -0,0 +1,27 @@
+package me.itzrenzo.referra.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * Seeded version 4 UUIDs so every benchmark run works on the same player ids.
+ */
+public final class SyntheticUuids {
+
+    private SyntheticUuids() {
+    }
+
+    public static UUID next(SplittableRandom random) {
+        long mostSigBits = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long leastSigBits = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits);
+    }
+
+    public static UUID[] generate(SplittableRandom random, int count) {
+        UUID[] uuids = new UUID[count];
+        for (int i = 0; i < count; i++) {
+            uuids[i] = next(random);
+        }
+        return uuids;
+    }
+}
@@ -0,0 +1,108 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.util.UuidLongMap;
+import me.itzrenzo.referra.util.UuidUuidMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup cost of the primitive UUID maps against the boxed HashMaps they replaced in ReferralDataManager.
+ * Memory footprint for the same datasets is reported by {@link UuidMapFootprint}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms12g", "-Xmx12g"})
+public class UuidMapBenchmark {
+    private static final int SAMPLE_SIZE = 1 << 16;
+
+    @Param({"1000000", "10000000"})
+    private int size;
+
+    private Map<UUID, UUID> referredByHashMap;
+    private UuidUuidMap referredByUuidMap;
+    private Map<UUID, Long> joinTimeHashMap;
+    private UuidLongMap joinTimeUuidMap;
+
+    private UUID[] hits;
+    private UUID[] misses;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        referredByHashMap = new HashMap<>();
+        referredByUuidMap = new UuidUuidMap();
+        joinTimeHashMap = new HashMap<>();
+        joinTimeUuidMap = new UuidLongMap();
+        hits = new UUID[SAMPLE_SIZE];
+        misses = new UUID[SAMPLE_SIZE];
+
+        UUID[] players = SyntheticUuids.generate(random, size);
+        for (int i = 0; i < size; i++) {
+            UUID referrer = players[random.nextInt(size)];
+            long joinTime = 1_700_000_000_000L + i;
+            referredByHashMap.put(players[i], referrer);
+            referredByUuidMap.put(players[i], referrer);
+            joinTimeHashMap.put(players[i], joinTime);
+            joinTimeUuidMap.put(players[i], joinTime);
+        }
+
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            hits[i] = players[random.nextInt(size)];
+            misses[i] = SyntheticUuids.next(random);
+        }
+    }
+
+    private int nextIndex() {
+        return cursor++ & (SAMPLE_SIZE - 1);
+    }
+
+    @Benchmark
+    public UUID referrerHashMapHit() {
+        return referredByHashMap.get(hits[nextIndex()]);
+    }
+
+    @Benchmark
+    public UUID referrerUuidMapHit() {
+        return referredByUuidMap.get(hits[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean referrerHashMapMiss() {
+        return referredByHashMap.containsKey(misses[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean referrerUuidMapMiss() {
+        return referredByUuidMap.containsKey(misses[nextIndex()]);
+    }
+
+    @Benchmark
+    public Long joinTimeHashMapHit() {
+        return joinTimeHashMap.get(hits[nextIndex()]);
+    }
+
+    @Benchmark
+    public long joinTimeUuidMapHit() {
+        return joinTimeUuidMap.get(hits[nextIndex()], -1L);
+    }
+}
@@ -0,0 +1,55 @@
+package me.itzrenzo.referra.benchmark;
+
+import me.itzrenzo.referra.util.UuidLongMap;
+import me.itzrenzo.referra.util.UuidUuidMap;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * Prints the retained heap of each map implementation for the given entry counts.
+ * Run with {@code java -Xmx16g -cp target/benchmarks.jar me.itzrenzo.referra.benchmark.UuidMapFootprint 1000000 10000000}.
+ * Totals include the boxed keys and values a HashMap retains, since the plugin's maps own the UUIDs they load.
+ */
+public final class UuidMapFootprint {
+
+    private UuidMapFootprint() {
+    }
+
+    public static void main(String[] args) {
+        String[] sizes = args.length == 0 ? new String[]{"1000000", "10000000"} : args;
+        for (String value : sizes) {
+            measure(Integer.parseInt(value));
+        }
+    }
+
+    private static void measure(int size) {
+        SplittableRandom random = new SplittableRandom(42);
+        UUID[] players = SyntheticUuids.generate(random, size);
+
+        Map<UUID, UUID> referredByHashMap = new HashMap<>();
+        UuidUuidMap referredByUuidMap = new UuidUuidMap();
+        Map<UUID, Long> joinTimeHashMap = new HashMap<>();
+        UuidLongMap joinTimeUuidMap = new UuidLongMap();
+        for (int i = 0; i < size; i++) {
+            UUID referrer = players[random.nextInt(size)];
+            long joinTime = 1_700_000_000_000L + i;
+            referredByHashMap.put(players[i], referrer);
+            referredByUuidMap.put(players[i], referrer);
+            joinTimeHashMap.put(players[i], joinTime);
+            joinTimeUuidMap.put(players[i], joinTime);
+        }
+
+        report(size, "referredBy HashMap<UUID, UUID>", GraphLayout.parseInstance(referredByHashMap).totalSize());
+        report(size, "referredBy UuidUuidMap", GraphLayout.parseInstance(referredByUuidMap).totalSize());
+        report(size, "firstJoin HashMap<UUID, Long>", GraphLayout.parseInstance(joinTimeHashMap).totalSize());
+        report(size, "firstJoin UuidLongMap", GraphLayout.parseInstance(joinTimeUuidMap).totalSize());
+    }
+
+    private static void report(int size, String name, long bytes) {
+        System.out.printf("%,12d entries  %-32s %,16d bytes  %6.1f bytes/entry%n", size, name, bytes, bytes / (double) size);
+    }
+}
@@ -21,7 +21,25 @@ public final class Referra extends JavaPlugin {
         getCommand("referral").setTabCompleter(referralCommand);
         getServer().getPluginManager().registerEvents(eventListener, this);
 
-        getLogger().info("Referra plugin has been enabled.");
+        // Loading happens in the background; commands and joins are held back until the data is ready
+        dataManager.start().whenComplete((ignored, error) -> {
+            if (error == null) {
+                eventListener.prefetchQueuedJoins();
+            }
+            if (!isEnabled()) {
+                return;
+            }
+            getServer().getScheduler().runTask(this, () -> {
+                if (error != null) {
+                    getLogger().severe("Referra could not load its data and will be disabled: " + error.getMessage());
+                    getServer().getPluginManager().disablePlugin(this);
+                    return;
+                }
+                eventListener.replayQueuedJoins();
+            });
+        });
+
+        getLogger().info("Referra plugin has been enabled, loading referral data in the background.");
     }
 
     @Override
@@ -3,6 +3,15 @@ package me.itzrenzo.referra.commands;
 import me.itzrenzo.referra.Referra;
 import me.itzrenzo.referra.data.PlayerReferralData;
 import me.itzrenzo.referra.data.ReferralDataManager;
+import me.itzrenzo.referra.database.WriteBehindQueue;
+import me.itzrenzo.referra.database.impl.Journal;
+import me.itzrenzo.referra.database.impl.JournalDatabaseManager;
+import me.itzrenzo.referra.database.impl.SqliteDatabaseManager;
+import me.itzrenzo.referra.database.impl.SqliteWriter;
+import me.itzrenzo.referra.metrics.Counter;
+import me.itzrenzo.referra.metrics.LatencyHistogram;
+import me.itzrenzo.referra.metrics.MetricsRegistry;
+import me.itzrenzo.referra.util.BoundedExecutor;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 import org.bukkit.Bukkit;
@@ -12,22 +21,24 @@ import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
-import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.Plugin;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.LongSupplier;
 
 public class ReferralCommand implements CommandExecutor, TabCompleter {
     private static final int PLAYERS_PER_PAGE = 10;
     private static final Set<String> SUB_COMMANDS = Set.of("help", "create", "claim", "top", "admin");
 
     private final ReferralDataManager dataManager;
-    private final JavaPlugin plugin;
+    private final Plugin plugin;
 
-    public ReferralCommand(ReferralDataManager dataManager, JavaPlugin plugin) {
+    public ReferralCommand(ReferralDataManager dataManager, Plugin plugin) {
         this.dataManager = dataManager;
         this.plugin = plugin;
     }
@@ -39,6 +50,11 @@ public class ReferralCommand implements CommandExecutor, TabCompleter {
             return true;
         }
 
+        if (!dataManager.isReady()) {
+            player.sendMessage(Component.text("Referrals are still warming up. Please try again in a moment.").color(NamedTextColor.YELLOW));
+            return true;
+        }
+
         if (args.length == 0) {
             showHelp(player);
             return true;
@@ -81,6 +97,10 @@ public class ReferralCommand implements CommandExecutor, TabCompleter {
                     .append(Component.text(" - Reset player data").color(NamedTextColor.WHITE)));
             player.sendMessage(Component.text("/referral admin reload").color(NamedTextColor.YELLOW)
                     .append(Component.text(" - Reload configuration").color(NamedTextColor.WHITE)));
+            player.sendMessage(Component.text("/referral admin queue").color(NamedTextColor.YELLOW)
+                    .append(Component.text(" - View save queue and executor stats").color(NamedTextColor.WHITE)));
+            player.sendMessage(Component.text("/referral admin metrics").color(NamedTextColor.YELLOW)
+                    .append(Component.text(" - View counters, gauges and latencies").color(NamedTextColor.WHITE)));
         }
     }
 
@@ -103,7 +123,7 @@ public class ReferralCommand implements CommandExecutor, TabCompleter {
         }
 
         referrerData.setReferralEnabled(true);
-        dataManager.saveData();
+        dataManager.savePlayerData(referrerData);
 
         player.sendMessage(Component.text("Your referral status is now active!").color(NamedTextColor.GREEN));
         player.sendMessage(Component.text("Share your IGN with new players so they can use /referral " + player.getName()).color(NamedTextColor.YELLOW));
@@ -172,11 +192,13 @@ public class ReferralCommand implements CommandExecutor, TabCompleter {
             return;
         }
 
-        if (dataManager.claimReferrerReward(player)) {
-            player.sendMessage(Component.text("Your referral reward has been claimed successfully!").color(NamedTextColor.GREEN));
-        } else {
-            player.sendMessage(Component.text("Your reward could not be claimed right now. Please contact staff.").color(NamedTextColor.RED));
-        }
+        dataManager.claimReferrerReward(player).exceptionally(error -> false).thenAccept(claimed -> {
+            if (claimed) {
+                player.sendMessage(Component.text("Your referral reward has been claimed successfully!").color(NamedTextColor.GREEN));
+            } else {
+                player.sendMessage(Component.text("Your reward could not be claimed right now. Please contact staff.").color(NamedTextColor.RED));
+            }
+        });
     }
 
     private void notifyAdminsOfBlockedReferral(Player player, Player referrer) {
@@ -199,30 +221,36 @@ public class ReferralCommand implements CommandExecutor, TabCompleter {
             }
         }
 
-        List<PlayerReferralData> topReferrers = dataManager.getTopReferrers(100);
-        if (topReferrers.isEmpty()) {
+        int rankedReferrers = dataManager.getRankedReferrerCount();
+        if (rankedReferrers == 0) {
             player.sendMessage(Component.text("No confirmed referrals have been recorded yet.").color(NamedTextColor.YELLOW));
             return;
         }
 
-        int totalPages = (int) Math.ceil((double) topReferrers.size() / PLAYERS_PER_PAGE);
+        int totalPages = (int) Math.ceil((double) rankedReferrers / PLAYERS_PER_PAGE);
         if (page < 1 || page > totalPages) {
             player.sendMessage(Component.text("Invalid page number! Valid pages: 1-" + totalPages).color(NamedTextColor.RED));
             return;
         }
 
         int startIndex = (page - 1) * PLAYERS_PER_PAGE;
-        int endIndex = Math.min(startIndex + PLAYERS_PER_PAGE, topReferrers.size());
+        List<PlayerReferralData> topReferrers = dataManager.getTopReferrers(startIndex, PLAYERS_PER_PAGE);
 
         player.sendMessage(Component.text("=== Top Referrers (Page " + page + "/" + totalPages + ") ===").color(NamedTextColor.GOLD));
-        for (int i = startIndex; i < endIndex; i++) {
+        for (int i = 0; i < topReferrers.size(); i++) {
             PlayerReferralData data = topReferrers.get(i);
-            int rank = i + 1;
+            int rank = startIndex + i + 1;
             player.sendMessage(Component.text("#" + rank + ". ").color(NamedTextColor.YELLOW)
                     .append(Component.text(data.getPlayerName()).color(NamedTextColor.WHITE))
                     .append(Component.text(" - ").color(NamedTextColor.GRAY))
                     .append(Component.text(data.getReferralCount() + " referrals").color(NamedTextColor.GREEN)));
         }
+
+        int playerRank = dataManager.getReferrerRank(player.getUniqueId());
+        if (playerRank > 0) {
+            player.sendMessage(Component.text("Your rank: ").color(NamedTextColor.YELLOW)
+                    .append(Component.text("#" + playerRank + " of " + rankedReferrers).color(NamedTextColor.WHITE)));
+        }
     }
 
     private void handleAdmin(Player player, String[] args) {
@@ -232,7 +260,7 @@ public class ReferralCommand implements CommandExecutor, TabCompleter {
         }
 
         if (args.length < 2) {
-            player.sendMessage(Component.text("Usage: /referral admin <stats|reset|reload> [player]").color(NamedTextColor.RED));
+            player.sendMessage(Component.text("Usage: /referral admin <stats|reset|reload|queue|metrics> [player]").color(NamedTextColor.RED));
             return;
         }
 
@@ -241,7 +269,9 @@ public class ReferralCommand implements CommandExecutor, TabCompleter {
             case "stats" -> handleAdminStats(player, args);
             case "reset" -> handleAdminReset(player, args);
             case "reload" -> handleAdminReload(player);
-            default -> player.sendMessage(Component.text("Unknown admin command! Use: stats, reset, reload").color(NamedTextColor.RED));
+            case "queue" -> handleAdminQueue(player);
+            case "metrics" -> handleAdminMetrics(player);
+            default -> player.sendMessage(Component.text("Unknown admin command! Use: stats, reset, reload, queue, metrics").color(NamedTextColor.RED));
         }
     }
 
@@ -317,6 +347,77 @@ public class ReferralCommand implements CommandExecutor, TabCompleter {
         targetPlayer.sendMessage(Component.text("Your referral data has been reset by an administrator.").color(NamedTextColor.YELLOW));
     }
 
+    private void handleAdminQueue(Player player) {
+        WriteBehindQueue saveQueue = dataManager.getSaveQueue();
+        player.sendMessage(Component.text("=== Save Queue ===").color(NamedTextColor.GOLD));
+        player.sendMessage(Component.text("Queued Players: ").color(NamedTextColor.YELLOW)
+                .append(Component.text(saveQueue.getQueueDepth()).color(NamedTextColor.WHITE)));
+        player.sendMessage(Component.text("Saves Requested: ").color(NamedTextColor.YELLOW)
+                .append(Component.text(saveQueue.getEnqueuedCount()).color(NamedTextColor.WHITE))
+                .append(Component.text(" (" + saveQueue.getCoalescedCount() + " coalesced)").color(NamedTextColor.GRAY)));
+        player.sendMessage(Component.text("Flushes: ").color(NamedTextColor.YELLOW)
+                .append(Component.text(saveQueue.getFlushCount()).color(NamedTextColor.WHITE))
+                .append(Component.text(" (" + saveQueue.getFlushedPlayerCount() + " players written)").color(NamedTextColor.GRAY)));
+        player.sendMessage(Component.text("Flush Latency: ").color(NamedTextColor.YELLOW)
+                .append(Component.text(String.format(Locale.US, "last %.1f ms, avg %.1f ms, max %.1f ms",
+                        saveQueue.getLastFlushMillis(), saveQueue.getAverageFlushMillis(), saveQueue.getMaxFlushMillis()))
+                        .color(NamedTextColor.WHITE)));
+
+        sendExecutorStats(player, "Database Executor", dataManager.getDatabaseExecutor());
+        if (dataManager.getDatabaseManager() instanceof SqliteDatabaseManager sqlite && sqlite.getWriter() != null) {
+            SqliteWriter writer = sqlite.getWriter();
+            player.sendMessage(Component.text("SQLite Writer: ").color(NamedTextColor.YELLOW)
+                    .append(Component.text(writer.getQueueDepth() + " queued, " + writer.getWriteCount() + " writes in "
+                            + writer.getBatchCount() + " commits").color(NamedTextColor.WHITE))
+                    .append(Component.text(String.format(Locale.US, " (batch avg %.1f, max %d, commit last %.1f ms, max %.1f ms, %d failed)",
+                            writer.getAverageBatchSize(), writer.getMaxBatchSize(), writer.getLastCommitMillis(),
+                            writer.getMaxCommitMillis(), writer.getFailedCount())).color(NamedTextColor.GRAY)));
+        }
+        if (dataManager.getDatabaseManager() instanceof JournalDatabaseManager journalManager && journalManager.getJournal() != null) {
+            Journal journal = journalManager.getJournal();
+            player.sendMessage(Component.text("Journal Writer: ").color(NamedTextColor.YELLOW)
+                    .append(Component.text(journal.getQueueDepth() + " queued, " + journal.getWriteCount() + " writes in "
+                            + journal.getBatchCount() + " fsyncs, " + journal.getSegmentCount() + " segments").color(NamedTextColor.WHITE))
+                    .append(Component.text(String.format(Locale.US, " (batch avg %.1f, max %d, fsync last %.1f ms, max %.1f ms, %d failed)",
+                            journal.getAverageBatchSize(), journal.getMaxBatchSize(), journal.getLastCommitMillis(),
+                            journal.getMaxCommitMillis(), journal.getFailedCount())).color(NamedTextColor.GRAY)));
+        }
+        sendExecutorStats(player, "Webhook Executor", dataManager.getDiscordManager().getExecutor());
+    }
+
+    private void sendExecutorStats(Player player, String label, BoundedExecutor executor) {
+        player.sendMessage(Component.text(label + ": ").color(NamedTextColor.YELLOW)
+                .append(Component.text(executor.getRunningCount() + " running, " + executor.getQueueDepth() + " queued")
+                        .color(NamedTextColor.WHITE))
+                .append(Component.text(String.format(Locale.US, " (wait avg %.1f ms, max %.1f ms, %d rejected)",
+                        executor.getAverageWaitMillis(), executor.getMaxWaitMillis(), executor.getRejectedCount()))
+                        .color(NamedTextColor.GRAY)));
+    }
+
+    private void handleAdminMetrics(Player player) {
+        player.sendMessage(Component.text("=== Referral Metrics ===").color(NamedTextColor.GOLD));
+        for (MetricsRegistry.Family family : dataManager.getMetrics().getFamilies()) {
+            String familyName = family.getName().replaceFirst("^referra_", "");
+            for (Map.Entry<String, Object> child : family.getChildren().entrySet()) {
+                String name = child.getKey().isEmpty() ? familyName : familyName + "{" + child.getKey() + "}";
+                String value = switch (child.getValue()) {
+                    case Counter counter -> Long.toString(counter.get());
+                    case LongSupplier gauge -> Long.toString(gauge.getAsLong());
+                    // Operations that never ran would bury the ones that did
+                    case LatencyHistogram histogram when histogram.getCount() == 0 -> null;
+                    case LatencyHistogram histogram -> String.format(Locale.US, "%d, avg %.2f ms, p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                            histogram.getCount(), histogram.getMeanMillis(), histogram.getPercentileMillis(0.50),
+                            histogram.getPercentileMillis(0.99), histogram.getMaxMillis());
+                    default -> null;
+                };
+                if (value != null) {
+                    player.sendMessage(Component.text(name + ": ").color(NamedTextColor.YELLOW)
+                            .append(Component.text(value).color(NamedTextColor.WHITE)));
+                }
+            }
+        }
+    }
+
     private void handleAdminReload(Player player) {
         dataManager.reloadConfiguration();
         if (plugin instanceof Referra referra) {
@@ -369,7 +470,7 @@ public class ReferralCommand implements CommandExecutor, TabCompleter {
             }
         } else if (args.length == 2) {
             if (args[0].equalsIgnoreCase("admin") && sender.hasPermission("referral.admin")) {
-                for (String option : List.of("stats", "reset", "reload")) {
+                for (String option : List.of("stats", "reset", "reload", "queue", "metrics")) {
                     if (option.startsWith(args[1].toLowerCase(Locale.ROOT))) {
                         completions.add(option);
                     }
@@ -0,0 +1,165 @@
+package me.itzrenzo.referra.data;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Reverse index from binary IP addresses and their /24 (IPv4) or /64 (IPv6) networks to the accounts seen on them.
+ * Addresses are normalised to 128 bits, with IPv4 stored in its IPv4-mapped IPv6 form, so both families share one keyspace.
+ * Overlap checks cost one hash lookup per address the player has used.
+ */
+public class IpHistoryIndex {
+    private static final long IPV4_MAPPED_PREFIX = 0xFFFFL << 32;
+
+    private final Map<AddressKey, Map<UUID, Long>> accountsByAddress = new HashMap<>();
+    private final Map<AddressKey, Map<UUID, Long>> accountsBySubnet = new HashMap<>();
+    private final Map<UUID, Map<AddressKey, Long>> addressesByAccount = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public void record(UUID playerId, byte[] address, long timestamp) {
+        AddressKey key = AddressKey.of(address);
+        if (key == null) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            addressesByAccount.computeIfAbsent(playerId, ignored -> new HashMap<>(4)).merge(key, timestamp, Math::max);
+            accountsByAddress.computeIfAbsent(key, ignored -> new HashMap<>(4)).merge(playerId, timestamp, Math::max);
+            accountsBySubnet.computeIfAbsent(key.subnet(), ignored -> new HashMap<>(4)).merge(playerId, timestamp, Math::max);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if both players were seen on the same address at or after {@code since}
+     */
+    public boolean sharesAddress(UUID first, UUID second, long since) {
+        return overlaps(first, second, since, false);
+    }
+
+    /**
+     * @return true if both players were seen on the same /24 or /64 network at or after {@code since}
+     */
+    public boolean sharesSubnet(UUID first, UUID second, long since) {
+        return overlaps(first, second, since, true);
+    }
+
+    private boolean overlaps(UUID first, UUID second, long since, boolean subnet) {
+        lock.readLock().lock();
+        try {
+            Map<AddressKey, Long> firstAddresses = addressesByAccount.get(first);
+            Map<AddressKey, Long> secondAddresses = addressesByAccount.get(second);
+            if (firstAddresses == null || secondAddresses == null) {
+                return false;
+            }
+
+            UUID other = second;
+            Map<AddressKey, Long> addresses = firstAddresses;
+            if (secondAddresses.size() < firstAddresses.size()) {
+                other = first;
+                addresses = secondAddresses;
+            }
+
+            Map<AddressKey, Map<UUID, Long>> index = subnet ? accountsBySubnet : accountsByAddress;
+            for (Map.Entry<AddressKey, Long> entry : addresses.entrySet()) {
+                if (entry.getValue() < since) {
+                    continue;
+                }
+
+                Map<UUID, Long> accounts = index.get(subnet ? entry.getKey().subnet() : entry.getKey());
+                Long otherLastSeen = accounts == null ? null : accounts.get(other);
+                if (otherLastSeen != null && otherLastSeen >= since) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void pruneBefore(long cutoff) {
+        lock.writeLock().lock();
+        try {
+            Iterator<Map.Entry<UUID, Map<AddressKey, Long>>> accounts = addressesByAccount.entrySet().iterator();
+            while (accounts.hasNext()) {
+                Map.Entry<UUID, Map<AddressKey, Long>> account = accounts.next();
+                account.getValue().entrySet().removeIf(entry -> entry.getValue() < cutoff);
+                if (account.getValue().isEmpty()) {
+                    accounts.remove();
+                }
+            }
+
+            pruneReverse(accountsByAddress, cutoff);
+            pruneReverse(accountsBySubnet, cutoff);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void pruneReverse(Map<AddressKey, Map<UUID, Long>> index, long cutoff) {
+        Iterator<Map.Entry<AddressKey, Map<UUID, Long>>> addresses = index.entrySet().iterator();
+        while (addresses.hasNext()) {
+            Map<UUID, Long> accounts = addresses.next().getValue();
+            accounts.values().removeIf(lastSeen -> lastSeen < cutoff);
+            if (accounts.isEmpty()) {
+                addresses.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            accountsByAddress.clear();
+            accountsBySubnet.clear();
+            addressesByAccount.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private record AddressKey(long hi, long lo) {
+
+        static AddressKey of(byte[] address) {
+            if (address == null) {
+                return null;
+            }
+
+            if (address.length == 4) {
+                return new AddressKey(0, IPV4_MAPPED_PREFIX | (readInt(address) & 0xFFFFFFFFL));
+            }
+
+            if (address.length == 16) {
+                return new AddressKey(readLong(address, 0), readLong(address, 8));
+            }
+
+            return null;
+        }
+
+        AddressKey subnet() {
+            if (hi == 0 && (lo & 0xFFFFFFFF00000000L) == IPV4_MAPPED_PREFIX) {
+                return new AddressKey(0, lo & ~0xFFL);
+            }
+            return new AddressKey(hi, 0);
+        }
+
+        private static int readInt(byte[] bytes) {
+            return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+        }
+
+        private static long readLong(byte[] bytes, int offset) {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (bytes[offset + i] & 0xFF);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package me.itzrenzo.referra.data;
+
+import java.util.UUID;
+
+/**
+ * A player seen on a raw IPv4 (4 byte) or IPv6 (16 byte) address, with the last time it happened.
+ */
+public record IpSighting(UUID playerId, byte[] address, long lastSeen) {
+}
@@ -0,0 +1,53 @@
+package me.itzrenzo.referra.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Bounded LRU of players that have quit but are still resident in memory.
+ * Once the cache grows past its limit the least recently seen player is handed to the eviction callback.
+ */
+public class OfflinePlayerCache {
+    private final LinkedHashMap<UUID, Boolean> players = new LinkedHashMap<>(16, 0.75f, true);
+    private final Consumer<UUID> evictionCallback;
+    private int maxSize;
+
+    public OfflinePlayerCache(int maxSize, Consumer<UUID> evictionCallback) {
+        this.maxSize = Math.max(0, maxSize);
+        this.evictionCallback = evictionCallback;
+    }
+
+    public synchronized void add(UUID playerId) {
+        players.put(playerId, Boolean.TRUE);
+        trim();
+    }
+
+    public synchronized boolean remove(UUID playerId) {
+        return players.remove(playerId) != null;
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        trim();
+    }
+
+    public synchronized int size() {
+        return players.size();
+    }
+
+    public synchronized void clear() {
+        players.clear();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<UUID, Boolean>> iterator = players.entrySet().iterator();
+        while (players.size() > maxSize && iterator.hasNext()) {
+            UUID eldest = iterator.next().getKey();
+            iterator.remove();
+            evictionCallback.accept(eldest);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package me.itzrenzo.referra.data;
+
+import java.util.UUID;
+
+/**
+ * Everything stored for a single player: their own referral data (null if they have no row yet),
+ * who referred them, their first join time and last known IP address.
+ */
+public record PlayerRecord(PlayerReferralData data, UUID referrer, Long firstJoinTime, String ipAddress) {
+}
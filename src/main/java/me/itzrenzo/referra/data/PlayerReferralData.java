@@ -2,25 +2,33 @@ package me.itzrenzo.referra.data;
 
 import java.util.UUID;
 import java.util.Set;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PlayerReferralData {
+    public static final int DIRTY_PROFILE = 1;
+    public static final int DIRTY_REFERRALS = 1 << 1;
+    
     private final UUID playerId;
     private final String playerName;
     private final Set<UUID> confirmedReferrals;
     private final Map<UUID, Long> pendingReferrals;
-    private boolean referralEnabled;
-    private boolean claimedReward;
+    private volatile boolean referralEnabled;
+    private volatile boolean claimedReward;
+    private long version;
+    private int dirtyFields;
+    private final Map<UUID, Long> changedReferrals = new HashMap<>();
     
     public PlayerReferralData(UUID playerId, String playerName) {
         this.playerId = playerId;
         this.playerName = playerName;
-        this.confirmedReferrals = new HashSet<>();
-        this.pendingReferrals = new HashMap<>();
+        this.confirmedReferrals = ConcurrentHashMap.newKeySet();
+        this.pendingReferrals = new ConcurrentHashMap<>();
         this.referralEnabled = false;
         this.claimedReward = false;
+        this.dirtyFields = DIRTY_PROFILE;
     }
     
     public UUID getPlayerId() { return playerId; }
@@ -32,31 +40,113 @@ public class PlayerReferralData {
     public int getPendingCount() { return pendingReferrals.size(); }
     public int getTotalReferralCount() { return confirmedReferrals.size() + pendingReferrals.size(); }
     public boolean isReferralEnabled() { return referralEnabled; }
-    public void setReferralEnabled(boolean enabled) { this.referralEnabled = enabled; }
+    public void setReferralEnabled(boolean enabled) {
+        if (referralEnabled != enabled) {
+            this.referralEnabled = enabled;
+            markDirty(DIRTY_PROFILE);
+        }
+    }
     public boolean hasClaimedReward() { return claimedReward; }
-    public void setClaimedReward(boolean claimedReward) { this.claimedReward = claimedReward; }
+    public void setClaimedReward(boolean claimedReward) {
+        if (this.claimedReward != claimedReward) {
+            this.claimedReward = claimedReward;
+            markDirty(DIRTY_PROFILE);
+        }
+    }
     
     public boolean addPendingReferral(UUID referredPlayerId, long firstJoinTime) {
-        return pendingReferrals.put(referredPlayerId, firstJoinTime) == null;
+        Long previous = pendingReferrals.put(referredPlayerId, firstJoinTime);
+        if (previous == null || previous != firstJoinTime) {
+            markReferralChanged(referredPlayerId);
+        }
+        return previous == null;
     }
     
     public boolean confirmReferral(UUID referredPlayerId) {
         if (pendingReferrals.remove(referredPlayerId) != null) {
-            return confirmedReferrals.add(referredPlayerId);
+            boolean added = confirmedReferrals.add(referredPlayerId);
+            markReferralChanged(referredPlayerId);
+            return added;
         }
         return false;
     }
     
     public boolean addReferral(UUID referredPlayerId) {
-        return confirmedReferrals.add(referredPlayerId);
+        if (confirmedReferrals.add(referredPlayerId)) {
+            markReferralChanged(referredPlayerId);
+            return true;
+        }
+        return false;
     }
     
     public void removeReferral(UUID referredPlayerId) {
-        confirmedReferrals.remove(referredPlayerId);
-        pendingReferrals.remove(referredPlayerId);
+        boolean removedConfirmed = confirmedReferrals.remove(referredPlayerId);
+        boolean removedPending = pendingReferrals.remove(referredPlayerId) != null;
+        if (removedConfirmed || removedPending) {
+            markReferralChanged(referredPlayerId);
+        }
+    }
+    
+    public void reset() {
+        for (UUID referredPlayerId : List.copyOf(confirmedReferrals)) {
+            removeReferral(referredPlayerId);
+        }
+        for (UUID referredPlayerId : List.copyOf(pendingReferrals.keySet())) {
+            removeReferral(referredPlayerId);
+        }
+        setClaimedReward(false);
     }
     
     public boolean canClaimPayout(int payoutThreshold) {
         return !claimedReward && getReferralCount() >= payoutThreshold;
     }
+    
+    private synchronized void markDirty(int fields) {
+        version++;
+        dirtyFields |= fields;
+    }
+    
+    private synchronized void markReferralChanged(UUID referredPlayerId) {
+        version++;
+        dirtyFields |= DIRTY_REFERRALS;
+        changedReferrals.put(referredPlayerId, version);
+    }
+    
+    public synchronized long getVersion() {
+        return version;
+    }
+    
+    public synchronized int getDirtyFields() {
+        return dirtyFields;
+    }
+    
+    public synchronized boolean isDirty() {
+        return dirtyFields != 0;
+    }
+    
+    /**
+     * @return the referred players whose pending or confirmed state changed since the last save
+     */
+    public synchronized List<UUID> getChangedReferrals() {
+        return List.copyOf(changedReferrals.keySet());
+    }
+    
+    /**
+     * Clears the dirty flags, e.g. after the data was freshly loaded from the database.
+     */
+    public synchronized void markClean() {
+        dirtyFields = 0;
+        changedReferrals.clear();
+    }
+    
+    /**
+     * Clears the dirty flags if nothing changed since {@code savedVersion} was read. Backends go through
+     * {@link PlayerSaveBatch}, which reads the version before the flags it writes.
+     */
+    public synchronized void markClean(long savedVersion) {
+        changedReferrals.values().removeIf(changedAt -> changedAt <= savedVersion);
+        if (version == savedVersion) {
+            dirtyFields = 0;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+package me.itzrenzo.referra.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * One save of player data, shared by every backend: each player's version is read before their dirty flags, the
+ * player is written, and once the write is durable {@link #markClean()} clears only what that version covered, so a
+ * change racing with the save is never marked clean.
+ */
+public final class PlayerSaveBatch {
+    @FunctionalInterface
+    public interface Writer<E extends Exception> {
+        void write(PlayerReferralData data, boolean saveProfile) throws E;
+    }
+
+    private final List<PlayerReferralData> written = new ArrayList<>();
+    private long[] versions = new long[16];
+
+    /**
+     * Writes the player in full, whether or not anything changed.
+     */
+    public <E extends Exception> void write(PlayerReferralData data, Writer<E> writer) throws E {
+        long version = data.getVersion();
+        writer.write(data, true);
+        add(data, version);
+    }
+
+    /**
+     * Writes the players with unsaved changes and skips the rest, saving the profile row only when it changed.
+     */
+    public <E extends Exception> void writeChanged(Collection<PlayerReferralData> players, Writer<E> writer) throws E {
+        for (PlayerReferralData data : players) {
+            long version = data.getVersion();
+            int dirtyFields = data.getDirtyFields();
+            if (dirtyFields == 0) {
+                continue;
+            }
+
+            writer.write(data, (dirtyFields & PlayerReferralData.DIRTY_PROFILE) != 0);
+            add(data, version);
+        }
+    }
+
+    /**
+     * Marks every written player clean up to the version they were written at. Call only after the write succeeded.
+     */
+    public void markClean() {
+        for (int i = 0; i < written.size(); i++) {
+            written.get(i).markClean(versions[i]);
+        }
+    }
+
+    public int size() {
+        return written.size();
+    }
+
+    private void add(PlayerReferralData data, long version) {
+        int index = written.size();
+        if (index == versions.length) {
+            versions = Arrays.copyOf(versions, index << 1);
+        }
+        versions[index] = version;
+        written.add(data);
+    }
+}
@@ -1,28 +1,75 @@
 package me.itzrenzo.referra.data;
 
+import me.itzrenzo.referra.database.DataLoadSink;
 import me.itzrenzo.referra.database.DatabaseManager;
+import me.itzrenzo.referra.database.InstrumentedDatabaseManager;
+import me.itzrenzo.referra.database.WriteBehindQueue;
+import me.itzrenzo.referra.database.impl.InMemoryDatabaseManager;
+import me.itzrenzo.referra.database.impl.JournalDatabaseManager;
+import me.itzrenzo.referra.database.impl.JournalSettings;
 import me.itzrenzo.referra.database.impl.MysqlDatabaseManager;
 import me.itzrenzo.referra.database.impl.SqliteDatabaseManager;
+import me.itzrenzo.referra.database.impl.SqliteSettings;
 import me.itzrenzo.referra.discord.DiscordWebhookManager;
+import me.itzrenzo.referra.jfr.ConfirmationCheckEvent;
+import me.itzrenzo.referra.jfr.EventThresholds;
+import me.itzrenzo.referra.jfr.ReferralDecisionEvent;
+import me.itzrenzo.referra.metrics.Counter;
+import me.itzrenzo.referra.metrics.LatencyHistogram;
+import me.itzrenzo.referra.metrics.MetricsExporter;
+import me.itzrenzo.referra.metrics.MetricsRegistry;
+import me.itzrenzo.referra.util.BoundedExecutor;
+import me.itzrenzo.referra.util.Placeholders;
+import me.itzrenzo.referra.util.UuidLongMap;
+import me.itzrenzo.referra.util.UuidUuidMap;
 import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
 import org.bukkit.Bukkit;
 import org.bukkit.command.ConsoleCommandSender;
 import org.bukkit.Statistic;
 import org.bukkit.entity.Player;
-import org.bukkit.plugin.java.JavaPlugin;
-
-import java.util.HashMap;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ReferralDataManager {
-    private final JavaPlugin plugin;
-    private final Map<UUID, PlayerReferralData> playerData = new HashMap<>();
-    private final Map<UUID, UUID> referredBy = new HashMap<>();
-    private final Map<UUID, Long> playerFirstJoinTime = new HashMap<>();
-    private final Map<UUID, String> playerIPs = new HashMap<>();
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final long IP_HISTORY_PRUNE_INTERVAL_TICKS = 20L * 60 * 60;
+
+    private final Plugin plugin;
+    private volatile Map<UUID, PlayerReferralData> playerData = new ConcurrentHashMap<>();
+    private final UuidUuidMap referredBy = new UuidUuidMap();
+    private final ReferralForest referralForest = new ReferralForest();
+    private final UuidLongMap playerFirstJoinTime = new UuidLongMap();
+    private final Map<UUID, String> playerIPs = new ConcurrentHashMap<>();
+    private final Map<UUID, PlayerRecord> prefetchedPlayers = new ConcurrentHashMap<>();
+    private final Set<UUID> loadedPlayers = ConcurrentHashMap.newKeySet();
+    private final OfflinePlayerCache offlinePlayers;
+    private final ReferralLeaderboard leaderboard = new ReferralLeaderboard();
+    private final StripedLock playerLocks = new StripedLock(64);
+    private final IpHistoryIndex ipHistory = new IpHistoryIndex();
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final MetricsExporter metricsExporter;
+    private final EventThresholds eventThresholds;
+    private final BukkitTask ipHistoryPruneTask;
+    private final Counter referralsAdded = metrics.counter("referra_referrals_added", "Pending referrals created");
+    private final Counter referralsConfirmed = metrics.counter("referra_referrals_confirmed", "Referrals confirmed after the playtime requirement");
+    private final Counter rewardCommands = metrics.counter("referra_reward_commands", "Reward commands dispatched to the console");
+    private final LatencyHistogram rewardDispatch = metrics.histogram("referra_reward_dispatch_seconds",
+            "Time taken to dispatch one reward's commands on the main thread");
 
     private long requiredPlaytimeHours;
     private long requiredPlaytimeTicks;
@@ -33,16 +80,67 @@ public class ReferralDataManager {
     private int payoutThreshold;
     private List<String> referrerRewardCommands;
     private List<String> referredRewardCommands;
+    private boolean lazyLoading;
+    private boolean snapshotEnabled;
+    private int maxOfflinePlayers;
+    private long ipHistoryWindowMillis;
+    private boolean blockSameSubnet;
 
     private DatabaseManager databaseManager;
+    private BoundedExecutor databaseExecutor;
+    private WriteBehindQueue saveQueue;
     private final DiscordWebhookManager discordManager;
+    private CompletableFuture<Void> startup = CompletableFuture.completedFuture(null);
+    private volatile boolean ready;
+    private long databaseGeneration;
 
-    public ReferralDataManager(JavaPlugin plugin) {
+    public ReferralDataManager(Plugin plugin) {
         this.plugin = plugin;
         loadConfiguration();
-        this.discordManager = new DiscordWebhookManager(plugin);
-        initializeDatabase();
-        loadData();
+        this.offlinePlayers = new OfflinePlayerCache(maxOfflinePlayers, this::evictPlayer);
+        this.eventThresholds = new EventThresholds(plugin);
+        this.discordManager = new DiscordWebhookManager(plugin,
+                createExecutor("referra-webhook", "discord.executor", 2, 100, BoundedExecutor.RejectionPolicy.ABORT), metrics, eventThresholds);
+        registerGauges();
+        this.metricsExporter = new MetricsExporter(plugin, metrics);
+        metricsExporter.start();
+        this.ipHistoryPruneTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::pruneIpHistory,
+                IP_HISTORY_PRUNE_INTERVAL_TICKS, IP_HISTORY_PRUNE_INTERVAL_TICKS);
+    }
+
+    private void registerGauges() {
+        metrics.gauge("referra_cached_players", "Player records held in memory", () -> playerData.size());
+        metrics.gauge("referra_loaded_players", "Online players whose records are loaded", loadedPlayers::size);
+        metrics.gauge("referra_prefetched_players", "Records fetched before login and not yet claimed by a join", prefetchedPlayers::size);
+        metrics.gauge("referra_offline_players", "Offline player records kept in the cache", offlinePlayers::size);
+        metrics.gauge("referra_referral_mappings", "Referred players with a known referrer", referredBy::size);
+        metrics.gauge("referra_leaderboard_entries", "Referrers ranked on the leaderboard", leaderboard::size);
+        metrics.gauge("referra_db_executor_queued", "Database tasks waiting for a thread",
+                () -> databaseExecutor != null ? databaseExecutor.getQueueDepth() : 0);
+        metrics.gauge("referra_db_executor_running", "Database tasks running",
+                () -> databaseExecutor != null ? databaseExecutor.getRunningCount() : 0);
+        metrics.gauge("referra_save_queue_depth", "Players waiting for the write-behind flush",
+                () -> saveQueue != null ? saveQueue.getQueueDepth() : 0);
+        metrics.gauge("referra_webhook_executor_queued", "Discord webhooks waiting to be sent",
+                () -> discordManager.getExecutor().getQueueDepth());
+    }
+
+    /**
+     * Connects to the database and loads all referral data on a background thread, so the server can keep starting.
+     * Nothing else may touch the database or the loaded data until {@link #isReady()} returns true.
+     */
+    public CompletableFuture<Void> start() {
+        startup = CompletableFuture.runAsync(() -> {
+            long started = System.nanoTime();
+            initializeDatabase();
+            loadData();
+            plugin.getLogger().info("Referral data is ready after " + (System.nanoTime() - started) / 1_000_000 + " ms");
+        }, task -> Thread.ofPlatform().name("referra-startup").daemon().start(task));
+        return startup;
+    }
+
+    public boolean isReady() {
+        return ready;
     }
 
     private void loadConfiguration() {
@@ -62,6 +160,12 @@ public class ReferralDataManager {
         referredRewardCommands = List.copyOf(plugin.getConfig().getStringList("rewards.referred.commands"));
         requiredPlaytimeTicks = requiredPlaytimeHours * 20L * 60 * 60;
         createRequiredPlaytimeTicks = createRequiredPlaytimeHours * 20L * 60 * 60;
+        lazyLoading = plugin.getConfig().getString("cache.loading", "EAGER").equalsIgnoreCase("LAZY");
+        snapshotEnabled = plugin.getConfig().getBoolean("cache.snapshot.enabled", false);
+        maxOfflinePlayers = Math.max(0, plugin.getConfig().getInt("cache.max-offline-players", 1000));
+        long ipHistoryDays = plugin.getConfig().getLong("anti-abuse.ip-history-days", 30);
+        ipHistoryWindowMillis = ipHistoryDays <= 0 ? Long.MAX_VALUE : ipHistoryDays * 24L * 60 * 60 * 1000;
+        blockSameSubnet = plugin.getConfig().getBoolean("anti-abuse.block-same-subnet", false);
 
         plugin.getLogger().info("Configuration loaded: Required playtime = " + requiredPlaytimeHours + " hours (" +
                 (requiredPlaytimeHours / 24.0) + " days)");
@@ -70,6 +174,7 @@ public class ReferralDataManager {
     private void initializeDatabase() {
         String databaseType = plugin.getConfig().getString("database.type", "SQLITE").toUpperCase();
 
+        int migrationChunkSize = plugin.getConfig().getInt("database.migration.chunk-size", 5000);
         switch (databaseType) {
             case "MYSQL" -> {
                 String host = plugin.getConfig().getString("database.mysql.host", "localhost");
@@ -79,19 +184,43 @@ public class ReferralDataManager {
                 String password = plugin.getConfig().getString("database.mysql.password", "password");
                 int maxPoolSize = plugin.getConfig().getInt("database.mysql.max-pool-size", 10);
                 long connectionTimeout = plugin.getConfig().getLong("database.mysql.connection-timeout", 30000);
-                databaseManager = new MysqlDatabaseManager(plugin, host, port, database, username, password, maxPoolSize, connectionTimeout);
+                int batchSize = plugin.getConfig().getInt("database.mysql.batch-size", 1000);
+                databaseExecutor = createExecutor("referra-mysql", "database.executor", maxPoolSize, 10000, BoundedExecutor.RejectionPolicy.CALLER_RUNS);
+                databaseManager = new MysqlDatabaseManager(plugin, host, port, database, username, password, maxPoolSize, connectionTimeout,
+                        batchSize, migrationChunkSize, databaseExecutor);
             }
             case "SQLITE" -> {
                 String filename = plugin.getConfig().getString("database.sqlite.filename", "referrals.db");
-                databaseManager = new SqliteDatabaseManager(plugin, filename);
+                SqliteSettings sqliteSettings = loadSqliteSettings();
+                // Writes go through the single SQLite writer, so the executor only runs reads
+                databaseExecutor = createExecutor("referra-sqlite", "database.executor", sqliteSettings.readConnections(), 10000,
+                        BoundedExecutor.RejectionPolicy.CALLER_RUNS);
+                databaseManager = new SqliteDatabaseManager(plugin, filename, sqliteSettings, migrationChunkSize, databaseExecutor);
+            }
+            case "JOURNAL" -> {
+                String directory = plugin.getConfig().getString("database.journal.directory", "journal");
+                // Writes go through the single journal writer and reads are served from memory
+                databaseExecutor = createExecutor("referra-journal", "database.executor", 4, 10000, BoundedExecutor.RejectionPolicy.CALLER_RUNS);
+                databaseManager = new JournalDatabaseManager(plugin, directory, loadJournalSettings(), databaseExecutor);
+            }
+            case "MEMORY" -> {
+                plugin.getLogger().warning("Using the in-memory database, referral data will be lost when the server stops");
+                long seed = plugin.getConfig().getLong("database.memory.seed", 0);
+                // Injected latency holds executor threads the way a real database would
+                databaseExecutor = createExecutor("referra-memory", "database.executor", 10, 10000, BoundedExecutor.RejectionPolicy.CALLER_RUNS);
+                databaseManager = new InMemoryDatabaseManager(plugin.getLogger(), loadMemoryFaults(), seed, databaseExecutor);
             }
             default -> {
                 plugin.getLogger().warning("Unknown database type '" + databaseType + "'. Falling back to SQLITE.");
                 String filename = plugin.getConfig().getString("database.sqlite.filename", "referrals.db");
-                databaseManager = new SqliteDatabaseManager(plugin, filename);
+                SqliteSettings sqliteSettings = loadSqliteSettings();
+                databaseExecutor = createExecutor("referra-sqlite", "database.executor", sqliteSettings.readConnections(), 10000,
+                        BoundedExecutor.RejectionPolicy.CALLER_RUNS);
+                databaseManager = new SqliteDatabaseManager(plugin, filename, sqliteSettings, migrationChunkSize, databaseExecutor);
             }
         }
 
+        databaseManager = new InstrumentedDatabaseManager(databaseManager, metrics, eventThresholds);
         try {
             databaseManager.initialize().get();
             plugin.getLogger().info("Database initialized: " + databaseManager.getDatabaseType());
@@ -99,54 +228,419 @@ public class ReferralDataManager {
             plugin.getLogger().severe("Failed to initialize database: " + e.getMessage());
             throw new RuntimeException("Database initialization failed", e);
         }
+
+        long flushIntervalMillis = plugin.getConfig().getLong("database.write-behind.flush-interval-ms", 1000);
+        saveQueue = new WriteBehindQueue(plugin, databaseManager, flushIntervalMillis);
+    }
+
+    private SqliteSettings loadSqliteSettings() {
+        SqliteSettings defaults = SqliteSettings.DEFAULTS;
+        try {
+            return new SqliteSettings(
+                    plugin.getConfig().getBoolean("database.sqlite.persistent-connection", defaults.persistentConnection()),
+                    plugin.getConfig().getString("database.sqlite.pragmas.journal-mode", defaults.journalMode()),
+                    plugin.getConfig().getString("database.sqlite.pragmas.synchronous", defaults.synchronous()),
+                    plugin.getConfig().getLong("database.sqlite.pragmas.mmap-size", defaults.mmapSize()),
+                    plugin.getConfig().getLong("database.sqlite.pragmas.cache-size", defaults.cacheSize()),
+                    plugin.getConfig().getString("database.sqlite.pragmas.temp-store", defaults.tempStore()),
+                    plugin.getConfig().getInt("database.sqlite.pragmas.busy-timeout", defaults.busyTimeoutMillis()),
+                    plugin.getConfig().getInt("database.sqlite.statement-cache-size", defaults.statementCacheSize()),
+                    plugin.getConfig().getInt("database.sqlite.read-connections", defaults.readConnections()),
+                    plugin.getConfig().getInt("database.sqlite.group-commit.max-batch-size", defaults.writeBatchSize()),
+                    plugin.getConfig().getLong("database.sqlite.group-commit.max-delay-ms", defaults.writeBatchDelayMillis()));
+        } catch (IllegalArgumentException e) {
+            plugin.getLogger().warning(e.getMessage() + ". Using default SQLite settings.");
+            return defaults;
+        }
+    }
+
+    private JournalSettings loadJournalSettings() {
+        JournalSettings defaults = JournalSettings.DEFAULTS;
+        return new JournalSettings(
+                plugin.getConfig().getLong("database.journal.segment-size-mb", defaults.segmentSizeBytes() / (1024 * 1024)) * 1024 * 1024,
+                plugin.getConfig().getLong("database.journal.checkpoint.every-mb", defaults.checkpointBytes() / (1024 * 1024)) * 1024 * 1024,
+                plugin.getConfig().getLong("database.journal.checkpoint.interval-minutes", defaults.checkpointIntervalMillis() / (60 * 1000)) * 60 * 1000,
+                plugin.getConfig().getInt("database.journal.group-commit.max-batch-size", defaults.writeBatchSize()),
+                plugin.getConfig().getLong("database.journal.group-commit.max-delay-ms", defaults.writeBatchDelayMillis()));
+    }
+
+    private Map<InMemoryDatabaseManager.Operation, InMemoryDatabaseManager.Fault> loadMemoryFaults() {
+        InMemoryDatabaseManager.Fault defaults = loadMemoryFault("database.memory.faults.default", InMemoryDatabaseManager.Fault.NONE);
+        Map<InMemoryDatabaseManager.Operation, InMemoryDatabaseManager.Fault> faults = new EnumMap<>(InMemoryDatabaseManager.Operation.class);
+        for (InMemoryDatabaseManager.Operation operation : InMemoryDatabaseManager.Operation.values()) {
+            faults.put(operation, loadMemoryFault("database.memory.faults." + operation.configKey(), defaults));
+        }
+        return faults;
+    }
+
+    private InMemoryDatabaseManager.Fault loadMemoryFault(String path, InMemoryDatabaseManager.Fault defaults) {
+        try {
+            return new InMemoryDatabaseManager.Fault(
+                    plugin.getConfig().getLong(path + ".latency-ms", defaults.latencyMillis()),
+                    plugin.getConfig().getLong(path + ".jitter-ms", defaults.jitterMillis()),
+                    plugin.getConfig().getDouble(path + ".failure-rate", defaults.failureRate()));
+        } catch (IllegalArgumentException e) {
+            plugin.getLogger().warning(e.getMessage() + " in " + path + ". Using the default fault settings.");
+            return defaults;
+        }
+    }
+
+    private BoundedExecutor createExecutor(String name, String path, int defaultConcurrency, int defaultQueueCapacity,
+                                           BoundedExecutor.RejectionPolicy defaultPolicy) {
+        String type = plugin.getConfig().getString(path + ".type", "VIRTUAL").toUpperCase(Locale.ROOT);
+        int configuredConcurrency = plugin.getConfig().getInt(path + ".max-concurrency", 0);
+        int queueCapacity = plugin.getConfig().getInt(path + ".queue-capacity", defaultQueueCapacity);
+        String policy = plugin.getConfig().getString(path + ".rejection-policy", defaultPolicy.name()).toUpperCase(Locale.ROOT);
+
+        BoundedExecutor.Mode mode;
+        BoundedExecutor.RejectionPolicy rejectionPolicy;
+        try {
+            mode = BoundedExecutor.Mode.valueOf(type);
+            rejectionPolicy = BoundedExecutor.RejectionPolicy.valueOf(policy);
+        } catch (IllegalArgumentException e) {
+            plugin.getLogger().warning("Invalid " + path + " settings. Falling back to VIRTUAL with " + defaultPolicy.name() + ".");
+            mode = BoundedExecutor.Mode.VIRTUAL;
+            rejectionPolicy = defaultPolicy;
+        }
+
+        int maxConcurrency = configuredConcurrency > 0 ? configuredConcurrency : defaultConcurrency;
+        return new BoundedExecutor(name, mode, maxConcurrency, queueCapacity, rejectionPolicy);
     }
 
     public void reloadConfiguration() {
+        boolean wasLazyLoading = lazyLoading;
         plugin.reloadConfig();
         loadConfiguration();
         discordManager.loadConfiguration();
+        eventThresholds.loadConfiguration();
+        offlinePlayers.setMaxSize(maxOfflinePlayers);
+        metricsExporter.start();
 
         String newDatabaseType = plugin.getConfig().getString("database.type", "SQLITE").toUpperCase();
         if (!newDatabaseType.equals(databaseManager.getDatabaseType())) {
             plugin.getLogger().info("Database type changed, reinitializing...");
-            saveData();
+            saveQueue.close();
+            saveDataAndWait();
             databaseManager.close();
             initializeDatabase();
             loadData();
+        } else if (wasLazyLoading != lazyLoading) {
+            plugin.getLogger().info("Cache loading mode changed, reloading data...");
+            saveDataAndWait();
+            loadData();
         }
 
         plugin.getLogger().info("Configuration reloaded!");
     }
 
     public void loadData() {
+        // Until the load completes the maps hold partial data, which must never be saved back
+        ready = false;
         try {
             plugin.getLogger().info("Loading referral data from database...");
 
-            playerData.clear();
-            playerData.putAll(databaseManager.loadAllPlayerData().get());
-            plugin.getLogger().info("Loaded " + playerData.size() + " player records");
+            prefetchedPlayers.clear();
+            loadedPlayers.clear();
+            offlinePlayers.clear();
 
+            playerData.clear();
             referredBy.clear();
-            referredBy.putAll(databaseManager.loadReferralMappings().get());
-            plugin.getLogger().info("Loaded " + referredBy.size() + " referral mappings");
-
             playerFirstJoinTime.clear();
-            playerFirstJoinTime.putAll(databaseManager.loadFirstJoinTimes().get());
-            plugin.getLogger().info("Loaded " + playerFirstJoinTime.size() + " first join times");
-
             playerIPs.clear();
-            playerIPs.putAll(databaseManager.loadPlayerIPs().get());
-            plugin.getLogger().info("Loaded " + playerIPs.size() + " player IP mappings");
+
+            loadIpHistory();
+            // Advanced on every load, even without snapshots, so a snapshot older than this run can never be used later
+            databaseGeneration = databaseManager.advanceGeneration().get();
+
+            if (lazyLoading) {
+                loadResidentData();
+                leaderboard.rebuild(playerData.values());
+                ready = true;
+                return;
+            }
+
+            long started = System.nanoTime();
+            if (!snapshotEnabled || !loadSnapshot()) {
+                databaseManager.loadAll(new StartupLoader()).get();
+                playerData.values().forEach(PlayerReferralData::markClean);
+            }
+            referralForest.rebuild(referredBy);
+            leaderboard.rebuild(playerData.values());
+            plugin.getLogger().info("Loaded " + playerData.size() + " player records, " + referredBy.size() + " referral mappings, "
+                    + playerFirstJoinTime.size() + " first join times and " + playerIPs.size() + " player IP mappings in "
+                    + (System.nanoTime() - started) / 1_000_000 + " ms");
 
             plugin.getLogger().info("Referral data loading completed successfully!");
+            ready = true;
         } catch (Exception e) {
             plugin.getLogger().severe("Failed to load referral data from database: " + e.getMessage());
             throw new RuntimeException("Referral data loading failed", e);
         }
     }
 
-    public void saveData() {
-        databaseManager.saveAllPlayerData(playerData);
+    private Path getSnapshotFile() {
+        return plugin.getDataFolder().toPath().resolve(SNAPSHOT_FILE);
+    }
+
+    private boolean loadSnapshot() {
+        Path file = getSnapshotFile();
+        if (!Files.exists(file)) {
+            plugin.getLogger().info("No referral snapshot found, loading from the database");
+            return false;
+        }
+
+        try {
+            ReferralSnapshot.read(file, databaseGeneration - 1, playerData, referredBy, playerFirstJoinTime, playerIPs);
+            plugin.getLogger().info("Loaded referral data from " + SNAPSHOT_FILE);
+            return true;
+        } catch (IOException e) {
+            plugin.getLogger().warning("Ignoring " + SNAPSHOT_FILE + " and loading from the database: " + e.getMessage());
+            playerData.clear();
+            referredBy.clear();
+            playerFirstJoinTime.clear();
+            playerIPs.clear();
+            return false;
+        }
+    }
+
+    private void saveSnapshot() {
+        long started = System.nanoTime();
+        try {
+            ReferralSnapshot.write(getSnapshotFile(), databaseGeneration, playerData, referredBy, playerFirstJoinTime, playerIPs);
+            plugin.getLogger().info("Saved " + playerData.size() + " players to " + SNAPSHOT_FILE + " in "
+                    + (System.nanoTime() - started) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to save " + SNAPSHOT_FILE + ", the next start will load from the database: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Builds every index from a single streamed pass over the tables. Rows can arrive from several threads at once.
+     */
+    private final class StartupLoader implements DataLoadSink {
+        @Override
+        public void expect(int players, int referrals) {
+            // Nothing reads the map until loading finishes, so it can be swapped for one that never has to grow
+            playerData = new ConcurrentHashMap<>(players);
+            referredBy.ensureCapacity(referrals);
+            playerFirstJoinTime.ensureCapacity(players);
+        }
+
+        @Override
+        public void player(UUID playerId, String name, boolean referralEnabled, boolean claimedReward, Long firstJoinTime, String ipAddress) {
+            PlayerReferralData data = new PlayerReferralData(playerId, name);
+            data.setReferralEnabled(referralEnabled);
+            data.setClaimedReward(claimedReward);
+            playerData.put(playerId, data);
+            if (firstJoinTime != null) {
+                playerFirstJoinTime.put(playerId, firstJoinTime);
+            }
+            if (ipAddress != null) {
+                playerIPs.put(playerId, ipAddress);
+            }
+        }
+
+        @Override
+        public void confirmedReferral(UUID referrerId, UUID referredId) {
+            referredBy.put(referredId, referrerId);
+            PlayerReferralData data = playerData.get(referrerId);
+            if (data != null) {
+                data.addReferral(referredId);
+            }
+        }
+
+        @Override
+        public void pendingReferral(UUID referrerId, UUID referredId, long timestamp) {
+            referredBy.put(referredId, referrerId);
+            PlayerReferralData data = playerData.get(referrerId);
+            if (data != null) {
+                data.addPendingReferral(referredId, timestamp);
+            }
+        }
+    }
+
+    private void loadIpHistory() throws Exception {
+        ipHistory.clear();
+        long cutoff = getIpHistoryCutoff();
+        if (cutoff > Long.MIN_VALUE) {
+            databaseManager.pruneIpHistory(cutoff).get();
+        }
+
+        List<IpSighting> history = databaseManager.loadIpHistory(cutoff).get();
+        for (IpSighting sighting : history) {
+            ipHistory.record(sighting.playerId(), sighting.address(), sighting.lastSeen());
+        }
+        plugin.getLogger().info("Loaded " + history.size() + " IP history entries");
+    }
+
+    /**
+     * Drops IP sightings older than the history window from memory and the database, so neither grows while the server runs.
+     */
+    private void pruneIpHistory() {
+        long cutoff = getIpHistoryCutoff();
+        if (!ready || cutoff == Long.MIN_VALUE) {
+            return;
+        }
+
+        ipHistory.pruneBefore(cutoff);
+        databaseManager.pruneIpHistory(cutoff).exceptionally(e -> {
+            plugin.getLogger().warning("Failed to prune the IP history: " + e.getMessage());
+            return null;
+        });
+    }
+
+    private long getIpHistoryCutoff() {
+        return ipHistoryWindowMillis == Long.MAX_VALUE ? Long.MIN_VALUE : System.currentTimeMillis() - ipHistoryWindowMillis;
+    }
+
+    private void loadResidentData() throws Exception {
+        playerData.putAll(databaseManager.loadActiveReferrers().get());
+        plugin.getLogger().info("Loaded " + playerData.size() + " active referrer records");
+
+        referredBy.putAll(databaseManager.loadReferralMappings().get());
+        referralForest.rebuild(referredBy);
+        plugin.getLogger().info("Loaded " + referredBy.size() + " referral mappings");
+
+        // During startup players who joined meanwhile are prefetched and replayed by the event listener instead
+        if (plugin.getServer().isPrimaryThread()) {
+            for (Player player : plugin.getServer().getOnlinePlayers()) {
+                installPlayerRecord(player.getUniqueId(), databaseManager.loadPlayer(player.getUniqueId()).get());
+            }
+        }
+
+        plugin.getLogger().info("Referral data loading completed (lazy mode, " + loadedPlayers.size() + " online players loaded)");
+    }
+
+    public void prefetchPlayer(UUID playerId) {
+        if (!lazyLoading || loadedPlayers.contains(playerId)) {
+            return;
+        }
+
+        try {
+            prefetchedPlayers.put(playerId, databaseManager.loadPlayer(playerId).join());
+        } catch (Exception e) {
+            plugin.getLogger().warning("Failed to prefetch referral data for " + playerId + ": " + e.getMessage());
+        }
+    }
+
+    public void loadOnlinePlayer(UUID playerId) {
+        if (!lazyLoading) {
+            return;
+        }
+
+        offlinePlayers.remove(playerId);
+        if (loadedPlayers.contains(playerId)) {
+            prefetchedPlayers.remove(playerId);
+            return;
+        }
+
+        PlayerRecord record = prefetchedPlayers.remove(playerId);
+        if (record == null) {
+            plugin.getLogger().warning("Referral data for " + playerId + " was not prefetched, loading it on the main thread");
+            try {
+                record = databaseManager.loadPlayer(playerId).join();
+            } catch (Exception e) {
+                plugin.getLogger().severe("Failed to load referral data for " + playerId + ": " + e.getMessage());
+                return;
+            }
+        }
+
+        installPlayerRecord(playerId, record);
+    }
+
+    public void unloadPlayer(UUID playerId) {
+        if (!lazyLoading) {
+            return;
+        }
+
+        prefetchedPlayers.remove(playerId);
+        if (loadedPlayers.contains(playerId)) {
+            offlinePlayers.add(playerId);
+        }
+    }
+
+    private void installPlayerRecord(UUID playerId, PlayerRecord record) {
+        if (record.data() != null && playerData.putIfAbsent(playerId, record.data()) == null) {
+            leaderboard.update(record.data());
+        }
+        if (record.referrer() != null && referredBy.putIfAbsent(playerId, record.referrer())) {
+            referralForest.link(playerId, record.referrer());
+        }
+        if (record.firstJoinTime() != null) {
+            playerFirstJoinTime.putIfAbsent(playerId, record.firstJoinTime());
+        }
+        if (record.ipAddress() != null) {
+            playerIPs.putIfAbsent(playerId, record.ipAddress());
+        }
+        loadedPlayers.add(playerId);
+    }
+
+    private void evictPlayer(UUID playerId) {
+        PlayerReferralData data;
+        try (StripedLock.Held ignored = playerLocks.lock(playerId)) {
+            loadedPlayers.remove(playerId);
+            playerFirstJoinTime.remove(playerId);
+            playerIPs.remove(playerId);
+
+            data = playerData.get(playerId);
+            if (data == null || data.getTotalReferralCount() != 0) {
+                return;
+            }
+            if (!data.isDirty()) {
+                playerData.remove(playerId);
+                leaderboard.remove(playerId);
+                return;
+            }
+        }
+
+        // Kept in memory until the write lands, so a rejoin in the meantime keeps these changes instead of reading the old row
+        saveQueue.flush(data).whenComplete((ignored, error) -> {
+            if (error != null) {
+                // The save stays queued for the next flush, and the player stays resident so nothing is lost
+                return;
+            }
+
+            boolean changedSinceFlush;
+            try (StripedLock.Held held = playerLocks.lock(playerId)) {
+                if (loadedPlayers.contains(playerId) || data.getTotalReferralCount() != 0) {
+                    return;
+                }
+                changedSinceFlush = data.isDirty();
+                if (!changedSinceFlush) {
+                    playerData.remove(playerId, data);
+                    leaderboard.remove(playerId);
+                }
+            }
+            // Outside the lock, since adding can evict and lock another player
+            if (changedSinceFlush) {
+                offlinePlayers.add(playerId);
+            }
+        });
+    }
+
+    /**
+     * Writes every player changed since their last save. Unchanged players are skipped by the database layer.
+     */
+    public CompletableFuture<Void> saveData() {
+        return databaseManager.saveAllPlayerData(playerData);
+    }
+
+    /**
+     * Queues the player for the next write-behind flush.
+     */
+    public void savePlayerData(PlayerReferralData data) {
+        saveQueue.enqueue(data);
+    }
+
+    private boolean saveDataAndWait() {
+        try {
+            saveQueue.flush().join();
+            saveData().join();
+            return true;
+        } catch (CompletionException e) {
+            plugin.getLogger().severe("Error saving player data: " + e.getMessage());
+            return false;
+        }
     }
 
     public PlayerReferralData getPlayerData(UUID playerId, String playerName) {
@@ -154,28 +648,36 @@ public class ReferralDataManager {
     }
 
     public void recordFirstJoin(UUID playerId) {
-        if (playerFirstJoinTime.containsKey(playerId)) {
+        long timestamp = System.currentTimeMillis();
+        if (!playerFirstJoinTime.putIfAbsent(playerId, timestamp)) {
             return;
         }
 
-        long timestamp = System.currentTimeMillis();
-        playerFirstJoinTime.put(playerId, timestamp);
         databaseManager.saveFirstJoinTime(playerId, timestamp);
     }
 
-    public void recordPlayerIP(UUID playerId, String ipAddress) {
-        if (ipAddress == null || ipAddress.equals(playerIPs.get(playerId))) {
+    public void recordPlayerIP(UUID playerId, InetAddress address) {
+        if (address == null) {
+            return;
+        }
+
+        long timestamp = System.currentTimeMillis();
+        byte[] rawAddress = address.getAddress();
+        ipHistory.record(playerId, rawAddress, timestamp);
+        databaseManager.saveIpSighting(playerId, rawAddress, timestamp);
+
+        String ipAddress = address.getHostAddress();
+        if (ipAddress.equals(playerIPs.put(playerId, ipAddress))) {
             return;
         }
 
-        playerIPs.put(playerId, ipAddress);
         databaseManager.savePlayerIP(playerId, ipAddress);
     }
 
     public boolean hasSameIPReferral(UUID referrerId, UUID referredId) {
-        String referrerIP = playerIPs.get(referrerId);
-        String referredIP = playerIPs.get(referredId);
-        return referrerIP != null && referrerIP.equals(referredIP);
+        long since = getIpHistoryCutoff();
+        return ipHistory.sharesAddress(referrerId, referredId, since)
+                || (blockSameSubnet && ipHistory.sharesSubnet(referrerId, referredId, since));
     }
 
     public boolean hasPlayedRequiredTime(Player player) {
@@ -187,65 +689,121 @@ public class ReferralDataManager {
     }
 
     public boolean addReferral(UUID referrerId, UUID referredId) {
+        ReferralDecisionEvent event = new ReferralDecisionEvent();
+        event.begin();
+        long started = System.nanoTime();
+        String rejectedBy = addReferralLocked(referrerId, referredId);
+
+        event.end();
+        if (System.nanoTime() - started >= eventThresholds.getReferralDecisionNanos() && event.shouldCommit()) {
+            event.referrer = referrerId.toString();
+            event.referred = referredId.toString();
+            event.accepted = rejectedBy == null;
+            event.rejectedBy = rejectedBy;
+            event.commit();
+        }
+        return rejectedBy == null;
+    }
+
+    /**
+     * Returns the name of the check that rejected the referral, or null when it was added.
+     */
+    private String addReferralLocked(UUID referrerId, UUID referredId) {
+        while (true) {
+            // Holding the referrer's tree root as well serialises any two referrals that could close a loop together
+            UUID referrerRoot = referralForest.rootOf(referrerId);
+            try (StripedLock.Held ignored = playerLocks.lock(referrerId, referredId, referrerRoot)) {
+                if (!referrerRoot.equals(referralForest.rootOf(referrerId))) {
+                    continue;
+                }
+                return tryAddReferral(referrerId, referredId);
+            }
+        }
+    }
+
+    private String tryAddReferral(UUID referrerId, UUID referredId) {
         if (referredBy.containsKey(referredId)) {
-            return false;
+            return "already-referred";
         }
 
         PlayerReferralData referrerData = playerData.get(referrerId);
         if (referrerData == null || !referrerData.isReferralEnabled()) {
-            return false;
+            return "referrer-unavailable";
         }
 
         if (referrerData.getTotalReferralCount() >= maxReferralsPerPlayer) {
-            return false;
+            return "limit-reached";
         }
 
         if (wouldCreateReferralCycle(referrerId, referredId)) {
             plugin.getLogger().warning("Blocked referral attempt: Cycle detected for referrer " + referrerId + " and referred " + referredId);
-            return false;
+            return "cycle";
         }
 
         if (hasSameIPReferral(referrerId, referredId)) {
             plugin.getLogger().warning("Blocked referral attempt: Same IP detected for referrer " + referrerId + " and referred " + referredId);
-            return false;
+            return "same-ip";
         }
 
         long currentTime = System.currentTimeMillis();
         referrerData.addPendingReferral(referredId, currentTime);
         referredBy.put(referredId, referrerId);
+        referralForest.link(referredId, referrerId);
         recordFirstJoin(referredId);
-        databaseManager.savePlayerData(referrerData);
-        return true;
+        saveQueue.enqueue(referrerData);
+        referralsAdded.increment();
+        return null;
     }
 
     public boolean wouldCreateReferralCycle(UUID referrerId, UUID referredId) {
-        UUID current = referrerId;
-        while (current != null) {
-            if (current.equals(referredId)) {
-                return true;
-            }
-            current = referredBy.get(current);
-        }
-        return false;
+        return referralForest.isAncestor(referredId, referrerId);
     }
 
     public void checkAndConfirmReferrals(Player player) {
+        ConfirmationCheckEvent event = new ConfirmationCheckEvent();
+        event.begin();
+        long started = System.nanoTime();
+        UUID referrerId = referredBy.get(player.getUniqueId());
+        String outcome = confirmReferral(player, referrerId);
+
+        event.end();
+        if (System.nanoTime() - started >= eventThresholds.getConfirmationCheckNanos() && event.shouldCommit()) {
+            event.player = player.getUniqueId().toString();
+            event.referrer = referrerId != null ? referrerId.toString() : null;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns what the check found, for the flight recorder.
+     */
+    private String confirmReferral(Player player, UUID referrerId) {
         UUID playerId = player.getUniqueId();
-        UUID referrerId = referredBy.get(playerId);
-        if (referrerId == null || !hasPlayedRequiredTime(player)) {
-            return;
+        if (referrerId == null) {
+            return "not-referred";
+        }
+        if (!hasPlayedRequiredTime(player)) {
+            return "playtime";
         }
 
         PlayerReferralData referrerData = playerData.get(referrerId);
-        if (referrerData == null || !referrerData.getPendingReferrals().containsKey(playerId)) {
-            return;
+        if (referrerData == null) {
+            return "referrer-missing";
         }
-
-        if (!referrerData.confirmReferral(playerId)) {
-            return;
+        if (!referrerData.getPendingReferrals().containsKey(playerId)) {
+            return "not-pending";
         }
 
-        databaseManager.savePlayerData(referrerData);
+        try (StripedLock.Held ignored = playerLocks.lock(referrerId)) {
+            if (!referrerData.confirmReferral(playerId)) {
+                return "not-pending";
+            }
+
+            leaderboard.update(referrerData);
+            saveQueue.enqueue(referrerData);
+        }
+        referralsConfirmed.increment();
 
         Player referrer = plugin.getServer().getPlayer(referrerId);
         String referrerName = referrer != null ? referrer.getName() : referrerData.getPlayerName();
@@ -284,15 +842,23 @@ public class ReferralDataManager {
         }
 
         plugin.getLogger().info("Confirmed referral: " + player.getName() + " referred by " + referrerName);
+        return "confirmed";
     }
 
     public List<PlayerReferralData> getTopReferrers(int limit) {
-        return playerData.values().stream()
-                .filter(data -> data.getReferralCount() > 0)
-                .filter(data -> !data.getPlayerName().equalsIgnoreCase("unknown"))
-                .sorted((left, right) -> Integer.compare(right.getReferralCount(), left.getReferralCount()))
-                .limit(limit)
-                .collect(Collectors.toList());
+        return leaderboard.getPage(0, limit);
+    }
+
+    public List<PlayerReferralData> getTopReferrers(int offset, int limit) {
+        return leaderboard.getPage(offset, limit);
+    }
+
+    public int getRankedReferrerCount() {
+        return leaderboard.size();
+    }
+
+    public int getReferrerRank(UUID playerId) {
+        return leaderboard.getRank(playerId);
     }
 
     public boolean isPlayerReferred(UUID playerId) {
@@ -309,10 +875,20 @@ public class ReferralDataManager {
             return;
         }
 
-        data.getConfirmedReferrals().clear();
-        data.getPendingReferrals().clear();
-        data.setClaimedReward(false);
-        databaseManager.savePlayerData(data);
+        try (StripedLock.Held ignored = playerLocks.lock(playerId)) {
+            List<UUID> referredPlayers = new ArrayList<>(data.getConfirmedReferrals());
+            referredPlayers.addAll(data.getPendingReferrals().keySet());
+            data.reset();
+            // The rows are deleted on save, so the players must also stop counting as referred, as they would after a reload
+            for (UUID referredId : referredPlayers) {
+                if (playerId.equals(referredBy.get(referredId))) {
+                    referredBy.remove(referredId);
+                    referralForest.unlink(referredId);
+                }
+            }
+            leaderboard.update(data);
+            saveQueue.enqueue(data);
+        }
     }
 
     public boolean hasReachedReferralLimit(UUID playerId) {
@@ -325,16 +901,54 @@ public class ReferralDataManager {
         return data != null && data.canClaimPayout(payoutThreshold);
     }
 
-    public boolean claimReferrerReward(Player player) {
+    /**
+     * Marks the reward as claimed and hands it out once the claim is stored, so a crash can never pay it twice.
+     * The returned future completes on the main thread.
+     */
+    public CompletableFuture<Boolean> claimReferrerReward(Player player) {
         PlayerReferralData data = playerData.get(player.getUniqueId());
-        if (data == null || !data.canClaimPayout(payoutThreshold) || !hasConfiguredReferrerReward()) {
-            return false;
+        if (data == null || !hasConfiguredReferrerReward()) {
+            return CompletableFuture.completedFuture(false);
         }
 
-        runConfiguredCommands(referrerRewardCommands, player, Map.of("player", player.getName()));
-        data.setClaimedReward(true);
-        databaseManager.savePlayerData(data);
-        return true;
+        try (StripedLock.Held ignored = playerLocks.lock(player.getUniqueId())) {
+            if (!data.canClaimPayout(payoutThreshold)) {
+                return CompletableFuture.completedFuture(false);
+            }
+
+            data.setClaimedReward(true);
+        }
+
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        saveQueue.flush(data).whenComplete((ignored, error) -> {
+            // Reward commands need the main thread, which is gone once the plugin is disabling
+            if (error != null || !plugin.isEnabled()) {
+                revokeClaim(data);
+                result.complete(false);
+                return;
+            }
+
+            try {
+                plugin.getServer().getScheduler().runTask(plugin, () -> {
+                    runConfiguredCommands(referrerRewardCommands, player, Map.of("player", player.getName()));
+                    result.complete(true);
+                });
+            } catch (RuntimeException e) {
+                revokeClaim(data);
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Undoes a claim whose reward will not be paid, queueing the change so the saved claim is rolled back too.
+     */
+    private void revokeClaim(PlayerReferralData data) {
+        try (StripedLock.Held ignored = playerLocks.lock(data.getPlayerId())) {
+            data.setClaimedReward(false);
+        }
+        saveQueue.enqueue(data);
     }
 
     public boolean grantReferredReward(Player referredPlayer, Player referrer) {
@@ -372,16 +986,19 @@ public class ReferralDataManager {
             return;
         }
 
+        long started = System.nanoTime();
         ConsoleCommandSender console = Bukkit.getConsoleSender();
         for (String command : commands) {
-            String parsedCommand = applyPlaceholders(command, replacements).trim();
+            String parsedCommand = Placeholders.apply(command, replacements).trim();
             if (parsedCommand.startsWith("/")) {
                 parsedCommand = parsedCommand.substring(1);
             }
             if (!parsedCommand.isBlank()) {
                 Bukkit.dispatchCommand(console, parsedCommand);
+                rewardCommands.increment();
             }
         }
+        rewardDispatch.recordSince(started);
     }
 
     private void sendConfiguredMessage(Player player, String message, Map<String, String> replacements) {
@@ -389,15 +1006,7 @@ public class ReferralDataManager {
             return;
         }
 
-        player.sendMessage(LegacyComponentSerializer.legacyAmpersand().deserialize(applyPlaceholders(message, replacements)));
-    }
-
-    private String applyPlaceholders(String input, Map<String, String> replacements) {
-        String output = input;
-        for (Map.Entry<String, String> entry : replacements.entrySet()) {
-            output = output.replace("{" + entry.getKey() + "}", entry.getValue());
-        }
-        return output;
+        player.sendMessage(LegacyComponentSerializer.legacyAmpersand().deserialize(Placeholders.apply(message, replacements)));
     }
 
     public long getRequiredPlaytimeTicks() {
@@ -437,13 +1046,50 @@ public class ReferralDataManager {
     }
 
     public void close() {
+        ipHistoryPruneTask.cancel();
+        try {
+            startup.join();
+        } catch (CompletionException e) {
+            // The failure was already reported when startup finished
+        }
+
+        // Set before initialize() can fail, so a backend that failed to start is still closed
         if (databaseManager != null) {
-            saveData();
+            if (saveQueue != null) {
+                saveQueue.close();
+            }
+            // A failed or partial load must not be written back over the database
+            boolean saved = ready && saveDataAndWait();
             databaseManager.close();
+            // Only once every write has finished, since the snapshot stands in for the database on the next start
+            if (saved && snapshotEnabled && !lazyLoading) {
+                saveSnapshot();
+            }
         }
+        discordManager.close();
+        metricsExporter.close();
+    }
+
+    /**
+     * The backend itself, without the timing wrapper.
+     */
+    public DatabaseManager getDatabaseManager() {
+        return databaseManager instanceof InstrumentedDatabaseManager instrumented ? instrumented.getDelegate() : databaseManager;
+    }
+
+    public BoundedExecutor getDatabaseExecutor() {
+        return databaseExecutor;
+    }
+
+    public WriteBehindQueue getSaveQueue() {
+        return saveQueue;
     }
 
     public DiscordWebhookManager getDiscordManager() {
         return discordManager;
     }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
 }
@@ -0,0 +1,211 @@
+package me.itzrenzo.referra.data;
+
+import me.itzrenzo.referra.util.UuidLongMap;
+import me.itzrenzo.referra.util.UuidUuidMap;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Root labels for the referral forest, kept in a union-find with path halving and union by size.
+ * Each set is one referral tree and carries the id of the player at its top, so "which tree is this player in"
+ * and "who is the root of it" are answered in near-constant time.
+ * Links are added one at a time as referrals are made. The tree itself is kept alongside as parent and child lists,
+ * because union-find cannot split a set: when a link is removed the child's subtree moves to fresh elements in a new
+ * set, costing time in the size of that subtree only. The elements it leaves behind are unreachable and are dropped
+ * by the next {@link #rebuild}.
+ */
+public class ReferralForest {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final UuidLongMap ids = new UuidLongMap();
+    private long[] playerHi = new long[INITIAL_CAPACITY];
+    private long[] playerLo = new long[INITIAL_CAPACITY];
+    private int[] parent = new int[INITIAL_CAPACITY];
+    private int[] setSize = new int[INITIAL_CAPACITY];
+    private int[] rootLabel = new int[INITIAL_CAPACITY];
+    private int[] treeParent = new int[INITIAL_CAPACITY];
+    private int[] firstChild = new int[INITIAL_CAPACITY];
+    private int[] nextSibling = new int[INITIAL_CAPACITY];
+    private int[] previousSibling = new int[INITIAL_CAPACITY];
+    private int count;
+
+    /**
+     * Records that {@code child} was referred by {@code referrer}. The child must not already have a referrer.
+     */
+    public synchronized void link(UUID child, UUID referrer) {
+        int childId = idOf(child);
+        int referrerId = idOf(referrer);
+        int childSet = find(childId);
+        int referrerSet = find(referrerId);
+        if (childSet == referrerSet) {
+            return;
+        }
+
+        attach(childId, referrerId);
+        int label = rootLabel[referrerSet];
+        if (setSize[childSet] > setSize[referrerSet]) {
+            parent[referrerSet] = childSet;
+            setSize[childSet] += setSize[referrerSet];
+            rootLabel[childSet] = label;
+        } else {
+            parent[childSet] = referrerSet;
+            setSize[referrerSet] += setSize[childSet];
+        }
+    }
+
+    /**
+     * @return the player at the top of the referral tree containing {@code player}, or the player itself if they are unknown
+     */
+    public synchronized UUID rootOf(UUID player) {
+        long id = ids.get(player, -1);
+        if (id < 0) {
+            return player;
+        }
+
+        int root = rootLabel[find((int) id)];
+        return new UUID(playerHi[root], playerLo[root]);
+    }
+
+    /**
+     * Removes the link from {@code child} to its referrer, so the child becomes the top of a tree holding everyone
+     * below it.
+     */
+    public synchronized void unlink(UUID child) {
+        long id = ids.get(child, -1);
+        if (id < 0 || treeParent[(int) id] < 0) {
+            return;
+        }
+
+        int old = (int) id;
+        detach(old);
+        int top = allocate(playerHi[old], playerLo[old]);
+        int[] originals = {old};
+        int[] copies = {top};
+        int pending = 1;
+        while (pending > 0) {
+            pending--;
+            int original = originals[pending];
+            int copy = copies[pending];
+            for (int next = firstChild[original]; next >= 0; next = nextSibling[next]) {
+                int nextCopy = allocate(playerHi[next], playerLo[next]);
+                attach(nextCopy, copy);
+                parent[nextCopy] = top;
+                if (pending == originals.length) {
+                    originals = Arrays.copyOf(originals, pending << 1);
+                    copies = Arrays.copyOf(copies, pending << 1);
+                }
+                originals[pending] = next;
+                copies[pending] = nextCopy;
+                pending++;
+            }
+        }
+        // Copies are allocated one after another, so the new set is everything from the top onwards
+        setSize[top] = count - top;
+    }
+
+    /**
+     * @return whether {@code ancestor} is {@code player} or one of the players above them in their referral tree
+     */
+    public synchronized boolean isAncestor(UUID ancestor, UUID player) {
+        if (ancestor.equals(player)) {
+            return true;
+        }
+
+        long ancestorId = ids.get(ancestor, -1);
+        long playerId = ids.get(player, -1);
+        if (ancestorId < 0 || playerId < 0 || find((int) ancestorId) != find((int) playerId)) {
+            return false;
+        }
+        if (treeParent[(int) ancestorId] < 0) {
+            return true;
+        }
+
+        for (int node = treeParent[(int) playerId]; node >= 0; node = treeParent[node]) {
+            if (node == ancestorId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces every tree with the ones formed by {@code referredBy}, for example after referral links were removed.
+     */
+    public synchronized void rebuild(UuidUuidMap referredBy) {
+        ids.clear();
+        count = 0;
+        ids.ensureCapacity(referredBy.size() * 2);
+        referredBy.forEach(this::link);
+    }
+
+    private int idOf(UUID player) {
+        long existing = ids.get(player, -1);
+        if (existing >= 0) {
+            return (int) existing;
+        }
+        return allocate(player.getMostSignificantBits(), player.getLeastSignificantBits());
+    }
+
+    private int allocate(long hi, long lo) {
+        if (count == parent.length) {
+            int capacity = parent.length << 1;
+            playerHi = Arrays.copyOf(playerHi, capacity);
+            playerLo = Arrays.copyOf(playerLo, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            setSize = Arrays.copyOf(setSize, capacity);
+            rootLabel = Arrays.copyOf(rootLabel, capacity);
+            treeParent = Arrays.copyOf(treeParent, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            previousSibling = Arrays.copyOf(previousSibling, capacity);
+        }
+
+        int id = count++;
+        playerHi[id] = hi;
+        playerLo[id] = lo;
+        parent[id] = id;
+        setSize[id] = 1;
+        rootLabel[id] = id;
+        treeParent[id] = -1;
+        firstChild[id] = -1;
+        nextSibling[id] = -1;
+        previousSibling[id] = -1;
+        ids.put(new UUID(hi, lo), id);
+        return id;
+    }
+
+    private void attach(int child, int referrer) {
+        treeParent[child] = referrer;
+        previousSibling[child] = -1;
+        nextSibling[child] = firstChild[referrer];
+        if (firstChild[referrer] >= 0) {
+            previousSibling[firstChild[referrer]] = child;
+        }
+        firstChild[referrer] = child;
+    }
+
+    private void detach(int child) {
+        int previous = previousSibling[child];
+        int next = nextSibling[child];
+        if (previous >= 0) {
+            nextSibling[previous] = next;
+        } else {
+            firstChild[treeParent[child]] = next;
+        }
+        if (next >= 0) {
+            previousSibling[next] = previous;
+        }
+        treeParent[child] = -1;
+        previousSibling[child] = -1;
+        nextSibling[child] = -1;
+    }
+
+    private int find(int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+}
@@ -0,0 +1,231 @@
+package me.itzrenzo.referra.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Confirmed-referral leaderboard kept in a size-augmented treap.
+ * Updates, rank lookups and seeking to a page offset are O(log n); reading a page costs O(log n + page size).
+ * Ties are ordered by player name and then UUID so pages are stable between calls.
+ */
+public class ReferralLeaderboard {
+    private final Map<UUID, Node> nodes = new HashMap<>();
+    private Node root;
+
+    public synchronized void update(PlayerReferralData data) {
+        Node existing = nodes.get(data.getPlayerId());
+        int count = data.getReferralCount();
+        if (existing != null) {
+            if (existing.count == count && existing.data == data) {
+                return;
+            }
+            root = erase(root, existing);
+            nodes.remove(data.getPlayerId());
+        }
+
+        if (!isRanked(data)) {
+            return;
+        }
+
+        Node node = new Node(data, count);
+        nodes.put(data.getPlayerId(), node);
+        root = insert(root, node);
+    }
+
+    public synchronized void remove(UUID playerId) {
+        Node existing = nodes.remove(playerId);
+        if (existing != null) {
+            root = erase(root, existing);
+        }
+    }
+
+    public synchronized void rebuild(Collection<PlayerReferralData> players) {
+        nodes.clear();
+        root = null;
+        for (PlayerReferralData data : players) {
+            update(data);
+        }
+    }
+
+    public synchronized int size() {
+        return size(root);
+    }
+
+    public synchronized List<PlayerReferralData> getPage(int offset, int limit) {
+        List<PlayerReferralData> page = new ArrayList<>(Math.max(0, Math.min(limit, size(root) - offset)));
+        if (offset >= 0 && limit > 0) {
+            collect(root, offset, limit, page);
+        }
+        return page;
+    }
+
+    /**
+     * @return the 1-based position of the player, or 0 if they are not on the leaderboard
+     */
+    public synchronized int getRank(UUID playerId) {
+        Node target = nodes.get(playerId);
+        if (target == null) {
+            return 0;
+        }
+
+        int rank = 0;
+        Node current = root;
+        while (current != null) {
+            int comparison = compare(target, current);
+            if (comparison == 0) {
+                return rank + size(current.left) + 1;
+            }
+            if (comparison < 0) {
+                current = current.left;
+            } else {
+                rank += size(current.left) + 1;
+                current = current.right;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isRanked(PlayerReferralData data) {
+        return data.getReferralCount() > 0 && !data.getPlayerName().equalsIgnoreCase("unknown");
+    }
+
+    private static void collect(Node node, int offset, int limit, List<PlayerReferralData> out) {
+        if (node == null || out.size() >= limit) {
+            return;
+        }
+
+        int leftSize = size(node.left);
+        if (offset < leftSize) {
+            collect(node.left, offset, limit, out);
+        }
+        if (out.size() < limit && offset <= leftSize) {
+            out.add(node.data);
+        }
+        if (out.size() < limit) {
+            collect(node.right, Math.max(0, offset - leftSize - 1), limit, out);
+        }
+    }
+
+    private static Node insert(Node node, Node inserted) {
+        if (node == null) {
+            return inserted;
+        }
+
+        if (inserted.priority > node.priority) {
+            Node[] parts = split(node, inserted);
+            inserted.left = parts[0];
+            inserted.right = parts[1];
+            inserted.recalculate();
+            return inserted;
+        }
+
+        if (compare(inserted, node) < 0) {
+            node.left = insert(node.left, inserted);
+        } else {
+            node.right = insert(node.right, inserted);
+        }
+        node.recalculate();
+        return node;
+    }
+
+    private static Node erase(Node node, Node removed) {
+        if (node == null) {
+            return null;
+        }
+
+        if (node == removed) {
+            return merge(node.left, node.right);
+        }
+
+        if (compare(removed, node) < 0) {
+            node.left = erase(node.left, removed);
+        } else {
+            node.right = erase(node.right, removed);
+        }
+        node.recalculate();
+        return node;
+    }
+
+    private static Node[] split(Node node, Node key) {
+        if (node == null) {
+            return new Node[2];
+        }
+
+        if (compare(node, key) < 0) {
+            Node[] parts = split(node.right, key);
+            node.right = parts[0];
+            node.recalculate();
+            parts[0] = node;
+            return parts;
+        }
+
+        Node[] parts = split(node.left, key);
+        node.left = parts[1];
+        node.recalculate();
+        parts[1] = node;
+        return parts;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.recalculate();
+            return left;
+        }
+
+        right.left = merge(left, right.left);
+        right.recalculate();
+        return right;
+    }
+
+    private static int compare(Node left, Node right) {
+        int comparison = Integer.compare(right.count, left.count);
+        if (comparison != 0) {
+            return comparison;
+        }
+
+        comparison = left.sortName.compareTo(right.sortName);
+        if (comparison != 0) {
+            return comparison;
+        }
+
+        return left.data.getPlayerId().compareTo(right.data.getPlayerId());
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node {
+        private final PlayerReferralData data;
+        private final int count;
+        private final String sortName;
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private int size = 1;
+        private Node left;
+        private Node right;
+
+        private Node(PlayerReferralData data, int count) {
+            this.data = data;
+            this.count = count;
+            this.sortName = data.getPlayerName().toLowerCase(Locale.ROOT);
+        }
+
+        private void recalculate() {
+            size = 1 + size(left) + size(right);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package me.itzrenzo.referra.data;
+
+import me.itzrenzo.referra.util.UuidLongMap;
+import me.itzrenzo.referra.util.UuidUuidMap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes the in-memory referral maps as one binary file, so a clean restart can skip the SQL load.
+ * <p>
+ * Layout, big-endian: magic, format version, database generation, then the player, referredBy, first join and IP
+ * sections, each a varint count followed by its entries. UUIDs are 16 fixed bytes, strings are a varint byte length
+ * followed by UTF-8, and the file ends with a CRC32C of everything before it.
+ */
+public final class ReferralSnapshot {
+    private static final int MAGIC = 0x52465350; // "RFSP"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 16;
+    private static final int CHECKSUM_LENGTH = 4;
+
+    private static final int FLAG_REFERRAL_ENABLED = 1;
+    private static final int FLAG_CLAIMED_REWARD = 1 << 1;
+
+    private ReferralSnapshot() {
+    }
+
+    /**
+     * Thrown when a snapshot cannot be used, whether it is stale, truncated or fails its checksum.
+     */
+    public static final class InvalidSnapshotException extends IOException {
+        public InvalidSnapshotException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Writes the maps to a temporary file next to {@code file}, syncs it and moves it into place, so a crash never
+     * leaves a half-written snapshot behind. The maps must not change while this runs.
+     */
+    public static void write(Path file, long generation, Map<UUID, PlayerReferralData> playerData, UuidUuidMap referredBy,
+                             UuidLongMap firstJoinTimes, Map<UUID, String> playerIPs) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32C checksum = new CRC32C();
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOut, checksum), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(generation);
+
+            writeVarInt(out, playerData.size());
+            for (PlayerReferralData data : playerData.values()) {
+                writeUuid(out, data.getPlayerId());
+                writeString(out, data.getPlayerName());
+                out.writeByte((data.isReferralEnabled() ? FLAG_REFERRAL_ENABLED : 0) | (data.hasClaimedReward() ? FLAG_CLAIMED_REWARD : 0));
+
+                writeVarInt(out, data.getConfirmedReferrals().size());
+                for (UUID referredId : data.getConfirmedReferrals()) {
+                    writeUuid(out, referredId);
+                }
+                writeVarInt(out, data.getPendingReferrals().size());
+                for (Map.Entry<UUID, Long> pending : data.getPendingReferrals().entrySet()) {
+                    writeUuid(out, pending.getKey());
+                    out.writeLong(pending.getValue());
+                }
+            }
+
+            writeVarInt(out, referredBy.size());
+            IOException[] failure = new IOException[1];
+            referredBy.forEach((referredId, referrerId) -> {
+                try {
+                    writeUuid(out, referredId);
+                    writeUuid(out, referrerId);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+
+            writeVarInt(out, firstJoinTimes.size());
+            firstJoinTimes.forEach((playerId, timestamp) -> {
+                try {
+                    writeUuid(out, playerId);
+                    out.writeLong(timestamp);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+
+            writeVarInt(out, playerIPs.size());
+            for (Map.Entry<UUID, String> ip : playerIPs.entrySet()) {
+                writeUuid(out, ip.getKey());
+                writeString(out, ip.getValue());
+            }
+
+            out.flush();
+            // The checksum itself is written past the checked stream
+            fileOut.write(ByteBuffer.allocate(CHECKSUM_LENGTH).putInt((int) checksum.getValue()).array());
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Memory-maps the snapshot and decodes it into the given maps, which should be empty. Fails without touching the
+     * maps if the snapshot was taken at a different database generation or its checksum does not match; if decoding
+     * fails after that, the maps may be partly filled and must be cleared by the caller.
+     */
+    public static void read(Path file, long expectedGeneration, Map<UUID, PlayerReferralData> playerData, UuidUuidMap referredBy,
+                            UuidLongMap firstJoinTimes, Map<UUID, String> playerIPs) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_LENGTH + CHECKSUM_LENGTH || size > Integer.MAX_VALUE) {
+                throw new InvalidSnapshotException("Snapshot has an invalid size of " + size + " bytes");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new InvalidSnapshotException("Not a snapshot in the current format");
+            }
+            long generation = buffer.getLong();
+            if (generation != expectedGeneration) {
+                throw new InvalidSnapshotException("Snapshot was taken at database generation " + generation
+                        + " but generation " + expectedGeneration + " was expected");
+            }
+
+            int contentLength = (int) size - CHECKSUM_LENGTH;
+            CRC32C checksum = new CRC32C();
+            checksum.update(buffer.slice(0, contentLength));
+            if ((int) checksum.getValue() != buffer.getInt(contentLength)) {
+                throw new InvalidSnapshotException("Snapshot checksum does not match");
+            }
+
+            buffer.limit(contentLength);
+            decode(buffer, playerData, referredBy, firstJoinTimes, playerIPs);
+            if (buffer.hasRemaining()) {
+                throw new InvalidSnapshotException("Snapshot has " + buffer.remaining() + " unexpected trailing bytes");
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new InvalidSnapshotException("Snapshot is truncated or malformed: " + e);
+        }
+    }
+
+    private static void decode(ByteBuffer buffer, Map<UUID, PlayerReferralData> playerData, UuidUuidMap referredBy,
+                               UuidLongMap firstJoinTimes, Map<UUID, String> playerIPs) {
+        int players = readVarInt(buffer);
+        for (int i = 0; i < players; i++) {
+            PlayerReferralData data = new PlayerReferralData(readUuid(buffer), readString(buffer));
+            int flags = buffer.get();
+            data.setReferralEnabled((flags & FLAG_REFERRAL_ENABLED) != 0);
+            data.setClaimedReward((flags & FLAG_CLAIMED_REWARD) != 0);
+
+            int confirmed = readVarInt(buffer);
+            for (int j = 0; j < confirmed; j++) {
+                data.addReferral(readUuid(buffer));
+            }
+            int pending = readVarInt(buffer);
+            for (int j = 0; j < pending; j++) {
+                data.addPendingReferral(readUuid(buffer), buffer.getLong());
+            }
+            data.markClean();
+            playerData.put(data.getPlayerId(), data);
+        }
+
+        int mappings = readVarInt(buffer);
+        referredBy.ensureCapacity(mappings);
+        for (int i = 0; i < mappings; i++) {
+            referredBy.put(readUuid(buffer), readUuid(buffer));
+        }
+
+        int firstJoins = readVarInt(buffer);
+        firstJoinTimes.ensureCapacity(firstJoins);
+        for (int i = 0; i < firstJoins; i++) {
+            firstJoinTimes.put(readUuid(buffer), buffer.getLong());
+        }
+
+        int ips = readVarInt(buffer);
+        for (int i = 0; i < ips; i++) {
+            playerIPs.put(readUuid(buffer), readString(buffer));
+        }
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = readVarInt(buffer);
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Unsigned LEB128, seven bits per byte with the high bit set on every byte but the last */
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("Negative count in snapshot");
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint longer than five bytes in snapshot");
+    }
+}
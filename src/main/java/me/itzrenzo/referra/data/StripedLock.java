@@ -0,0 +1,60 @@
+package me.itzrenzo.referra.data;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed pool of locks keyed by player UUID.
+ * Locking several players always acquires their stripes in index order, so callers cannot deadlock each other.
+ */
+public class StripedLock {
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    public StripedLock(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.locks = new ReentrantLock[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public Held lock(UUID... playerIds) {
+        int[] stripes = new int[playerIds.length];
+        for (int i = 0; i < playerIds.length; i++) {
+            stripes[i] = stripeFor(playerIds[i]);
+        }
+        Arrays.sort(stripes);
+
+        int count = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            if (i == 0 || stripes[i] != stripes[i - 1]) {
+                stripes[count++] = stripes[i];
+            }
+        }
+
+        int[] held = Arrays.copyOf(stripes, count);
+        for (int stripe : held) {
+            locks[stripe].lock();
+        }
+
+        return () -> {
+            for (int i = held.length - 1; i >= 0; i--) {
+                locks[held[i]].unlock();
+            }
+        };
+    }
+
+    private int stripeFor(UUID playerId) {
+        long bits = playerId.getMostSignificantBits() ^ playerId.getLeastSignificantBits();
+        int hash = (int) (bits ^ (bits >>> 32));
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    public interface Held extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,30 @@
+package me.itzrenzo.referra.database;
+
+import java.util.UUID;
+
+/**
+ * Receives the rows of a full load as they are read. Every player row is delivered before any referral row, but rows
+ * of the same table may arrive from several threads at once.
+ */
+public interface DataLoadSink {
+
+    /**
+     * Called once before any row with the approximate number of players and referrals, so indexes can be sized up front
+     */
+    void expect(int players, int referrals);
+
+    /**
+     * A row of the players table. First join time and IP address are null when they were never recorded
+     */
+    void player(UUID playerId, String name, boolean referralEnabled, boolean claimedReward, Long firstJoinTime, String ipAddress);
+
+    /**
+     * A confirmed referral
+     */
+    void confirmedReferral(UUID referrerId, UUID referredId);
+
+    /**
+     * A pending referral
+     */
+    void pendingReferral(UUID referrerId, UUID referredId, long timestamp);
+}
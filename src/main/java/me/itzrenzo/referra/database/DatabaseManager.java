@@ -1,6 +1,9 @@
 package me.itzrenzo.referra.database;
 
+import me.itzrenzo.referra.data.IpSighting;
+import me.itzrenzo.referra.data.PlayerRecord;
 import me.itzrenzo.referra.data.PlayerReferralData;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
@@ -18,9 +21,24 @@ public interface DatabaseManager {
     void close();
     
     /**
-     * Load all player data from the database
+     * Advance the generation counter for this start and return the new value
      */
-    CompletableFuture<Map<UUID, PlayerReferralData>> loadAllPlayerData();
+    CompletableFuture<Long> advanceGeneration();
+    
+    /**
+     * Stream every player and referral row into the sink, reading each table once
+     */
+    CompletableFuture<Void> loadAll(DataLoadSink sink);
+    
+    /**
+     * Load data for players that have at least one confirmed or pending referral
+     */
+    CompletableFuture<Map<UUID, PlayerReferralData>> loadActiveReferrers();
+    
+    /**
+     * Load everything stored for a single player
+     */
+    CompletableFuture<PlayerRecord> loadPlayer(UUID playerId);
     
     /**
      * Save a player's referral data to the database
@@ -33,30 +51,50 @@ public interface DatabaseManager {
     CompletableFuture<Void> saveAllPlayerData(Map<UUID, PlayerReferralData> playerData);
     
     /**
-     * Load referral mapping (who referred whom)
+     * Add a pending referral, or update its timestamp if it already exists
      */
-    CompletableFuture<Map<UUID, UUID>> loadReferralMappings();
+    CompletableFuture<Void> insertPending(UUID referrerId, UUID referredId, long timestamp);
     
     /**
-     * Load player first join times
+     * Move a pending referral to the confirmed referrals
      */
-    CompletableFuture<Map<UUID, Long>> loadFirstJoinTimes();
+    CompletableFuture<Void> promotePendingToConfirmed(UUID referrerId, UUID referredId);
     
     /**
-     * Save player first join time
+     * Delete a referral whether it is pending or confirmed
      */
-    CompletableFuture<Void> saveFirstJoinTime(UUID playerId, long timestamp);
+    CompletableFuture<Void> deleteReferral(UUID referrerId, UUID referredId);
     
     /**
-     * Load player IP addresses
+     * Load referral mapping (who referred whom)
      */
-    CompletableFuture<Map<UUID, String>> loadPlayerIPs();
+    CompletableFuture<Map<UUID, UUID>> loadReferralMappings();
+    
+    /**
+     * Save player first join time
+     */
+    CompletableFuture<Void> saveFirstJoinTime(UUID playerId, long timestamp);
     
     /**
      * Save player IP address
      */
     CompletableFuture<Void> savePlayerIP(UUID playerId, String ipAddress);
     
+    /**
+     * Record that a player was seen on a raw IPv4/IPv6 address
+     */
+    CompletableFuture<Void> saveIpSighting(UUID playerId, byte[] address, long timestamp);
+    
+    /**
+     * Load IP history entries last seen at or after the given time
+     */
+    CompletableFuture<List<IpSighting>> loadIpHistory(long since);
+    
+    /**
+     * Delete IP history entries last seen before the given time
+     */
+    CompletableFuture<Void> pruneIpHistory(long before);
+    
     /**
      * Get the database type
      */
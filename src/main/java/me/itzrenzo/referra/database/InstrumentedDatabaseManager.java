@@ -0,0 +1,215 @@
+package me.itzrenzo.referra.database;
+
+import me.itzrenzo.referra.data.IpSighting;
+import me.itzrenzo.referra.data.PlayerRecord;
+import me.itzrenzo.referra.data.PlayerReferralData;
+import me.itzrenzo.referra.jfr.DatabaseCallEvent;
+import me.itzrenzo.referra.jfr.EventThresholds;
+import me.itzrenzo.referra.metrics.Counter;
+import me.itzrenzo.referra.metrics.LatencyHistogram;
+import me.itzrenzo.referra.metrics.MetricsRegistry;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Wraps a {@link DatabaseManager} and records how long each operation takes, from the call until its future
+ * completes, so time spent waiting for the database executor or the writer thread is included. Failures are counted
+ * per operation as well, and calls slower than the configured threshold are recorded as {@link DatabaseCallEvent}s.
+ */
+public class InstrumentedDatabaseManager implements DatabaseManager {
+    private static final List<String> OPERATIONS = List.of("initialize", "advanceGeneration", "loadAll", "loadActiveReferrers",
+            "loadPlayer", "savePlayerData", "saveAllPlayerData", "insertPending", "promotePendingToConfirmed", "deleteReferral",
+            "loadReferralMappings", "saveFirstJoinTime", "savePlayerIP", "saveIpSighting", "loadIpHistory", "pruneIpHistory");
+
+    private final DatabaseManager delegate;
+    private final EventThresholds thresholds;
+    private final Map<String, Timer> timers;
+
+    private record Timer(LatencyHistogram latency, Counter errors) {
+    }
+
+    public InstrumentedDatabaseManager(DatabaseManager delegate, MetricsRegistry metrics, EventThresholds thresholds) {
+        this.delegate = delegate;
+        this.thresholds = thresholds;
+        Map<String, Timer> timers = new HashMap<>();
+        for (String operation : OPERATIONS) {
+            timers.put(operation, new Timer(
+                    metrics.histogram("referra_db_operation_seconds", "Time from a database call until its result, including time queued",
+                            "operation", operation),
+                    metrics.counter("referra_db_operation_errors", "Database calls that failed", "operation", operation)));
+        }
+        this.timers = Map.copyOf(timers);
+    }
+
+    public DatabaseManager getDelegate() {
+        return delegate;
+    }
+
+    private <T> CompletableFuture<T> timed(String operation, Supplier<CompletableFuture<T>> call) {
+        return timed(operation, call, ignored -> -1);
+    }
+
+    /**
+     * @param rows the number of rows a successful result read or wrote, or -1 when that is unknown
+     */
+    private <T> CompletableFuture<T> timed(String operation, Supplier<CompletableFuture<T>> call, ToLongFunction<T> rows) {
+        Timer timer = timers.get(operation);
+        DatabaseCallEvent event = new DatabaseCallEvent();
+        event.begin();
+        long started = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            completed(operation, timer, event, started, null, e, rows);
+            throw e;
+        }
+
+        return future.whenComplete((result, error) -> completed(operation, timer, event, started, result, error, rows));
+    }
+
+    private <T> void completed(String operation, Timer timer, DatabaseCallEvent event, long started, T result, Throwable error,
+                               ToLongFunction<T> rows) {
+        long elapsed = System.nanoTime() - started;
+        timer.latency().record(elapsed);
+        if (error != null) {
+            timer.errors().increment();
+        }
+
+        event.end();
+        if (elapsed >= thresholds.getDatabaseCallNanos() && event.shouldCommit()) {
+            event.operation = operation;
+            event.succeeded = error == null;
+            event.rows = error == null ? rows.applyAsLong(result) : -1;
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                event.error = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+            }
+            event.commit();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> initialize() {
+        return timed("initialize", delegate::initialize);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public CompletableFuture<Long> advanceGeneration() {
+        return timed("advanceGeneration", delegate::advanceGeneration);
+    }
+
+    @Override
+    public CompletableFuture<Void> loadAll(DataLoadSink sink) {
+        // Rows are taken from the estimate the backend announces up front rather than counted one by one
+        AtomicLong expected = new AtomicLong(-1);
+        DataLoadSink counted = new DataLoadSink() {
+            @Override
+            public void expect(int players, int referrals) {
+                expected.set((long) players + referrals);
+                sink.expect(players, referrals);
+            }
+
+            @Override
+            public void player(UUID playerId, String name, boolean referralEnabled, boolean claimedReward, Long firstJoinTime, String ipAddress) {
+                sink.player(playerId, name, referralEnabled, claimedReward, firstJoinTime, ipAddress);
+            }
+
+            @Override
+            public void confirmedReferral(UUID referrerId, UUID referredId) {
+                sink.confirmedReferral(referrerId, referredId);
+            }
+
+            @Override
+            public void pendingReferral(UUID referrerId, UUID referredId, long timestamp) {
+                sink.pendingReferral(referrerId, referredId, timestamp);
+            }
+        };
+        return timed("loadAll", () -> delegate.loadAll(counted), ignored -> expected.get());
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, PlayerReferralData>> loadActiveReferrers() {
+        return timed("loadActiveReferrers", delegate::loadActiveReferrers, Map::size);
+    }
+
+    @Override
+    public CompletableFuture<PlayerRecord> loadPlayer(UUID playerId) {
+        return timed("loadPlayer", () -> delegate.loadPlayer(playerId), record -> record != null ? 1 : 0);
+    }
+
+    @Override
+    public CompletableFuture<Void> savePlayerData(PlayerReferralData data) {
+        return timed("savePlayerData", () -> delegate.savePlayerData(data), ignored -> 1);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAllPlayerData(Map<UUID, PlayerReferralData> playerData) {
+        // Backends skip players with nothing to save, so only the ones dirty when the save starts are written
+        long dirty = playerData.values().stream().filter(PlayerReferralData::isDirty).count();
+        return timed("saveAllPlayerData", () -> delegate.saveAllPlayerData(playerData), ignored -> dirty);
+    }
+
+    @Override
+    public CompletableFuture<Void> insertPending(UUID referrerId, UUID referredId, long timestamp) {
+        return timed("insertPending", () -> delegate.insertPending(referrerId, referredId, timestamp), ignored -> 1);
+    }
+
+    @Override
+    public CompletableFuture<Void> promotePendingToConfirmed(UUID referrerId, UUID referredId) {
+        return timed("promotePendingToConfirmed", () -> delegate.promotePendingToConfirmed(referrerId, referredId));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteReferral(UUID referrerId, UUID referredId) {
+        return timed("deleteReferral", () -> delegate.deleteReferral(referrerId, referredId));
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, UUID>> loadReferralMappings() {
+        return timed("loadReferralMappings", delegate::loadReferralMappings, Map::size);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveFirstJoinTime(UUID playerId, long timestamp) {
+        return timed("saveFirstJoinTime", () -> delegate.saveFirstJoinTime(playerId, timestamp), ignored -> 1);
+    }
+
+    @Override
+    public CompletableFuture<Void> savePlayerIP(UUID playerId, String ipAddress) {
+        return timed("savePlayerIP", () -> delegate.savePlayerIP(playerId, ipAddress), ignored -> 1);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveIpSighting(UUID playerId, byte[] address, long timestamp) {
+        return timed("saveIpSighting", () -> delegate.saveIpSighting(playerId, address, timestamp), ignored -> 1);
+    }
+
+    @Override
+    public CompletableFuture<List<IpSighting>> loadIpHistory(long since) {
+        return timed("loadIpHistory", () -> delegate.loadIpHistory(since), List::size);
+    }
+
+    @Override
+    public CompletableFuture<Void> pruneIpHistory(long before) {
+        return timed("pruneIpHistory", () -> delegate.pruneIpHistory(before));
+    }
+
+    @Override
+    public String getDatabaseType() {
+        return delegate.getDatabaseType();
+    }
+}
@@ -0,0 +1,168 @@
+package me.itzrenzo.referra.database;
+
+import me.itzrenzo.referra.data.PlayerReferralData;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects player saves and writes them in one transaction per flush interval.
+ * Saving the same player several times within an interval only writes them once.
+ */
+public class WriteBehindQueue {
+    private final Plugin plugin;
+    private final DatabaseManager databaseManager;
+    private final Map<UUID, PlayerReferralData> queued = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();
+    // Flushes block until the database executor is done, so they must not run on it. They also wait while holding
+    // flushLock, which would pin a virtual thread to its carrier, and only one can run at a time anyway
+    private final ExecutorService flushExecutor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("referra-save-flush").daemon().factory());
+    private final BukkitTask flushTask;
+
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushedPlayerCount = new AtomicLong();
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+    private volatile long totalFlushNanos;
+
+    public WriteBehindQueue(Plugin plugin, DatabaseManager databaseManager, long flushIntervalMillis) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+
+        long intervalTicks = Math.max(1L, flushIntervalMillis / 50);
+        this.flushTask = plugin.getServer().getScheduler()
+                .runTaskTimerAsynchronously(plugin, this::flushQuietly, intervalTicks, intervalTicks);
+    }
+
+    public void enqueue(PlayerReferralData data) {
+        enqueuedCount.incrementAndGet();
+        if (queued.put(data.getPlayerId(), data) != null) {
+            coalescedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Queues the player and writes everything queued right away, for changes that must be durable before acting on them.
+     */
+    public CompletableFuture<Void> flush(PlayerReferralData data) {
+        enqueue(data);
+        return flush();
+    }
+
+    public CompletableFuture<Void> flush() {
+        try {
+            return CompletableFuture.runAsync(this::flushQueued, flushExecutor);
+        } catch (RejectedExecutionException e) {
+            // Closed, as during the final save on shutdown, so flush on the caller's thread instead
+            try {
+                flushQueued();
+                return CompletableFuture.completedFuture(null);
+            } catch (CompletionException error) {
+                return CompletableFuture.failedFuture(error.getCause() != null ? error.getCause() : error);
+            }
+        }
+    }
+
+    /**
+     * Stops the periodic flush, waits for flushes already requested and writes whatever is still queued.
+     */
+    public void close() {
+        flushTask.cancel();
+        flushExecutor.shutdown();
+        try {
+            if (!flushExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out waiting for queued player saves to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+    }
+
+    private void flushQuietly() {
+        try {
+            flushQueued();
+        } catch (CompletionException ignored) {
+            // Already logged, and the batch stays queued for the next flush
+        }
+    }
+
+    private void flushQueued() {
+        synchronized (flushLock) {
+            if (queued.isEmpty()) {
+                return;
+            }
+
+            Map<UUID, PlayerReferralData> batch = new HashMap<>();
+            for (UUID playerId : queued.keySet()) {
+                PlayerReferralData data = queued.remove(playerId);
+                if (data != null) {
+                    batch.put(playerId, data);
+                }
+            }
+
+            long start = System.nanoTime();
+            try {
+                databaseManager.saveAllPlayerData(batch).join();
+            } catch (CompletionException e) {
+                batch.forEach(queued::putIfAbsent);
+                plugin.getLogger().severe("Error flushing " + batch.size() + " queued player saves: " + e.getMessage());
+                throw e;
+            }
+
+            long elapsed = System.nanoTime() - start;
+            lastFlushNanos = elapsed;
+            maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+            totalFlushNanos += elapsed;
+            flushCount.incrementAndGet();
+            flushedPlayerCount.addAndGet(batch.size());
+        }
+    }
+
+    public int getQueueDepth() {
+        return queued.size();
+    }
+
+    public long getEnqueuedCount() {
+        return enqueuedCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getFlushedPlayerCount() {
+        return flushedPlayerCount.get();
+    }
+
+    public double getLastFlushMillis() {
+        return lastFlushNanos / 1_000_000.0;
+    }
+
+    public double getMaxFlushMillis() {
+        return maxFlushNanos / 1_000_000.0;
+    }
+
+    public double getAverageFlushMillis() {
+        long flushes = flushCount.get();
+        return flushes == 0 ? 0.0 : totalFlushNanos / 1_000_000.0 / flushes;
+    }
+}
@@ -0,0 +1,221 @@
+package me.itzrenzo.referra.database.impl;
+
+import me.itzrenzo.referra.util.UuidBytes;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Moves tables that store UUIDs as text to the binary layout. Each table is copied into a {@code _new} shadow table in
+ * key order, one short transaction per chunk, so no lock is held for the whole copy and an interrupted migration
+ * simply copies again on the next start. Once every table is copied the shadow tables are swapped in and the old ones
+ * are kept as {@code _text}.
+ */
+public class BinaryUuidMigration {
+    public static final String SHADOW_SUFFIX = "_new";
+    public static final String LEGACY_SUFFIX = "_text";
+
+    public enum Dialect {
+        MYSQL("INSERT IGNORE"),
+        SQLITE("INSERT OR IGNORE");
+
+        private final String insertIgnore;
+
+        Dialect(String insertIgnore) {
+            this.insertIgnore = insertIgnore;
+        }
+    }
+
+    /**
+     * @param shadowDefinition CREATE TABLE statement for the binary table named {@code name + SHADOW_SUFFIX}
+     */
+    public record Table(String name, List<String> keyColumns, Set<String> uuidColumns, String shadowDefinition) {
+    }
+
+    private final Logger logger;
+    private final Dialect dialect;
+    private final int chunkSize;
+    private final List<Table> tables;
+
+    public BinaryUuidMigration(Logger logger, Dialect dialect, int chunkSize, List<Table> tables) {
+        this.logger = logger;
+        this.dialect = dialect;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.tables = tables;
+    }
+
+    public void migrate(SchemaMigrator.Transactions transactions) throws SQLException {
+        List<Table> existing = new ArrayList<>();
+        transactions.run("creating binary UUID tables", conn -> {
+            for (Table table : tables) {
+                if (SchemaMigrator.tableExists(conn, table.name())) {
+                    existing.add(table);
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.execute(table.shadowDefinition());
+                    }
+                }
+            }
+        });
+
+        for (Table table : existing) {
+            copy(transactions, table);
+        }
+
+        transactions.run("swapping in binary UUID tables", conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                for (String sql : swapStatements(existing)) {
+                    stmt.execute(sql);
+                }
+            }
+        });
+        logger.info("Binary UUID migration finished. The old tables were kept with the '" + LEGACY_SUFFIX
+                + "' suffix and can be dropped once everything looks right.");
+    }
+
+    private void copy(SchemaMigrator.Transactions transactions, Table table) throws SQLException {
+        long[] total = new long[1];
+        transactions.run("counting " + table.name(), conn -> {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table.name())) {
+                total[0] = rs.next() ? rs.getLong(1) : 0;
+            }
+        });
+        logger.info("Migrating " + total[0] + " rows of " + table.name() + " to binary UUIDs...");
+
+        Object[][] lastKey = new Object[1][];
+        int[] read = new int[1];
+        long copied = 0;
+        long skipped = 0;
+        int chunks = 0;
+        do {
+            int[] written = new int[1];
+            transactions.run("migrating " + table.name(), conn -> {
+                read[0] = 0;
+                written[0] = copyChunk(conn, table, lastKey, read);
+            });
+            copied += written[0];
+            skipped += read[0] - written[0];
+            if (++chunks % 20 == 0) {
+                logger.info("Migrated " + copied + "/" + total[0] + " rows of " + table.name());
+            }
+        } while (read[0] == chunkSize);
+
+        if (skipped > 0) {
+            logger.warning("Skipped " + skipped + " rows of " + table.name() + " with malformed UUIDs");
+        }
+    }
+
+    private int copyChunk(Connection conn, Table table, Object[][] lastKey, int[] read) throws SQLException {
+        String keys = String.join(", ", table.keyColumns());
+        String placeholders = String.join(", ", Collections.nCopies(table.keyColumns().size(), "?"));
+        String select = "SELECT * FROM " + table.name()
+                + (lastKey[0] == null ? "" : " WHERE (" + keys + ") > (" + placeholders + ")")
+                + " ORDER BY " + keys + " LIMIT " + chunkSize;
+
+        List<String> shadowColumns = columns(conn, table.name() + SHADOW_SUFFIX);
+        int written = 0;
+        try (PreparedStatement query = conn.prepareStatement(select)) {
+            if (lastKey[0] != null) {
+                for (int i = 0; i < lastKey[0].length; i++) {
+                    query.setObject(i + 1, lastKey[0][i]);
+                }
+            }
+
+            try (ResultSet rs = query.executeQuery()) {
+                List<String> copiedColumns = new ArrayList<>();
+                ResultSetMetaData meta = rs.getMetaData();
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    String column = meta.getColumnName(i).toLowerCase(Locale.ROOT);
+                    if (shadowColumns.contains(column)) {
+                        copiedColumns.add(column);
+                    }
+                }
+
+                String insert = dialect.insertIgnore + " INTO " + table.name() + SHADOW_SUFFIX
+                        + " (" + String.join(", ", copiedColumns) + ") VALUES ("
+                        + String.join(", ", Collections.nCopies(copiedColumns.size(), "?")) + ")";
+                try (PreparedStatement stmt = conn.prepareStatement(insert)) {
+                    while (rs.next()) {
+                        read[0]++;
+                        Object[] key = new Object[table.keyColumns().size()];
+                        for (int i = 0; i < key.length; i++) {
+                            key[i] = rs.getObject(table.keyColumns().get(i));
+                        }
+                        lastKey[0] = key;
+
+                        if (bindRow(rs, stmt, table, copiedColumns)) {
+                            stmt.addBatch();
+                            written++;
+                        }
+                    }
+                    stmt.executeBatch();
+                }
+            }
+        }
+        return written;
+    }
+
+    private boolean bindRow(ResultSet rs, PreparedStatement stmt, Table table, List<String> columns) throws SQLException {
+        for (int i = 0; i < columns.size(); i++) {
+            String column = columns.get(i);
+            if (!table.uuidColumns().contains(column)) {
+                stmt.setObject(i + 1, rs.getObject(column));
+                continue;
+            }
+
+            String text = rs.getString(column);
+            if (text == null) {
+                stmt.setBytes(i + 1, null);
+                continue;
+            }
+            try {
+                stmt.setBytes(i + 1, UuidBytes.toBytes(UUID.fromString(text.trim())));
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<String> swapStatements(List<Table> existing) {
+        List<String> statements = new ArrayList<>();
+        if (dialect == Dialect.MYSQL) {
+            // One RENAME TABLE is atomic. Old tables go first so their generated foreign key names are free again
+            List<String> renames = new ArrayList<>();
+            for (Table table : existing) {
+                renames.add(table.name() + " TO " + table.name() + LEGACY_SUFFIX);
+                renames.add(table.name() + SHADOW_SUFFIX + " TO " + table.name());
+            }
+            statements.add("RENAME TABLE " + String.join(", ", renames));
+        } else {
+            for (Table table : existing) {
+                statements.add("ALTER TABLE " + table.name() + " RENAME TO " + table.name() + LEGACY_SUFFIX);
+                statements.add("ALTER TABLE " + table.name() + SHADOW_SUFFIX + " RENAME TO " + table.name());
+            }
+        }
+        return statements;
+    }
+
+    private static List<String> columns(Connection conn, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM " + table + " WHERE 1 = 0")) {
+            ResultSetMetaData meta = rs.getMetaData();
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                columns.add(meta.getColumnName(i).toLowerCase(Locale.ROOT));
+            }
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,40 @@
+package me.itzrenzo.referra.database.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A counter stored in the database that every plugin start advances before it writes anything. A snapshot taken
+ * during one run is only current if the next run finds the counter exactly one further along. The counter starts at a
+ * random value so a snapshot taken against a different database never matches by accident.
+ */
+final class DatabaseGeneration {
+    private DatabaseGeneration() {
+    }
+
+    static void createTable(Connection conn, String insertIgnore) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS database_generation (id INTEGER PRIMARY KEY, generation BIGINT NOT NULL)");
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(insertIgnore + " INTO database_generation (id, generation) VALUES (1, ?)")) {
+            stmt.setLong(1, ThreadLocalRandom.current().nextLong() >>> 2);
+            stmt.executeUpdate();
+        }
+    }
+
+    static long advance(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("UPDATE database_generation SET generation = generation + 1 WHERE id = 1");
+            try (ResultSet rs = stmt.executeQuery("SELECT generation FROM database_generation WHERE id = 1")) {
+                if (!rs.next()) {
+                    throw new SQLException("database_generation has no row");
+                }
+                return rs.getLong(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package me.itzrenzo.referra.database.impl;
+
+import me.itzrenzo.referra.data.IpSighting;
+import me.itzrenzo.referra.data.PlayerRecord;
+import me.itzrenzo.referra.data.PlayerReferralData;
+import me.itzrenzo.referra.data.PlayerSaveBatch;
+import me.itzrenzo.referra.database.DataLoadSink;
+import me.itzrenzo.referra.database.DatabaseManager;
+import me.itzrenzo.referra.util.BoundedExecutor;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Keeps every table in memory only, with artificial latency, jitter and failures injected per operation. Nothing
+ * survives a restart; it exists to run the plugin and its benchmarks without a database server and to reproduce how
+ * the plugin behaves when the database is slow or failing.
+ * <p>
+ * Each call sleeps on the executor for its latency plus a random jitter, then fails with the configured probability
+ * before touching any data, so the executor fills up the way it would waiting on a real database. Latency and failures
+ * are drawn from one seeded random when a call starts on the executor, so a run is only repeatable when the calls
+ * start in the same order: issue them one at a time or give the manager a single-threaded executor. With several
+ * executor threads the draws interleave differently from run to run.
+ */
+public class InMemoryDatabaseManager implements DatabaseManager {
+    public enum Operation {
+        INITIALIZE,
+        ADVANCE_GENERATION,
+        LOAD_ALL,
+        LOAD_ACTIVE_REFERRERS,
+        LOAD_PLAYER,
+        SAVE_PLAYER,
+        SAVE_ALL,
+        INSERT_PENDING,
+        PROMOTE_PENDING,
+        DELETE_REFERRAL,
+        LOAD_REFERRAL_MAPPINGS,
+        SAVE_FIRST_JOIN,
+        SAVE_IP,
+        SAVE_IP_SIGHTING,
+        LOAD_IP_HISTORY,
+        PRUNE_IP_HISTORY;
+
+        /** Name used in the config, e.g. {@code save-player} */
+        public String configKey() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+
+    /**
+     * @param latencyMillis fixed delay before the operation runs
+     * @param jitterMillis  most extra delay, drawn uniformly on every call
+     * @param failureRate   chance between 0 and 1 that the operation fails instead of running
+     */
+    public record Fault(long latencyMillis, long jitterMillis, double failureRate) {
+        public static final Fault NONE = new Fault(0, 0, 0.0);
+
+        public Fault {
+            if (latencyMillis < 0 || jitterMillis < 0) {
+                throw new IllegalArgumentException("Latency and jitter cannot be negative");
+            }
+            if (!(failureRate >= 0.0 && failureRate <= 1.0)) {
+                throw new IllegalArgumentException("Failure rate must be between 0 and 1");
+            }
+        }
+    }
+
+    private final Logger logger;
+    private final BoundedExecutor executor;
+    private final JournalState state = new JournalState();
+    private final Map<Operation, Fault> faults = new EnumMap<>(Operation.class);
+    private final SplittableRandom random;
+    private final AtomicLongArray callCounts = new AtomicLongArray(Operation.values().length);
+    private final AtomicLongArray failureCounts = new AtomicLongArray(Operation.values().length);
+
+    public InMemoryDatabaseManager(Logger logger, Map<Operation, Fault> faults, long seed, BoundedExecutor executor) {
+        this.logger = logger;
+        this.executor = executor;
+        this.random = new SplittableRandom(seed);
+        this.faults.putAll(faults);
+    }
+
+    /**
+     * Changes the injected fault for one operation, for example to make the database slow in the middle of a run.
+     */
+    public void setFault(Operation operation, Fault fault) {
+        synchronized (faults) {
+            faults.put(operation, fault);
+        }
+    }
+
+    public Fault getFault(Operation operation) {
+        synchronized (faults) {
+            return faults.getOrDefault(operation, Fault.NONE);
+        }
+    }
+
+    /**
+     * Applies events right away without any injected fault, to fill the tables before a test or benchmark starts.
+     */
+    public void seed(Journal.Work work) {
+        synchronized (state) {
+            work.run(state::apply);
+        }
+    }
+
+    private void inject(Operation operation, String description) {
+        Fault fault = getFault(operation);
+        long delay;
+        boolean fail;
+        synchronized (random) {
+            delay = fault.latencyMillis() + (fault.jitterMillis() > 0 ? random.nextLong(fault.jitterMillis() + 1) : 0);
+            fail = fault.failureRate() > 0 && random.nextDouble() < fault.failureRate();
+        }
+
+        callCounts.incrementAndGet(operation.ordinal());
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while " + description, e);
+            }
+        }
+        if (fail) {
+            failureCounts.incrementAndGet(operation.ordinal());
+            logger.severe("Error " + description + " in memory: injected failure");
+            throw new RuntimeException("Injected failure while " + description);
+        }
+    }
+
+    private <T> CompletableFuture<T> read(Operation operation, String description, Supplier<T> query) {
+        return CompletableFuture.supplyAsync(() -> {
+            inject(operation, description);
+            return query.get();
+        }, executor);
+    }
+
+    private CompletableFuture<Void> write(Operation operation, String description, Journal.Work work) {
+        return CompletableFuture.runAsync(() -> {
+            inject(operation, description);
+            // One write at a time, so events touching several tables are applied together like a transaction
+            synchronized (state) {
+                work.run(state::apply);
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> initialize() {
+        long generation;
+        synchronized (random) {
+            generation = random.nextLong() >>> 2;
+        }
+        return write(Operation.INITIALIZE, "initializing", events -> events.accept(new JournalEvent.Generation(generation)))
+                .thenRun(() -> logger.info("In-memory database initialized, nothing will be kept after a restart"));
+    }
+
+    @Override
+    public void close() {
+        if (!executor.shutdown(30, TimeUnit.SECONDS)) {
+            logger.warning("Timed out waiting for in-memory operations to finish");
+        }
+    }
+
+    @Override
+    public CompletableFuture<Long> advanceGeneration() {
+        long[] generation = new long[1];
+        return write(Operation.ADVANCE_GENERATION, "advancing the database generation", events -> {
+            generation[0] = state.getGeneration() + 1;
+            events.accept(new JournalEvent.Generation(generation[0]));
+        }).thenApply(ignored -> generation[0]);
+    }
+
+    @Override
+    public CompletableFuture<Void> loadAll(DataLoadSink sink) {
+        return read(Operation.LOAD_ALL, "loading data", () -> {
+            state.load(sink);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, PlayerReferralData>> loadActiveReferrers() {
+        return read(Operation.LOAD_ACTIVE_REFERRERS, "loading active referrers", state::getActiveReferrers);
+    }
+
+    @Override
+    public CompletableFuture<PlayerRecord> loadPlayer(UUID playerId) {
+        return read(Operation.LOAD_PLAYER, "loading player " + playerId, () -> state.getPlayerRecord(playerId));
+    }
+
+    @Override
+    public CompletableFuture<Void> savePlayerData(PlayerReferralData data) {
+        PlayerSaveBatch batch = new PlayerSaveBatch();
+        return write(Operation.SAVE_PLAYER, "saving player data",
+                events -> batch.write(data, (player, saveProfile) -> JournalEvent.forPlayerData(player, saveProfile, events)))
+                .thenRun(batch::markClean);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAllPlayerData(Map<UUID, PlayerReferralData> playerData) {
+        PlayerSaveBatch batch = new PlayerSaveBatch();
+        return write(Operation.SAVE_ALL, "saving all player data", events -> batch.writeChanged(playerData.values(),
+                (player, saveProfile) -> JournalEvent.forPlayerData(player, saveProfile, events)))
+                .thenRun(batch::markClean);
+    }
+
+    @Override
+    public CompletableFuture<Void> insertPending(UUID referrerId, UUID referredId, long timestamp) {
+        return write(Operation.INSERT_PENDING, "saving pending referral",
+                events -> events.accept(new JournalEvent.PendingAdded(referrerId, referredId, timestamp)));
+    }
+
+    @Override
+    public CompletableFuture<Void> promotePendingToConfirmed(UUID referrerId, UUID referredId) {
+        return write(Operation.PROMOTE_PENDING, "confirming referral", events -> events.accept(new JournalEvent.Confirmed(referrerId, referredId)));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteReferral(UUID referrerId, UUID referredId) {
+        return write(Operation.DELETE_REFERRAL, "deleting referral", events -> events.accept(new JournalEvent.ReferralDeleted(referrerId, referredId)));
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, UUID>> loadReferralMappings() {
+        return read(Operation.LOAD_REFERRAL_MAPPINGS, "loading referral mappings", state::getReferralMappings);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveFirstJoinTime(UUID playerId, long timestamp) {
+        return write(Operation.SAVE_FIRST_JOIN, "saving first join time", events -> events.accept(new JournalEvent.FirstJoin(playerId, timestamp)));
+    }
+
+    @Override
+    public CompletableFuture<Void> savePlayerIP(UUID playerId, String ipAddress) {
+        return write(Operation.SAVE_IP, "saving player IP", events -> events.accept(new JournalEvent.PlayerIp(playerId, ipAddress)));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveIpSighting(UUID playerId, byte[] address, long timestamp) {
+        byte[] copy = address.clone();
+        return write(Operation.SAVE_IP_SIGHTING, "saving IP history", events -> events.accept(new JournalEvent.IpSeen(playerId, copy, timestamp)));
+    }
+
+    @Override
+    public CompletableFuture<List<IpSighting>> loadIpHistory(long since) {
+        return read(Operation.LOAD_IP_HISTORY, "loading IP history", () -> state.getIpHistory(since));
+    }
+
+    @Override
+    public CompletableFuture<Void> pruneIpHistory(long before) {
+        return write(Operation.PRUNE_IP_HISTORY, "pruning IP history", events -> events.accept(new JournalEvent.IpHistoryPruned(before)));
+    }
+
+    @Override
+    public String getDatabaseType() {
+        return "MEMORY";
+    }
+
+    /** The tables, for tests that check what was written */
+    public JournalState getState() {
+        return state;
+    }
+
+    public long getCallCount(Operation operation) {
+        return callCounts.get(operation.ordinal());
+    }
+
+    public long getFailureCount(Operation operation) {
+        return failureCounts.get(operation.ordinal());
+    }
+}
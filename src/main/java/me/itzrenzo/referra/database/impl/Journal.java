@@ -0,0 +1,497 @@
+package me.itzrenzo.referra.database.impl;
+
+import org.bukkit.plugin.Plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only log of {@link JournalEvent}s split into numbered segment files, with one writer thread that appends
+ * queued writes in batches and fsyncs once per batch, like {@link SqliteWriter} does for SQLite.
+ * <p>
+ * Every record is framed as its length, a CRC32C and the event bytes. From time to time, and on close, the writer
+ * starts a new segment and writes every table as a compacted checkpoint numbered like that segment; older segments
+ * and checkpoints are then deleted. Opening loads the newest checkpoint and replays the segments after it. A record
+ * torn by a crash at the end of the last segment is cut off, while damage anywhere else stops the journal from opening.
+ */
+public class Journal implements AutoCloseable {
+    @FunctionalInterface
+    public interface Work {
+        /** Emits the events of one write. Runs on the writer thread right before the events are appended */
+        void run(Consumer<JournalEvent> events);
+    }
+
+    private record Write(String description, Work work, CompletableFuture<Void> result) {
+    }
+
+    private record Encoded(Write write, List<JournalEvent> events, List<byte[]> records) {
+    }
+
+    private static final Pattern SEGMENT = Pattern.compile("segment-(\\d{20})\\.log");
+    private static final Pattern CHECKPOINT = Pattern.compile("checkpoint-(\\d{20})\\.bin");
+    private static final int HEADER_LENGTH = 8;
+    private static final int MAX_RECORD_LENGTH = 1024 * 1024;
+
+    private final Plugin plugin;
+    private final Path directory;
+    private final JournalSettings settings;
+    private final JournalState state;
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private Thread thread;
+    private volatile boolean accepting = true;
+
+    private FileChannel segment;
+    private long segmentNumber;
+    private long segmentBytes;
+    private long bytesSinceCheckpoint;
+    private long lastCheckpointMillis;
+
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile int maxBatch;
+    private volatile long lastCommitNanos;
+    private volatile long maxCommitNanos;
+    private volatile int segmentCount;
+
+    private Journal(Plugin plugin, Path directory, JournalSettings settings, JournalState state) {
+        this.plugin = plugin;
+        this.directory = directory;
+        this.settings = settings;
+        this.state = state;
+    }
+
+    /**
+     * Recovers {@code state} from the files in {@code directory} and starts the writer.
+     */
+    public static Journal open(Plugin plugin, Path directory, JournalSettings settings, JournalState state) throws IOException {
+        Journal journal = new Journal(plugin, directory, settings, state);
+        journal.recover();
+        journal.thread = Thread.ofPlatform().name("referra-journal-writer").daemon(true).start(journal::runLoop);
+        return journal;
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path temp : files.filter(file -> file.getFileName().toString().endsWith(".tmp")).toList()) {
+                Files.delete(temp);
+            }
+        }
+
+        List<Long> checkpoints = numbered(CHECKPOINT);
+        long checkpoint = checkpoints.isEmpty() ? 0 : checkpoints.get(checkpoints.size() - 1);
+        if (!checkpoints.isEmpty()) {
+            Path file = checkpointPath(checkpoint);
+            try (InputStream in = Files.newInputStream(file)) {
+                if (replay(new DataInputStream(new BufferedInputStream(in, 1 << 16)), true) >= 0) {
+                    throw new IOException("Journal checkpoint " + file.getFileName() + " is incomplete or damaged");
+                }
+            }
+        }
+
+        List<Long> segments = numbered(SEGMENT);
+        // Appends continue in the newest segment
+        long nextSegment = checkpoint;
+        for (int i = 0; i < segments.size(); i++) {
+            long number = segments.get(i);
+            Path file = segmentPath(number);
+            if (number < checkpoint) {
+                // Left behind by a cleanup that was interrupted, the checkpoint already covers it
+                Files.delete(file);
+                continue;
+            }
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long damagedAt = replay(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16)), false);
+                if (damagedAt >= 0) {
+                    if (i != segments.size() - 1) {
+                        throw new IOException("Journal segment " + file.getFileName() + " is damaged at byte " + damagedAt);
+                    }
+                    plugin.getLogger().warning("Cutting off " + (channel.size() - damagedAt) + " bytes of an unfinished write at the end of "
+                            + file.getFileName());
+                    channel.truncate(damagedAt);
+                    channel.force(true);
+                }
+                bytesSinceCheckpoint += channel.size();
+            }
+            nextSegment = number;
+        }
+
+        openSegment(nextSegment);
+        lastCheckpointMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Applies every record in the stream to the state.
+     *
+     * @return the offset of the first damaged record, or -1 if the stream ended cleanly (or, for a checkpoint, with
+     * its end marker)
+     */
+    private long replay(DataInputStream in, boolean checkpoint) throws IOException {
+        long offset = 0;
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                // A checkpoint always ends with its marker, so running out of bytes means it was cut short
+                return checkpoint ? offset : -1;
+            }
+
+            try {
+                int checksum = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    return offset;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                CRC32C crc = new CRC32C();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    return offset;
+                }
+
+                if (payload[0] == JournalEvent.END_MARKER) {
+                    return checkpoint ? -1 : offset;
+                }
+                state.apply(JournalEvent.decode(payload));
+            } catch (IOException e) {
+                return offset;
+            }
+            offset += HEADER_LENGTH + length;
+        }
+    }
+
+    /**
+     * Queues a write. The returned future completes once its events are on disk and applied to the state.
+     */
+    public synchronized CompletableFuture<Void> submit(String description, Work work) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (!accepting) {
+            result.completeExceptionally(new IllegalStateException("Journal is closed"));
+            return result;
+        }
+        queue.add(new Write(description, work, result));
+        return result;
+    }
+
+    private void runLoop() {
+        List<Write> batch = new ArrayList<>(settings.writeBatchSize());
+        while (accepting || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    fillBatch(batch);
+                }
+            } catch (InterruptedException e) {
+                // Nothing interrupts the writer, and keeping the flag would close the segment channel on the next write
+            }
+
+            if (!batch.isEmpty()) {
+                append(batch);
+                batch.clear();
+            }
+            if (bytesSinceCheckpoint >= settings.checkpointBytes() || (bytesSinceCheckpoint > 0
+                    && System.currentTimeMillis() - lastCheckpointMillis >= settings.checkpointIntervalMillis())) {
+                checkpoint();
+            }
+        }
+
+        if (bytesSinceCheckpoint > 0) {
+            checkpoint();
+        }
+        closeSegment();
+    }
+
+    private void fillBatch(List<Write> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.writeBatchDelayMillis());
+        while (batch.size() < settings.writeBatchSize()) {
+            Write next = queue.poll();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !accepting) {
+                    return;
+                }
+                next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    return;
+                }
+            }
+            batch.add(next);
+        }
+    }
+
+    private void append(List<Write> batch) {
+        long start = System.nanoTime();
+        List<Encoded> encoded = new ArrayList<>(batch.size());
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (Write write : batch) {
+            try {
+                List<JournalEvent> events = new ArrayList<>();
+                write.work().run(events::add);
+                List<byte[]> records = new ArrayList<>(events.size());
+                for (JournalEvent event : events) {
+                    byte[] record = frame(JournalEvent.encode(event));
+                    records.add(record);
+                    buffers.add(ByteBuffer.wrap(record));
+                }
+                encoded.add(new Encoded(write, events, records));
+            } catch (RuntimeException e) {
+                fail(write, e);
+            }
+        }
+
+        long position = segmentBytes;
+        try {
+            ByteBuffer[] pending = buffers.toArray(ByteBuffer[]::new);
+            long remaining = 0;
+            for (ByteBuffer buffer : pending) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= segment.write(pending);
+            }
+            segment.force(false);
+            segmentBytes = segment.position();
+        } catch (IOException e) {
+            truncateTo(position);
+            encoded.forEach(entry -> fail(entry.write(), e));
+            return;
+        }
+
+        long written = segmentBytes - position;
+        bytesSinceCheckpoint += written;
+        for (Encoded entry : encoded) {
+            entry.events().forEach(state::apply);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        lastCommitNanos = elapsed;
+        maxCommitNanos = Math.max(maxCommitNanos, elapsed);
+        maxBatch = Math.max(maxBatch, batch.size());
+        batchCount.incrementAndGet();
+        writeCount.addAndGet(batch.size());
+        encoded.forEach(entry -> entry.write().result().complete(null));
+
+        if (segmentBytes >= settings.segmentSizeBytes()) {
+            try {
+                closeSegment();
+                openSegment(segmentNumber + 1);
+            } catch (IOException e) {
+                plugin.getLogger().severe("Failed to start a new journal segment: " + e.getMessage());
+            }
+        }
+    }
+
+    private void truncateTo(long position) {
+        // Drop a partly written batch so later appends do not follow a damaged record
+        try {
+            segment.truncate(position);
+            segment.position(position);
+            segmentBytes = position;
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to undo a partial journal write: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a new segment and writes the whole state as the checkpoint for it, then deletes everything older.
+     */
+    private void checkpoint() {
+        long start = System.nanoTime();
+        try {
+            closeSegment();
+            openSegment(segmentNumber + 1);
+
+            Path temp = directory.resolve(checkpointPath(segmentNumber).getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+                IOException[] failure = new IOException[1];
+                state.forEachEvent(event -> {
+                    if (failure[0] == null) {
+                        try {
+                            out.write(frame(JournalEvent.encode(event)));
+                        } catch (IOException e) {
+                            failure[0] = e;
+                        }
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+                out.write(frame(new byte[] {JournalEvent.END_MARKER}));
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, checkpointPath(segmentNumber), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory();
+
+            for (long number : numbered(SEGMENT)) {
+                if (number < segmentNumber) {
+                    Files.delete(segmentPath(number));
+                }
+            }
+            for (long number : numbered(CHECKPOINT)) {
+                if (number < segmentNumber) {
+                    Files.delete(checkpointPath(number));
+                }
+            }
+            segmentCount = numbered(SEGMENT).size();
+            bytesSinceCheckpoint = 0;
+            plugin.getLogger().info("Wrote journal checkpoint " + segmentNumber + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to write journal checkpoint, keeping the existing segments: " + e.getMessage());
+        }
+        lastCheckpointMillis = System.currentTimeMillis();
+    }
+
+    private void openSegment(long number) throws IOException {
+        segment = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        segmentNumber = number;
+        segmentBytes = segment.size();
+        segment.position(segmentBytes);
+        segmentCount = numbered(SEGMENT).size();
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.force(true);
+            segment.close();
+        } catch (IOException e) {
+            plugin.getLogger().warning("Error closing journal segment: " + e.getMessage());
+        }
+        segment = null;
+    }
+
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform can sync a directory, the rename itself is still atomic
+        }
+    }
+
+    private static byte[] frame(byte[] payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        return ByteBuffer.allocate(HEADER_LENGTH + payload.length)
+                .putInt(payload.length)
+                .putInt((int) crc.getValue())
+                .put(payload)
+                .array();
+    }
+
+    private List<Long> numbered(Pattern pattern) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> pattern.matcher(file.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .map(matcher -> Long.parseLong(matcher.group(1)))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("segment-%020d.log", number));
+    }
+
+    private Path checkpointPath(long number) {
+        return directory.resolve(String.format("checkpoint-%020d.bin", number));
+    }
+
+    private void fail(Write write, Exception e) {
+        failedCount.incrementAndGet();
+        plugin.getLogger().severe("Error " + write.description() + " in the journal: " + e.getMessage());
+        write.result().completeExceptionally(new RuntimeException(e));
+    }
+
+    /**
+     * Stops accepting writes, waits for the queued ones and writes a final checkpoint.
+     *
+     * @return true if everything finished within the timeout
+     */
+    public boolean close(long timeout, TimeUnit unit) {
+        synchronized (this) {
+            accepting = false;
+        }
+        // No interrupt, it would close the segment channel in the middle of a write
+        try {
+            thread.join(unit.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !thread.isAlive();
+    }
+
+    @Override
+    public void close() {
+        close(30, TimeUnit.SECONDS);
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatch;
+    }
+
+    public double getAverageBatchSize() {
+        long batches = batchCount.get();
+        return batches == 0 ? 0.0 : (double) writeCount.get() / batches;
+    }
+
+    public double getLastCommitMillis() {
+        return lastCommitNanos / 1_000_000.0;
+    }
+
+    public double getMaxCommitMillis() {
+        return maxCommitNanos / 1_000_000.0;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+}
@@ -0,0 +1,164 @@
+package me.itzrenzo.referra.database.impl;
+
+import me.itzrenzo.referra.data.IpSighting;
+import me.itzrenzo.referra.data.PlayerRecord;
+import me.itzrenzo.referra.data.PlayerReferralData;
+import me.itzrenzo.referra.data.PlayerSaveBatch;
+import me.itzrenzo.referra.database.DataLoadSink;
+import me.itzrenzo.referra.database.DatabaseManager;
+import me.itzrenzo.referra.util.BoundedExecutor;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps every table in memory and records each change in an append-only {@link Journal}, so writes are sequential
+ * appends with one fsync per batch and startup replays a checkpoint plus the segments written after it.
+ */
+public class JournalDatabaseManager implements DatabaseManager {
+    private final Plugin plugin;
+    private final String directory;
+    private final JournalSettings settings;
+    private final BoundedExecutor executor;
+    private final JournalState state = new JournalState();
+    private Journal journal;
+
+    public JournalDatabaseManager(Plugin plugin, String directory, JournalSettings settings, BoundedExecutor executor) {
+        this.plugin = plugin;
+        this.directory = directory;
+        this.settings = settings;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Void> initialize() {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                long start = System.nanoTime();
+                journal = Journal.open(plugin, new File(plugin.getDataFolder(), directory).toPath(), settings, state);
+                if (state.getGeneration() == 0) {
+                    // Same starting point as the SQL backends, so snapshots from another database are never mistaken for this one
+                    long initial = ThreadLocalRandom.current().nextLong() >>> 2;
+                    journal.submit("creating the database generation", events -> events.accept(new JournalEvent.Generation(initial))).join();
+                }
+                plugin.getLogger().info("Journal database initialized successfully: " + directory + " (" + state.getPlayers().size()
+                        + " players, " + state.getReferralCount() + " referrals replayed in " + (System.nanoTime() - start) / 1_000_000 + " ms)");
+            } catch (IOException e) {
+                plugin.getLogger().severe("Failed to initialize journal database: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public void close() {
+        if (!executor.shutdown(30, TimeUnit.SECONDS)) {
+            plugin.getLogger().warning("Timed out waiting for journal operations to finish");
+        }
+        if (journal != null && !journal.close(30, TimeUnit.SECONDS)) {
+            plugin.getLogger().warning("Timed out waiting for queued journal writes to finish");
+        }
+    }
+
+    @Override
+    public CompletableFuture<Long> advanceGeneration() {
+        long[] generation = new long[1];
+        return journal.submit("advancing the database generation", events -> {
+            generation[0] = state.getGeneration() + 1;
+            events.accept(new JournalEvent.Generation(generation[0]));
+        }).thenApply(ignored -> generation[0]);
+    }
+
+    @Override
+    public CompletableFuture<Void> loadAll(DataLoadSink sink) {
+        return CompletableFuture.runAsync(() -> state.load(sink), executor);
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, PlayerReferralData>> loadActiveReferrers() {
+        return CompletableFuture.supplyAsync(state::getActiveReferrers, executor);
+    }
+
+    @Override
+    public CompletableFuture<PlayerRecord> loadPlayer(UUID playerId) {
+        return CompletableFuture.supplyAsync(() -> state.getPlayerRecord(playerId), executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> savePlayerData(PlayerReferralData data) {
+        PlayerSaveBatch batch = new PlayerSaveBatch();
+        return journal.submit("saving player data",
+                events -> batch.write(data, (player, saveProfile) -> JournalEvent.forPlayerData(player, saveProfile, events)))
+                .thenRun(batch::markClean);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAllPlayerData(Map<UUID, PlayerReferralData> playerData) {
+        PlayerSaveBatch batch = new PlayerSaveBatch();
+        return journal.submit("saving all player data", events -> batch.writeChanged(playerData.values(),
+                (player, saveProfile) -> JournalEvent.forPlayerData(player, saveProfile, events)))
+                .thenRun(batch::markClean);
+    }
+
+    @Override
+    public CompletableFuture<Void> insertPending(UUID referrerId, UUID referredId, long timestamp) {
+        return journal.submit("saving pending referral", events -> events.accept(new JournalEvent.PendingAdded(referrerId, referredId, timestamp)));
+    }
+
+    @Override
+    public CompletableFuture<Void> promotePendingToConfirmed(UUID referrerId, UUID referredId) {
+        return journal.submit("confirming referral", events -> events.accept(new JournalEvent.Confirmed(referrerId, referredId)));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteReferral(UUID referrerId, UUID referredId) {
+        return journal.submit("deleting referral", events -> events.accept(new JournalEvent.ReferralDeleted(referrerId, referredId)));
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, UUID>> loadReferralMappings() {
+        return CompletableFuture.supplyAsync(state::getReferralMappings, executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveFirstJoinTime(UUID playerId, long timestamp) {
+        return journal.submit("saving first join time", events -> events.accept(new JournalEvent.FirstJoin(playerId, timestamp)));
+    }
+
+    @Override
+    public CompletableFuture<Void> savePlayerIP(UUID playerId, String ipAddress) {
+        return journal.submit("saving player IP", events -> events.accept(new JournalEvent.PlayerIp(playerId, ipAddress)));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveIpSighting(UUID playerId, byte[] address, long timestamp) {
+        byte[] copy = address.clone();
+        return journal.submit("saving IP history", events -> events.accept(new JournalEvent.IpSeen(playerId, copy, timestamp)));
+    }
+
+    @Override
+    public CompletableFuture<List<IpSighting>> loadIpHistory(long since) {
+        return CompletableFuture.supplyAsync(() -> state.getIpHistory(since), executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> pruneIpHistory(long before) {
+        return journal.submit("pruning IP history", events -> events.accept(new JournalEvent.IpHistoryPruned(before)));
+    }
+
+    @Override
+    public String getDatabaseType() {
+        return "JOURNAL";
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+}
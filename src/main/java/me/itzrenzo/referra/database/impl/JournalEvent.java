@@ -0,0 +1,176 @@
+package me.itzrenzo.referra.database.impl;
+
+import me.itzrenzo.referra.data.PlayerReferralData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * One change recorded in the journal. Each event has the same effect as the SQL statements the other backends run for
+ * the same operation, so replaying a log gives the tables the SQL backends would hold. Claims and resets are profile
+ * events plus referral deletions, exactly as they are saved to SQL.
+ */
+public sealed interface JournalEvent {
+
+    /** Inserts or replaces a player's name and flags, keeping their first join time and IP address */
+    record Profile(UUID playerId, String name, boolean referralEnabled, boolean claimedReward) implements JournalEvent {
+    }
+
+    /** Inserts a pending referral or updates its timestamp */
+    record PendingAdded(UUID referrerId, UUID referredId, long timestamp) implements JournalEvent {
+    }
+
+    /** Removes the pending referral, if any, and records the confirmed one */
+    record Confirmed(UUID referrerId, UUID referredId) implements JournalEvent {
+    }
+
+    /** Removes the referral whether it is pending or confirmed */
+    record ReferralDeleted(UUID referrerId, UUID referredId) implements JournalEvent {
+    }
+
+    record FirstJoin(UUID playerId, long timestamp) implements JournalEvent {
+    }
+
+    record PlayerIp(UUID playerId, String ipAddress) implements JournalEvent {
+    }
+
+    /** Records a raw address for the IP history, keeping the latest time it was seen */
+    record IpSeen(UUID playerId, byte[] address, long timestamp) implements JournalEvent {
+    }
+
+    /** Deletes IP history entries last seen before the given time */
+    record IpHistoryPruned(long before) implements JournalEvent {
+    }
+
+    record Generation(long generation) implements JournalEvent {
+    }
+
+    /** Type byte that {@link Journal} uses to mark the end of a checkpoint; no event uses it */
+    byte END_MARKER = 0;
+
+    /**
+     * Emits the events that save a player's changed referrals, and their profile if {@code saveProfile} is set,
+     * matching what the SQL backends write for the same save.
+     */
+    static void forPlayerData(PlayerReferralData data, boolean saveProfile, Consumer<JournalEvent> events) {
+        if (saveProfile) {
+            events.accept(new Profile(data.getPlayerId(), data.getPlayerName(), data.isReferralEnabled(), data.hasClaimedReward()));
+        }
+
+        for (UUID referredId : data.getChangedReferrals()) {
+            if (data.getConfirmedReferrals().contains(referredId)) {
+                events.accept(new Confirmed(data.getPlayerId(), referredId));
+                continue;
+            }
+
+            Long timestamp = data.getPendingReferrals().get(referredId);
+            if (timestamp != null) {
+                events.accept(new PendingAdded(data.getPlayerId(), referredId, timestamp));
+            } else {
+                events.accept(new ReferralDeleted(data.getPlayerId(), referredId));
+            }
+        }
+    }
+
+    static byte[] encode(JournalEvent event) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            switch (event) {
+                case Profile e -> {
+                    out.writeByte(1);
+                    writeUuid(out, e.playerId());
+                    out.writeUTF(e.name());
+                    out.writeBoolean(e.referralEnabled());
+                    out.writeBoolean(e.claimedReward());
+                }
+                case PendingAdded e -> {
+                    out.writeByte(2);
+                    writeUuid(out, e.referrerId());
+                    writeUuid(out, e.referredId());
+                    out.writeLong(e.timestamp());
+                }
+                case Confirmed e -> {
+                    out.writeByte(3);
+                    writeUuid(out, e.referrerId());
+                    writeUuid(out, e.referredId());
+                }
+                case ReferralDeleted e -> {
+                    out.writeByte(4);
+                    writeUuid(out, e.referrerId());
+                    writeUuid(out, e.referredId());
+                }
+                case FirstJoin e -> {
+                    out.writeByte(5);
+                    writeUuid(out, e.playerId());
+                    out.writeLong(e.timestamp());
+                }
+                case PlayerIp e -> {
+                    out.writeByte(6);
+                    writeUuid(out, e.playerId());
+                    out.writeUTF(e.ipAddress());
+                }
+                case IpSeen e -> {
+                    out.writeByte(7);
+                    writeUuid(out, e.playerId());
+                    out.writeByte(e.address().length);
+                    out.write(e.address());
+                    out.writeLong(e.timestamp());
+                }
+                case IpHistoryPruned e -> {
+                    out.writeByte(8);
+                    out.writeLong(e.before());
+                }
+                case Generation e -> {
+                    out.writeByte(9);
+                    out.writeLong(e.generation());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to memory cannot fail", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IOException if the payload is not a complete event
+     */
+    static JournalEvent decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        JournalEvent event = switch (in.readByte()) {
+            case 1 -> new Profile(readUuid(in), in.readUTF(), in.readBoolean(), in.readBoolean());
+            case 2 -> new PendingAdded(readUuid(in), readUuid(in), in.readLong());
+            case 3 -> new Confirmed(readUuid(in), readUuid(in));
+            case 4 -> new ReferralDeleted(readUuid(in), readUuid(in));
+            case 5 -> new FirstJoin(readUuid(in), in.readLong());
+            case 6 -> new PlayerIp(readUuid(in), in.readUTF());
+            case 7 -> {
+                UUID playerId = readUuid(in);
+                byte[] address = new byte[in.readUnsignedByte()];
+                in.readFully(address);
+                yield new IpSeen(playerId, address, in.readLong());
+            }
+            case 8 -> new IpHistoryPruned(in.readLong());
+            case 9 -> new Generation(in.readLong());
+            default -> throw new IOException("Unknown journal event type " + payload[0]);
+        };
+        if (in.available() > 0) {
+            throw new IOException("Journal event has " + in.available() + " trailing bytes");
+        }
+        return event;
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+}
@@ -0,0 +1,24 @@
+package me.itzrenzo.referra.database.impl;
+
+/**
+ * Settings for the journal backend.
+ *
+ * @param segmentSizeBytes         size after which the writer starts a new segment file
+ * @param checkpointBytes          bytes appended since the last checkpoint that trigger a new one
+ * @param checkpointIntervalMillis longest time between checkpoints while anything was appended
+ * @param writeBatchSize           most queued writes appended together before one fsync
+ * @param writeBatchDelayMillis    how long the writer waits for more writes before appending a batch that is not full
+ */
+public record JournalSettings(long segmentSizeBytes, long checkpointBytes, long checkpointIntervalMillis,
+                              int writeBatchSize, long writeBatchDelayMillis) {
+    public static final JournalSettings DEFAULTS = new JournalSettings(64L * 1024 * 1024, 256L * 1024 * 1024,
+            10L * 60 * 1000, 256, 2);
+
+    public JournalSettings {
+        segmentSizeBytes = Math.max(1024 * 1024, segmentSizeBytes);
+        checkpointBytes = Math.max(segmentSizeBytes, checkpointBytes);
+        checkpointIntervalMillis = Math.max(1000, checkpointIntervalMillis);
+        writeBatchSize = Math.max(1, writeBatchSize);
+        writeBatchDelayMillis = Math.max(0, writeBatchDelayMillis);
+    }
+}
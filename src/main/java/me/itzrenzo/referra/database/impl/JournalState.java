@@ -0,0 +1,222 @@
+package me.itzrenzo.referra.database.impl;
+
+import me.itzrenzo.referra.data.IpSighting;
+import me.itzrenzo.referra.data.PlayerRecord;
+import me.itzrenzo.referra.data.PlayerReferralData;
+import me.itzrenzo.referra.database.DataLoadSink;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * The tables of the journal and in-memory backends, kept up to date by applying events. Events are applied by one
+ * thread at a time, while queries may read from any thread.
+ */
+public class JournalState {
+    public record PlayerRow(String name, boolean referralEnabled, boolean claimedReward, Long firstJoinTime, String ipAddress) {
+        private static final PlayerRow UNKNOWN = new PlayerRow("Unknown", false, false, null, null);
+    }
+
+    private record IpKey(UUID playerId, ByteBuffer address) {
+    }
+
+    private final Map<UUID, PlayerRow> players = new ConcurrentHashMap<>();
+    private final Map<UUID, Set<UUID>> confirmed = new ConcurrentHashMap<>();
+    private final Map<UUID, Map<UUID, Long>> pending = new ConcurrentHashMap<>();
+    // Referred player to referrer, for looking up who referred a single player
+    private final Map<UUID, UUID> confirmedReferrers = new ConcurrentHashMap<>();
+    private final Map<UUID, UUID> pendingReferrers = new ConcurrentHashMap<>();
+    private final Map<IpKey, Long> ipHistory = new ConcurrentHashMap<>();
+    private volatile long generation;
+
+    void apply(JournalEvent event) {
+        switch (event) {
+            case JournalEvent.Profile e -> players.merge(e.playerId(),
+                    new PlayerRow(e.name(), e.referralEnabled(), e.claimedReward(), null, null),
+                    (row, profile) -> new PlayerRow(e.name(), e.referralEnabled(), e.claimedReward(), row.firstJoinTime(), row.ipAddress()));
+            case JournalEvent.PendingAdded e -> {
+                pending.computeIfAbsent(e.referrerId(), ignored -> new ConcurrentHashMap<>()).put(e.referredId(), e.timestamp());
+                pendingReferrers.put(e.referredId(), e.referrerId());
+            }
+            case JournalEvent.Confirmed e -> {
+                removePending(e.referrerId(), e.referredId());
+                confirmed.computeIfAbsent(e.referrerId(), ignored -> ConcurrentHashMap.newKeySet()).add(e.referredId());
+                confirmedReferrers.put(e.referredId(), e.referrerId());
+            }
+            case JournalEvent.ReferralDeleted e -> {
+                removePending(e.referrerId(), e.referredId());
+                confirmed.computeIfPresent(e.referrerId(), (referrerId, referred) -> {
+                    referred.remove(e.referredId());
+                    return referred.isEmpty() ? null : referred;
+                });
+                confirmedReferrers.remove(e.referredId(), e.referrerId());
+            }
+            case JournalEvent.FirstJoin e -> players.compute(e.playerId(), (playerId, row) -> {
+                PlayerRow current = row == null ? PlayerRow.UNKNOWN : row;
+                return new PlayerRow(current.name(), current.referralEnabled(), current.claimedReward(), e.timestamp(), current.ipAddress());
+            });
+            case JournalEvent.PlayerIp e -> players.compute(e.playerId(), (playerId, row) -> {
+                PlayerRow current = row == null ? PlayerRow.UNKNOWN : row;
+                return new PlayerRow(current.name(), current.referralEnabled(), current.claimedReward(), current.firstJoinTime(), e.ipAddress());
+            });
+            case JournalEvent.IpSeen e -> ipHistory.merge(new IpKey(e.playerId(), ByteBuffer.wrap(e.address().clone())), e.timestamp(), Math::max);
+            case JournalEvent.IpHistoryPruned e -> ipHistory.values().removeIf(lastSeen -> lastSeen < e.before());
+            case JournalEvent.Generation e -> generation = e.generation();
+        }
+    }
+
+    private void removePending(UUID referrerId, UUID referredId) {
+        pending.computeIfPresent(referrerId, (ignored, referred) -> {
+            referred.remove(referredId);
+            return referred.isEmpty() ? null : referred;
+        });
+        pendingReferrers.remove(referredId, referrerId);
+    }
+
+    /**
+     * Emits the fewest events that rebuild the current tables, which is what a checkpoint holds.
+     */
+    void forEachEvent(Consumer<JournalEvent> events) {
+        events.accept(new JournalEvent.Generation(generation));
+        players.forEach((playerId, row) -> {
+            events.accept(new JournalEvent.Profile(playerId, row.name(), row.referralEnabled(), row.claimedReward()));
+            if (row.firstJoinTime() != null) {
+                events.accept(new JournalEvent.FirstJoin(playerId, row.firstJoinTime()));
+            }
+            if (row.ipAddress() != null) {
+                events.accept(new JournalEvent.PlayerIp(playerId, row.ipAddress()));
+            }
+        });
+        // Confirmed before pending, since confirming removes a pending row for the same pair
+        confirmed.forEach((referrerId, referred) -> referred.forEach(referredId ->
+                events.accept(new JournalEvent.Confirmed(referrerId, referredId))));
+        pending.forEach((referrerId, referred) -> referred.forEach((referredId, timestamp) ->
+                events.accept(new JournalEvent.PendingAdded(referrerId, referredId, timestamp))));
+        ipHistory.forEach((key, lastSeen) -> {
+            byte[] address = new byte[key.address().remaining()];
+            key.address().duplicate().get(address);
+            events.accept(new JournalEvent.IpSeen(key.playerId(), address, lastSeen));
+        });
+    }
+
+    /**
+     * Streams every player and referral into the sink, the way the SQL backends stream their tables.
+     */
+    public void load(DataLoadSink sink) {
+        sink.expect(players.size(), getReferralCount());
+        players.forEach((playerId, row) -> sink.player(playerId, row.name(), row.referralEnabled(), row.claimedReward(),
+                row.firstJoinTime(), row.ipAddress()));
+        confirmed.forEach((referrerId, referred) -> referred.forEach(referredId -> sink.confirmedReferral(referrerId, referredId)));
+        pending.forEach((referrerId, referred) -> referred.forEach((referredId, timestamp) -> sink.pendingReferral(referrerId, referredId, timestamp)));
+    }
+
+    public Map<UUID, PlayerReferralData> getActiveReferrers() {
+        Map<UUID, PlayerReferralData> playerData = new HashMap<>();
+        // Referrers without a player row map to null and are skipped, like the join in the SQL backends
+        confirmed.keySet().forEach(referrerId -> playerData.computeIfAbsent(referrerId, this::getReferralData));
+        pending.keySet().forEach(referrerId -> playerData.computeIfAbsent(referrerId, this::getReferralData));
+        return playerData;
+    }
+
+    public PlayerRecord getPlayerRecord(UUID playerId) {
+        PlayerRow row = players.get(playerId);
+        return new PlayerRecord(getReferralData(playerId), getReferrer(playerId),
+                row == null ? null : row.firstJoinTime(), row == null ? null : row.ipAddress());
+    }
+
+    /**
+     * Builds a clean copy of a player's referral data, or returns null if the player has no row.
+     */
+    private PlayerReferralData getReferralData(UUID playerId) {
+        PlayerRow row = players.get(playerId);
+        if (row == null) {
+            return null;
+        }
+
+        PlayerReferralData data = new PlayerReferralData(playerId, row.name());
+        data.setReferralEnabled(row.referralEnabled());
+        data.setClaimedReward(row.claimedReward());
+        Set<UUID> referred = confirmed.get(playerId);
+        if (referred != null) {
+            referred.forEach(data::addReferral);
+        }
+        Map<UUID, Long> pendingReferred = pending.get(playerId);
+        if (pendingReferred != null) {
+            pendingReferred.forEach(data::addPendingReferral);
+        }
+        data.markClean();
+        return data;
+    }
+
+    /**
+     * Referred player to referrer, with pending referrals taking precedence like the SQL backends.
+     */
+    public Map<UUID, UUID> getReferralMappings() {
+        Map<UUID, UUID> mappings = new HashMap<>();
+        confirmed.forEach((referrerId, referred) -> referred.forEach(referredId -> mappings.put(referredId, referrerId)));
+        pending.forEach((referrerId, referred) -> referred.keySet().forEach(referredId -> mappings.put(referredId, referrerId)));
+        return mappings;
+    }
+
+    public List<IpSighting> getIpHistory(long since) {
+        List<IpSighting> history = new ArrayList<>();
+        forEachIpSighting((playerId, address, lastSeen) -> {
+            if (lastSeen >= since) {
+                history.add(new IpSighting(playerId, address, lastSeen));
+            }
+        });
+        return history;
+    }
+
+    public Map<UUID, PlayerRow> getPlayers() {
+        return players;
+    }
+
+    public Map<UUID, Set<UUID>> getConfirmed() {
+        return confirmed;
+    }
+
+    public Map<UUID, Map<UUID, Long>> getPending() {
+        return pending;
+    }
+
+    public UUID getReferrer(UUID referredId) {
+        UUID referrer = confirmedReferrers.get(referredId);
+        return referrer != null ? referrer : pendingReferrers.get(referredId);
+    }
+
+    public void forEachIpSighting(IpSightingConsumer consumer) {
+        ipHistory.forEach((key, lastSeen) -> {
+            byte[] address = new byte[key.address().remaining()];
+            key.address().duplicate().get(address);
+            consumer.accept(key.playerId(), address, lastSeen);
+        });
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public int getReferralCount() {
+        int count = 0;
+        for (Set<UUID> referred : confirmed.values()) {
+            count += referred.size();
+        }
+        for (Map<UUID, Long> referred : pending.values()) {
+            count += referred.size();
+        }
+        return count;
+    }
+
+    @FunctionalInterface
+    public interface IpSightingConsumer {
+        void accept(UUID playerId, byte[] address, long lastSeen);
+    }
+}
@@ -0,0 +1,139 @@
+package me.itzrenzo.referra.database.impl;
+
+import me.itzrenzo.referra.data.PlayerReferralData;
+import me.itzrenzo.referra.util.UuidBytes;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * Writes the changes of many players through one prepared statement per kind of row, sending rows to the server in
+ * JDBC batches of at most {@code batchSize}. With {@code rewriteBatchedStatements} the driver turns each insert batch
+ * into a single multi-row {@code INSERT ... ON DUPLICATE KEY UPDATE}.
+ * <p>
+ * Each referral row is touched at most once per save, so the batches can run in any order except that players must
+ * exist before referral rows pointing at them are inserted.
+ */
+public class MysqlBatchSaver implements AutoCloseable {
+    private final Batch profiles;
+    private final Batch confirmedDeletes;
+    private final Batch pendingDeletes;
+    private final Batch pendingUpserts;
+    private final Batch confirmedInserts;
+
+    public MysqlBatchSaver(Connection conn, int batchSize) throws SQLException {
+        profiles = new Batch(conn, batchSize, null,
+                "INSERT INTO players (uuid, name, referral_enabled, claimed_payout) VALUES (?, ?, ?, ?) " +
+                        "ON DUPLICATE KEY UPDATE name = VALUES(name), referral_enabled = VALUES(referral_enabled), claimed_payout = VALUES(claimed_payout)");
+        confirmedDeletes = new Batch(conn, batchSize, null,
+                "DELETE FROM confirmed_referrals WHERE referrer_uuid = ? AND referred_uuid = ?");
+        pendingDeletes = new Batch(conn, batchSize, null,
+                "DELETE FROM pending_referrals WHERE referrer_uuid = ? AND referred_uuid = ?");
+        pendingUpserts = new Batch(conn, batchSize, profiles,
+                "INSERT INTO pending_referrals (referrer_uuid, referred_uuid, timestamp) VALUES (?, ?, ?) " +
+                        "ON DUPLICATE KEY UPDATE timestamp = VALUES(timestamp)");
+        confirmedInserts = new Batch(conn, batchSize, profiles,
+                "INSERT IGNORE INTO confirmed_referrals (referrer_uuid, referred_uuid) VALUES (?, ?)");
+    }
+
+    /**
+     * Queues the player's profile if requested, and every referral that changed since their last save.
+     */
+    public void add(PlayerReferralData data, boolean saveProfile) throws SQLException {
+        byte[] playerId = UuidBytes.toBytes(data.getPlayerId());
+        if (saveProfile) {
+            PreparedStatement stmt = profiles.statement;
+            stmt.setBytes(1, playerId);
+            stmt.setString(2, data.getPlayerName());
+            stmt.setBoolean(3, data.isReferralEnabled());
+            stmt.setBoolean(4, data.hasClaimedReward());
+            profiles.add();
+        }
+
+        for (UUID referredId : data.getChangedReferrals()) {
+            byte[] referred = UuidBytes.toBytes(referredId);
+            if (data.getConfirmedReferrals().contains(referredId)) {
+                pendingDeletes.addPair(playerId, referred);
+                confirmedInserts.addPair(playerId, referred);
+                continue;
+            }
+
+            Long timestamp = data.getPendingReferrals().get(referredId);
+            if (timestamp != null) {
+                PreparedStatement stmt = pendingUpserts.statement;
+                stmt.setBytes(1, playerId);
+                stmt.setBytes(2, referred);
+                stmt.setLong(3, timestamp);
+                pendingUpserts.add();
+            } else {
+                confirmedDeletes.addPair(playerId, referred);
+                pendingDeletes.addPair(playerId, referred);
+            }
+        }
+    }
+
+    /**
+     * Sends every row that is still batched.
+     */
+    public void flush() throws SQLException {
+        profiles.execute();
+        confirmedDeletes.execute();
+        pendingDeletes.execute();
+        pendingUpserts.execute();
+        confirmedInserts.execute();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        SQLException failure = null;
+        for (Batch batch : new Batch[] {profiles, confirmedDeletes, pendingDeletes, pendingUpserts, confirmedInserts}) {
+            try {
+                batch.statement.close();
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static final class Batch {
+        private final PreparedStatement statement;
+        private final int batchSize;
+        private final Batch dependsOn;
+        private int rows;
+
+        private Batch(Connection conn, int batchSize, Batch dependsOn, String sql) throws SQLException {
+            this.statement = conn.prepareStatement(sql);
+            this.batchSize = Math.max(1, batchSize);
+            this.dependsOn = dependsOn;
+        }
+
+        private void addPair(byte[] referrerId, byte[] referredId) throws SQLException {
+            statement.setBytes(1, referrerId);
+            statement.setBytes(2, referredId);
+            add();
+        }
+
+        private void add() throws SQLException {
+            statement.addBatch();
+            if (++rows >= batchSize) {
+                execute();
+            }
+        }
+
+        private void execute() throws SQLException {
+            if (rows == 0) {
+                return;
+            }
+            if (dependsOn != null) {
+                dependsOn.execute();
+            }
+            statement.executeBatch();
+            rows = 0;
+        }
+    }
+}
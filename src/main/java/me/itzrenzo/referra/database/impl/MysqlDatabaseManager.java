@@ -2,17 +2,23 @@ package me.itzrenzo.referra.database.impl;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import me.itzrenzo.referra.data.IpSighting;
+import me.itzrenzo.referra.data.PlayerRecord;
 import me.itzrenzo.referra.data.PlayerReferralData;
+import me.itzrenzo.referra.data.PlayerSaveBatch;
+import me.itzrenzo.referra.database.DataLoadSink;
 import me.itzrenzo.referra.database.DatabaseManager;
-import org.bukkit.plugin.java.JavaPlugin;
+import me.itzrenzo.referra.util.BoundedExecutor;
+import me.itzrenzo.referra.util.UuidBytes;
+import org.bukkit.plugin.Plugin;
 
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 public class MysqlDatabaseManager implements DatabaseManager {
-    private final JavaPlugin plugin;
+    private final Plugin plugin;
     private final String host;
     private final int port;
     private final String database;
@@ -20,11 +26,15 @@ public class MysqlDatabaseManager implements DatabaseManager {
     private final String password;
     private final int maxPoolSize;
     private final long connectionTimeout;
+    private final int batchSize;
+    private final int migrationChunkSize;
+    private final BoundedExecutor executor;
     
     private HikariDataSource dataSource;
     
-    public MysqlDatabaseManager(JavaPlugin plugin, String host, int port, String database, 
-                               String username, String password, int maxPoolSize, long connectionTimeout) {
+    public MysqlDatabaseManager(Plugin plugin, String host, int port, String database, 
+                               String username, String password, int maxPoolSize, long connectionTimeout,
+                               int batchSize, int migrationChunkSize, BoundedExecutor executor) {
         this.plugin = plugin;
         this.host = host;
         this.port = port;
@@ -33,6 +43,9 @@ public class MysqlDatabaseManager implements DatabaseManager {
         this.password = password;
         this.maxPoolSize = maxPoolSize;
         this.connectionTimeout = connectionTimeout;
+        this.batchSize = batchSize;
+        this.migrationChunkSize = migrationChunkSize;
+        this.executor = executor;
     }
     
     @Override
@@ -52,22 +65,23 @@ public class MysqlDatabaseManager implements DatabaseManager {
                 config.addDataSourceProperty("cachePrepStmts", "true");
                 config.addDataSourceProperty("prepStmtCacheSize", "250");
                 config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+                // Lets the driver send each bulk save batch as one multi-row INSERT
+                config.addDataSourceProperty("rewriteBatchedStatements", "true");
                 
                 dataSource = new HikariDataSource(config);
                 
-                createTables();
+                new SchemaMigrator(plugin.getLogger(), this::inTransaction, migrations()).migrate();
                 plugin.getLogger().info("MySQL database initialized successfully: " + host + ":" + port + "/" + database);
             } catch (ClassNotFoundException | SQLException e) {
                 plugin.getLogger().severe("Failed to initialize MySQL database: " + e.getMessage());
                 throw new RuntimeException(e);
             }
-        });
+        }, executor);
     }
     
-    private void createTables() throws SQLException {
-        String createPlayersTable = """
-            CREATE TABLE IF NOT EXISTS players (
-                uuid VARCHAR(36) PRIMARY KEY,
+    private static final String PLAYERS_TABLE = """
+            CREATE TABLE IF NOT EXISTS players%1$s (
+                uuid BINARY(16) PRIMARY KEY,
                 name VARCHAR(16) NOT NULL,
                 referral_enabled BOOLEAN DEFAULT FALSE,
                 claimed_payout BOOLEAN DEFAULT FALSE,
@@ -77,184 +91,372 @@ public class MysqlDatabaseManager implements DatabaseManager {
                 updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
             )
         """;
-        
-        String createConfirmedReferralsTable = """
-            CREATE TABLE IF NOT EXISTS confirmed_referrals (
-                referrer_uuid VARCHAR(36),
-                referred_uuid VARCHAR(36),
+    
+    private static final String CONFIRMED_REFERRALS_TABLE = """
+            CREATE TABLE IF NOT EXISTS confirmed_referrals%1$s (
+                referrer_uuid BINARY(16),
+                referred_uuid BINARY(16),
                 confirmed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
                 PRIMARY KEY (referrer_uuid, referred_uuid),
-                FOREIGN KEY (referrer_uuid) REFERENCES players(uuid) ON DELETE CASCADE,
+                FOREIGN KEY (referrer_uuid) REFERENCES players%1$s(uuid) ON DELETE CASCADE,
                 INDEX idx_referrer (referrer_uuid),
                 INDEX idx_referred (referred_uuid)
             )
         """;
-        
-        String createPendingReferralsTable = """
-            CREATE TABLE IF NOT EXISTS pending_referrals (
-                referrer_uuid VARCHAR(36),
-                referred_uuid VARCHAR(36),
+    
+    private static final String PENDING_REFERRALS_TABLE = """
+            CREATE TABLE IF NOT EXISTS pending_referrals%1$s (
+                referrer_uuid BINARY(16),
+                referred_uuid BINARY(16),
                 timestamp BIGINT,
                 created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
                 PRIMARY KEY (referrer_uuid, referred_uuid),
-                FOREIGN KEY (referrer_uuid) REFERENCES players(uuid) ON DELETE CASCADE,
+                FOREIGN KEY (referrer_uuid) REFERENCES players%1$s(uuid) ON DELETE CASCADE,
                 INDEX idx_referrer (referrer_uuid),
                 INDEX idx_referred (referred_uuid)
             )
         """;
-        
-        try (Connection conn = dataSource.getConnection();
-             Statement stmt = conn.createStatement()) {
-            stmt.execute(createPlayersTable);
-            stmt.execute(createConfirmedReferralsTable);
-            stmt.execute(createPendingReferralsTable);
-            stmt.execute("ALTER TABLE players ADD COLUMN claimed_payout BOOLEAN DEFAULT FALSE");
-        } catch (SQLException e) {
-            String message = e.getMessage() == null ? "" : e.getMessage().toLowerCase(Locale.ROOT);
-            if (!message.contains("duplicate column")) {
-                throw e;
+    
+    private static final String IP_HISTORY_TABLE = """
+            CREATE TABLE IF NOT EXISTS ip_history%1$s (
+                uuid BINARY(16) NOT NULL,
+                ip_address VARBINARY(16) NOT NULL,
+                first_seen BIGINT NOT NULL,
+                last_seen BIGINT NOT NULL,
+                PRIMARY KEY (uuid, ip_address),
+                INDEX idx_ip_address (ip_address),
+                INDEX idx_last_seen (last_seen)
+            )
+        """;
+    
+    private List<SchemaMigrator.Migration> migrations() {
+        return List.of(
+                SchemaMigrator.migration(1, "Add players.claimed_payout", this::addClaimedPayoutColumn),
+                new SchemaMigrator.Migration(2, "Store UUIDs as binary", this::migrateToBinaryUuids),
+                SchemaMigrator.migration(3, "Create tables", this::createTables),
+                SchemaMigrator.migration(4, "Index player names, IP addresses and first joins", this::createLookupIndexes),
+                SchemaMigrator.migration(5, "Track the database generation", conn -> DatabaseGeneration.createTable(conn, "INSERT IGNORE")));
+    }
+    
+    private void inTransaction(String description, SqlWork work) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            work.run(conn);
+            conn.commit();
+        }
+    }
+    
+    private void addClaimedPayoutColumn(Connection conn) throws SQLException {
+        if (SchemaMigrator.tableExists(conn, "players") && !SchemaMigrator.columnExists(conn, "players", "claimed_payout")) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE players ADD COLUMN claimed_payout BOOLEAN DEFAULT FALSE");
+            }
+        }
+    }
+    
+    private void createTables(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(PLAYERS_TABLE.formatted(""));
+            stmt.execute(CONFIRMED_REFERRALS_TABLE.formatted(""));
+            stmt.execute(PENDING_REFERRALS_TABLE.formatted(""));
+            stmt.execute(IP_HISTORY_TABLE.formatted(""));
+        }
+    }
+    
+    private void createLookupIndexes(Connection conn) throws SQLException {
+        // The referral tables already index referred_uuid
+        createIndexIfMissing(conn, "players", "idx_name", "name");
+        createIndexIfMissing(conn, "players", "idx_ip_address", "ip_address");
+        createIndexIfMissing(conn, "players", "idx_first_join_time", "first_join_time");
+    }
+    
+    private void createIndexIfMissing(Connection conn, String table, String index, String column) throws SQLException {
+        String sql = "SELECT 1 FROM information_schema.STATISTICS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, table);
+            stmt.setString(2, index);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return;
+                }
             }
         }
+    
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE INDEX " + index + " ON " + table + " (" + column + ")");
+        }
+    }
+    
+    private boolean hasTextUuids(Connection conn) throws SQLException {
+        String sql = "SELECT DATA_TYPE FROM information_schema.COLUMNS " +
+                   "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'players' AND COLUMN_NAME = 'uuid'";
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() && !rs.getString("DATA_TYPE").equalsIgnoreCase("binary");
+        }
+    }
+    
+    private void migrateToBinaryUuids(SchemaMigrator.Transactions transactions) throws SQLException {
+        boolean[] textUuids = new boolean[1];
+        transactions.run("checking the UUID layout", conn -> textUuids[0] = hasTextUuids(conn));
+        if (!textUuids[0]) {
+            return;
+        }
+    
+        String shadow = BinaryUuidMigration.SHADOW_SUFFIX;
+        BinaryUuidMigration migration = new BinaryUuidMigration(plugin.getLogger(), BinaryUuidMigration.Dialect.MYSQL, migrationChunkSize, List.of(
+                new BinaryUuidMigration.Table("players", List.of("uuid"), Set.of("uuid"), PLAYERS_TABLE.formatted(shadow)),
+                new BinaryUuidMigration.Table("confirmed_referrals", List.of("referrer_uuid", "referred_uuid"),
+                        Set.of("referrer_uuid", "referred_uuid"), CONFIRMED_REFERRALS_TABLE.formatted(shadow)),
+                new BinaryUuidMigration.Table("pending_referrals", List.of("referrer_uuid", "referred_uuid"),
+                        Set.of("referrer_uuid", "referred_uuid"), PENDING_REFERRALS_TABLE.formatted(shadow)),
+                new BinaryUuidMigration.Table("ip_history", List.of("uuid", "ip_address"), Set.of("uuid"), IP_HISTORY_TABLE.formatted(shadow))));
+        migration.migrate(transactions);
     }
     
     @Override
     public void close() {
+        // Let queued statements finish before the pool goes away
+        if (!executor.shutdown(30, TimeUnit.SECONDS)) {
+            plugin.getLogger().warning("Timed out waiting for MySQL operations to finish");
+        }
+        
         if (dataSource != null && !dataSource.isClosed()) {
             dataSource.close();
         }
     }
     
     @Override
-    public CompletableFuture<Map<UUID, PlayerReferralData>> loadAllPlayerData() {
+    public CompletableFuture<Long> advanceGeneration() {
         return CompletableFuture.supplyAsync(() -> {
-            Map<UUID, PlayerReferralData> playerData = new HashMap<>();
-            
             try (Connection conn = dataSource.getConnection()) {
-                // Load basic player data
-                String sql = "SELECT uuid, name, referral_enabled, claimed_payout FROM players";
-                try (PreparedStatement stmt = conn.prepareStatement(sql);
-                     ResultSet rs = stmt.executeQuery()) {
+                conn.setAutoCommit(false);
+                long generation = DatabaseGeneration.advance(conn);
+                conn.commit();
+                return generation;
+            } catch (SQLException e) {
+                plugin.getLogger().severe("Error advancing the database generation in MySQL: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        }, executor);
+    }
+    
+    @FunctionalInterface
+    private interface RangeScan {
+        void scan(Connection conn, byte[] from, byte[] to) throws SQLException;
+    }
+    
+    @Override
+    public CompletableFuture<Void> loadAll(DataLoadSink sink) {
+        // Each UUID range is streamed over its own pooled connection, players first so referrers exist before their referrals
+        byte[][] bounds = StartupScan.splitUuidRange(maxPoolSize);
+        return CompletableFuture.runAsync(() -> {
+            try (Connection conn = dataSource.getConnection()) {
+                Map<String, Integer> rows = estimateRowCounts(conn);
+                sink.expect(rows.getOrDefault("players", 0),
+                        rows.getOrDefault("confirmed_referrals", 0) + rows.getOrDefault("pending_referrals", 0));
+            } catch (SQLException e) {
+                plugin.getLogger().severe("Error counting rows in MySQL: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        }, executor)
+                .thenCompose(v -> scanRanges(bounds, (conn, from, to) -> StartupScan.players(conn, from, to, Integer.MIN_VALUE, sink)))
+                .thenCompose(v -> scanRanges(bounds, (conn, from, to) -> StartupScan.referrals(conn, from, to, Integer.MIN_VALUE, sink)));
+    }
+    
+    private CompletableFuture<Void> scanRanges(byte[][] bounds, RangeScan scan) {
+        CompletableFuture<?>[] scans = new CompletableFuture<?>[bounds.length - 1];
+        for (int i = 0; i < scans.length; i++) {
+            byte[] from = bounds[i];
+            byte[] to = bounds[i + 1];
+            scans[i] = CompletableFuture.runAsync(() -> {
+                try (Connection conn = dataSource.getConnection()) {
+                    scan.scan(conn, from, to);
+                } catch (SQLException e) {
+                    plugin.getLogger().severe("Error loading data from MySQL: " + e.getMessage());
+                    throw new RuntimeException(e);
+                }
+            }, executor);
+        }
+        return CompletableFuture.allOf(scans);
+    }
+    
+    // InnoDB's estimate is enough to size the indexes and avoids a full COUNT(*) of every table
+    private Map<String, Integer> estimateRowCounts(Connection conn) throws SQLException {
+        Map<String, Integer> rows = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT TABLE_NAME, TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE()");
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                rows.put(rs.getString(1).toLowerCase(Locale.ROOT), (int) Math.min(Integer.MAX_VALUE, rs.getLong(2)));
+            }
+        }
+        return rows;
+    }
+    
+    @Override
+    public CompletableFuture<Map<UUID, PlayerReferralData>> loadActiveReferrers() {
+        return CompletableFuture.supplyAsync(() -> loadPlayerData(
+                "SELECT uuid, name, referral_enabled, claimed_payout FROM players WHERE uuid IN " +
+                        "(SELECT referrer_uuid FROM confirmed_referrals UNION SELECT referrer_uuid FROM pending_referrals)"), executor);
+    }
+    
+    private Map<UUID, PlayerReferralData> loadPlayerData(String playersQuery) {
+        Map<UUID, PlayerReferralData> playerData = new HashMap<>();
+        
+        try (Connection conn = dataSource.getConnection()) {
+            // Load basic player data
+            String sql = playersQuery;
+            try (PreparedStatement stmt = conn.prepareStatement(sql);
+                 ResultSet rs = stmt.executeQuery()) {
+                
+                while (rs.next()) {
+                    UUID uuid = UuidBytes.fromBytes(rs.getBytes("uuid"));
+                    String name = rs.getString("name");
+                    boolean enabled = rs.getBoolean("referral_enabled");
+                    boolean claimedReward = rs.getBoolean("claimed_payout");
                     
-                    while (rs.next()) {
-                        UUID uuid = UUID.fromString(rs.getString("uuid"));
-                        String name = rs.getString("name");
-                        boolean enabled = rs.getBoolean("referral_enabled");
-                        boolean claimedReward = rs.getBoolean("claimed_payout");
-                        
-                        PlayerReferralData data = new PlayerReferralData(uuid, name);
-                        data.setReferralEnabled(enabled);
-                        data.setClaimedReward(claimedReward);
-                        
-                        playerData.put(uuid, data);
-                    }
+                    PlayerReferralData data = new PlayerReferralData(uuid, name);
+                    data.setReferralEnabled(enabled);
+                    data.setClaimedReward(claimedReward);
+                    
+                    playerData.put(uuid, data);
                 }
+            }
+            
+            // Load confirmed referrals
+            sql = "SELECT referrer_uuid, referred_uuid FROM confirmed_referrals";
+            try (PreparedStatement stmt = conn.prepareStatement(sql);
+                 ResultSet rs = stmt.executeQuery()) {
                 
-                // Load confirmed referrals
-                sql = "SELECT referrer_uuid, referred_uuid FROM confirmed_referrals";
-                try (PreparedStatement stmt = conn.prepareStatement(sql);
-                     ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    UUID referrerUuid = UuidBytes.fromBytes(rs.getBytes("referrer_uuid"));
+                    UUID referredUuid = UuidBytes.fromBytes(rs.getBytes("referred_uuid"));
                     
-                    while (rs.next()) {
-                        UUID referrerUuid = UUID.fromString(rs.getString("referrer_uuid"));
-                        UUID referredUuid = UUID.fromString(rs.getString("referred_uuid"));
-                        
-                        PlayerReferralData data = playerData.get(referrerUuid);
-                        if (data != null) {
-                            data.addReferral(referredUuid);
-                        }
+                    PlayerReferralData data = playerData.get(referrerUuid);
+                    if (data != null) {
+                        data.addReferral(referredUuid);
                     }
                 }
+            }
+            
+            // Load pending referrals
+            sql = "SELECT referrer_uuid, referred_uuid, timestamp FROM pending_referrals";
+            try (PreparedStatement stmt = conn.prepareStatement(sql);
+                 ResultSet rs = stmt.executeQuery()) {
                 
-                // Load pending referrals
-                sql = "SELECT referrer_uuid, referred_uuid, timestamp FROM pending_referrals";
-                try (PreparedStatement stmt = conn.prepareStatement(sql);
-                     ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    UUID referrerUuid = UuidBytes.fromBytes(rs.getBytes("referrer_uuid"));
+                    UUID referredUuid = UuidBytes.fromBytes(rs.getBytes("referred_uuid"));
+                    long timestamp = rs.getLong("timestamp");
                     
-                    while (rs.next()) {
-                        UUID referrerUuid = UUID.fromString(rs.getString("referrer_uuid"));
-                        UUID referredUuid = UUID.fromString(rs.getString("referred_uuid"));
-                        long timestamp = rs.getLong("timestamp");
-                        
-                        PlayerReferralData data = playerData.get(referrerUuid);
-                        if (data != null) {
-                            data.addPendingReferral(referredUuid, timestamp);
-                        }
+                    PlayerReferralData data = playerData.get(referrerUuid);
+                    if (data != null) {
+                        data.addPendingReferral(referredUuid, timestamp);
                     }
                 }
-                
-            } catch (SQLException e) {
-                plugin.getLogger().severe("Error loading player data from MySQL: " + e.getMessage());
-                throw new RuntimeException(e);
             }
             
-            return playerData;
-        });
+        } catch (SQLException e) {
+            plugin.getLogger().severe("Error loading player data from MySQL: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+        
+        playerData.values().forEach(PlayerReferralData::markClean);
+        return playerData;
     }
     
     @Override
-    public CompletableFuture<Void> savePlayerData(PlayerReferralData data) {
-        return CompletableFuture.runAsync(() -> {
+    public CompletableFuture<PlayerRecord> loadPlayer(UUID playerId) {
+        return CompletableFuture.supplyAsync(() -> {
+            PlayerReferralData data = null;
+            UUID referrer = null;
+            Long firstJoinTime = null;
+            String ipAddress = null;
+            
             try (Connection conn = dataSource.getConnection()) {
-                conn.setAutoCommit(false);
-                
-                // Save basic player data
-                String sql = "INSERT INTO players (uuid, name, referral_enabled, claimed_payout) VALUES (?, ?, ?, ?) " +
-                           "ON DUPLICATE KEY UPDATE name = VALUES(name), referral_enabled = VALUES(referral_enabled), claimed_payout = VALUES(claimed_payout)";
-                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                    stmt.setString(1, data.getPlayerId().toString());
-                    stmt.setString(2, data.getPlayerName());
-                    stmt.setBoolean(3, data.isReferralEnabled());
-                    stmt.setBoolean(4, data.hasClaimedReward());
-                    stmt.executeUpdate();
-                }
-                
-                // Clear existing referrals
-                sql = "DELETE FROM confirmed_referrals WHERE referrer_uuid = ?";
-                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                    stmt.setString(1, data.getPlayerId().toString());
-                    stmt.executeUpdate();
-                }
-                
-                sql = "DELETE FROM pending_referrals WHERE referrer_uuid = ?";
+                // Load basic player data
+                String sql = "SELECT name, referral_enabled, claimed_payout, first_join_time, ip_address FROM players WHERE uuid = ?";
                 try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                    stmt.setString(1, data.getPlayerId().toString());
-                    stmt.executeUpdate();
+                    stmt.setBytes(1, UuidBytes.toBytes(playerId));
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) {
+                            data = new PlayerReferralData(playerId, rs.getString("name"));
+                            data.setReferralEnabled(rs.getBoolean("referral_enabled"));
+                            data.setClaimedReward(rs.getBoolean("claimed_payout"));
+                            
+                            long timestamp = rs.getLong("first_join_time");
+                            firstJoinTime = rs.wasNull() ? null : timestamp;
+                            ipAddress = rs.getString("ip_address");
+                        }
+                    }
                 }
                 
-                // Save confirmed referrals
-                if (!data.getConfirmedReferrals().isEmpty()) {
-                    sql = "INSERT INTO confirmed_referrals (referrer_uuid, referred_uuid) VALUES (?, ?)";
+                if (data != null) {
+                    // Load referrals made by this player
+                    sql = "SELECT referred_uuid FROM confirmed_referrals WHERE referrer_uuid = ?";
+                    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                        stmt.setBytes(1, UuidBytes.toBytes(playerId));
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                data.addReferral(UuidBytes.fromBytes(rs.getBytes("referred_uuid")));
+                            }
+                        }
+                    }
+                    
+                    sql = "SELECT referred_uuid, timestamp FROM pending_referrals WHERE referrer_uuid = ?";
                     try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                        for (UUID referredUuid : data.getConfirmedReferrals()) {
-                            stmt.setString(1, data.getPlayerId().toString());
-                            stmt.setString(2, referredUuid.toString());
-                            stmt.addBatch();
+                        stmt.setBytes(1, UuidBytes.toBytes(playerId));
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                data.addPendingReferral(UuidBytes.fromBytes(rs.getBytes("referred_uuid")), rs.getLong("timestamp"));
+                            }
                         }
-                        stmt.executeBatch();
                     }
                 }
                 
-                // Save pending referrals
-                if (!data.getPendingReferrals().isEmpty()) {
-                    sql = "INSERT INTO pending_referrals (referrer_uuid, referred_uuid, timestamp) VALUES (?, ?, ?)";
-                    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                        for (Map.Entry<UUID, Long> entry : data.getPendingReferrals().entrySet()) {
-                            stmt.setString(1, data.getPlayerId().toString());
-                            stmt.setString(2, entry.getKey().toString());
-                            stmt.setLong(3, entry.getValue());
-                            stmt.addBatch();
+                // Load who referred this player
+                sql = "SELECT referrer_uuid FROM confirmed_referrals WHERE referred_uuid = ? " +
+                        "UNION ALL SELECT referrer_uuid FROM pending_referrals WHERE referred_uuid = ? LIMIT 1";
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setBytes(1, UuidBytes.toBytes(playerId));
+                    stmt.setBytes(2, UuidBytes.toBytes(playerId));
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) {
+                            referrer = UuidBytes.fromBytes(rs.getBytes("referrer_uuid"));
                         }
-                        stmt.executeBatch();
                     }
                 }
                 
+            } catch (SQLException e) {
+                plugin.getLogger().severe("Error loading player " + playerId + " from MySQL: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+            
+            if (data != null) {
+                data.markClean();
+            }
+            return new PlayerRecord(data, referrer, firstJoinTime, ipAddress);
+        }, executor);
+    }
+    
+    @Override
+    public CompletableFuture<Void> savePlayerData(PlayerReferralData data) {
+        return CompletableFuture.runAsync(() -> {
+            PlayerSaveBatch batch = new PlayerSaveBatch();
+            try (Connection conn = dataSource.getConnection()) {
+                conn.setAutoCommit(false);
+                
+                batch.write(data, (player, saveProfile) -> savePlayerDataSync(conn, player, saveProfile));
+                
                 conn.commit();
+                batch.markClean();
                 
             } catch (SQLException e) {
                 plugin.getLogger().severe("Error saving player data to MySQL: " + e.getMessage());
                 throw new RuntimeException(e);
             }
-        });
+        }, executor);
     }
     
     @Override
@@ -263,27 +465,130 @@ public class MysqlDatabaseManager implements DatabaseManager {
             try (Connection conn = dataSource.getConnection()) {
                 conn.setAutoCommit(false);
                 
-                for (PlayerReferralData data : playerData.values()) {
-                    savePlayerDataSync(conn, data);
+                PlayerSaveBatch saved = new PlayerSaveBatch();
+                try (MysqlBatchSaver batch = new MysqlBatchSaver(conn, batchSize)) {
+                    saved.writeChanged(playerData.values(), batch::add);
+                    batch.flush();
                 }
                 
                 conn.commit();
+                saved.markClean();
                 
             } catch (SQLException e) {
                 plugin.getLogger().severe("Error saving all player data to MySQL: " + e.getMessage());
                 throw new RuntimeException(e);
             }
-        });
+        }, executor);
+    }
+    
+    @Override
+    public CompletableFuture<Void> insertPending(UUID referrerId, UUID referredId, long timestamp) {
+        return CompletableFuture.runAsync(() -> {
+            try (Connection conn = dataSource.getConnection()) {
+                insertPendingSync(conn, referrerId, referredId, timestamp);
+            } catch (SQLException e) {
+                plugin.getLogger().severe("Error saving pending referral to MySQL: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        }, executor);
+    }
+    
+    @Override
+    public CompletableFuture<Void> promotePendingToConfirmed(UUID referrerId, UUID referredId) {
+        return CompletableFuture.runAsync(() -> {
+            try (Connection conn = dataSource.getConnection()) {
+                conn.setAutoCommit(false);
+                promotePendingToConfirmedSync(conn, referrerId, referredId);
+                conn.commit();
+            } catch (SQLException e) {
+                plugin.getLogger().severe("Error confirming referral in MySQL: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        }, executor);
     }
     
-    private void savePlayerDataSync(Connection conn, PlayerReferralData data) throws SQLException {
-        String sql = "INSERT INTO players (uuid, name, referral_enabled, claimed_payout) VALUES (?, ?, ?, ?) " +
-                   "ON DUPLICATE KEY UPDATE name = VALUES(name), referral_enabled = VALUES(referral_enabled), claimed_payout = VALUES(claimed_payout)";
+    @Override
+    public CompletableFuture<Void> deleteReferral(UUID referrerId, UUID referredId) {
+        return CompletableFuture.runAsync(() -> {
+            try (Connection conn = dataSource.getConnection()) {
+                conn.setAutoCommit(false);
+                deleteReferralSync(conn, referrerId, referredId);
+                conn.commit();
+            } catch (SQLException e) {
+                plugin.getLogger().severe("Error deleting referral from MySQL: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        }, executor);
+    }
+    
+    private void savePlayerDataSync(Connection conn, PlayerReferralData data, boolean saveProfile) throws SQLException {
+        if (saveProfile) {
+            String sql = "INSERT INTO players (uuid, name, referral_enabled, claimed_payout) VALUES (?, ?, ?, ?) " +
+                       "ON DUPLICATE KEY UPDATE name = VALUES(name), referral_enabled = VALUES(referral_enabled), claimed_payout = VALUES(claimed_payout)";
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setBytes(1, UuidBytes.toBytes(data.getPlayerId()));
+                stmt.setString(2, data.getPlayerName());
+                stmt.setBoolean(3, data.isReferralEnabled());
+                stmt.setBoolean(4, data.hasClaimedReward());
+                stmt.executeUpdate();
+            }
+        }
+    
+        // Only touch the rows of referrals that changed since the last save
+        for (UUID referredId : data.getChangedReferrals()) {
+            if (data.getConfirmedReferrals().contains(referredId)) {
+                promotePendingToConfirmedSync(conn, data.getPlayerId(), referredId);
+                continue;
+            }
+    
+            Long timestamp = data.getPendingReferrals().get(referredId);
+            if (timestamp != null) {
+                insertPendingSync(conn, data.getPlayerId(), referredId, timestamp);
+            } else {
+                deleteReferralSync(conn, data.getPlayerId(), referredId);
+            }
+        }
+    }
+    
+    private void insertPendingSync(Connection conn, UUID referrerId, UUID referredId, long timestamp) throws SQLException {
+        String sql = "INSERT INTO pending_referrals (referrer_uuid, referred_uuid, timestamp) VALUES (?, ?, ?) " +
+                   "ON DUPLICATE KEY UPDATE timestamp = VALUES(timestamp)";
         try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, data.getPlayerId().toString());
-            stmt.setString(2, data.getPlayerName());
-            stmt.setBoolean(3, data.isReferralEnabled());
-            stmt.setBoolean(4, data.hasClaimedReward());
+            stmt.setBytes(1, UuidBytes.toBytes(referrerId));
+            stmt.setBytes(2, UuidBytes.toBytes(referredId));
+            stmt.setLong(3, timestamp);
+            stmt.executeUpdate();
+        }
+    }
+    
+    private void promotePendingToConfirmedSync(Connection conn, UUID referrerId, UUID referredId) throws SQLException {
+        String sql = "DELETE FROM pending_referrals WHERE referrer_uuid = ? AND referred_uuid = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setBytes(1, UuidBytes.toBytes(referrerId));
+            stmt.setBytes(2, UuidBytes.toBytes(referredId));
+            stmt.executeUpdate();
+        }
+    
+        sql = "INSERT IGNORE INTO confirmed_referrals (referrer_uuid, referred_uuid) VALUES (?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setBytes(1, UuidBytes.toBytes(referrerId));
+            stmt.setBytes(2, UuidBytes.toBytes(referredId));
+            stmt.executeUpdate();
+        }
+    }
+    
+    private void deleteReferralSync(Connection conn, UUID referrerId, UUID referredId) throws SQLException {
+        String sql = "DELETE FROM confirmed_referrals WHERE referrer_uuid = ? AND referred_uuid = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setBytes(1, UuidBytes.toBytes(referrerId));
+            stmt.setBytes(2, UuidBytes.toBytes(referredId));
+            stmt.executeUpdate();
+        }
+    
+        sql = "DELETE FROM pending_referrals WHERE referrer_uuid = ? AND referred_uuid = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setBytes(1, UuidBytes.toBytes(referrerId));
+            stmt.setBytes(2, UuidBytes.toBytes(referredId));
             stmt.executeUpdate();
         }
     }
@@ -300,8 +605,8 @@ public class MysqlDatabaseManager implements DatabaseManager {
                      ResultSet rs = stmt.executeQuery()) {
                     
                     while (rs.next()) {
-                        UUID referrerUuid = UUID.fromString(rs.getString("referrer_uuid"));
-                        UUID referredUuid = UUID.fromString(rs.getString("referred_uuid"));
+                        UUID referrerUuid = UuidBytes.fromBytes(rs.getBytes("referrer_uuid"));
+                        UUID referredUuid = UuidBytes.fromBytes(rs.getBytes("referred_uuid"));
                         mappings.put(referredUuid, referrerUuid);
                     }
                 }
@@ -312,8 +617,8 @@ public class MysqlDatabaseManager implements DatabaseManager {
                      ResultSet rs = stmt.executeQuery()) {
                     
                     while (rs.next()) {
-                        UUID referrerUuid = UUID.fromString(rs.getString("referrer_uuid"));
-                        UUID referredUuid = UUID.fromString(rs.getString("referred_uuid"));
+                        UUID referrerUuid = UuidBytes.fromBytes(rs.getBytes("referrer_uuid"));
+                        UUID referredUuid = UuidBytes.fromBytes(rs.getBytes("referred_uuid"));
                         mappings.put(referredUuid, referrerUuid);
                     }
                 }
@@ -324,115 +629,126 @@ public class MysqlDatabaseManager implements DatabaseManager {
             }
             
             return mappings;
-        });
+        }, executor);
     }
     
     @Override
-    public CompletableFuture<Map<UUID, Long>> loadFirstJoinTimes() {
-        return CompletableFuture.supplyAsync(() -> {
-            Map<UUID, Long> firstJoinTimes = new HashMap<>();
-            
+    public CompletableFuture<Void> saveFirstJoinTime(UUID playerId, long timestamp) {
+        return CompletableFuture.runAsync(() -> {
             try (Connection conn = dataSource.getConnection()) {
-                String sql = "SELECT uuid, first_join_time FROM players WHERE first_join_time IS NOT NULL";
-                try (PreparedStatement stmt = conn.prepareStatement(sql);
-                     ResultSet rs = stmt.executeQuery()) {
+                String sql = "UPDATE players SET first_join_time = ? WHERE uuid = ?";
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setLong(1, timestamp);
+                    stmt.setBytes(2, UuidBytes.toBytes(playerId));
                     
-                    while (rs.next()) {
-                        UUID uuid = UUID.fromString(rs.getString("uuid"));
-                        long timestamp = rs.getLong("first_join_time");
-                        firstJoinTimes.put(uuid, timestamp);
+                    int rowsAffected = stmt.executeUpdate();
+                    if (rowsAffected == 0) {
+                        // Player doesn't exist, insert them
+                        sql = "INSERT INTO players (uuid, name, referral_enabled, first_join_time) VALUES (?, 'Unknown', FALSE, ?)";
+                        try (PreparedStatement insertStmt = conn.prepareStatement(sql)) {
+                            insertStmt.setBytes(1, UuidBytes.toBytes(playerId));
+                            insertStmt.setLong(2, timestamp);
+                            insertStmt.executeUpdate();
+                        }
                     }
                 }
                 
             } catch (SQLException e) {
-                plugin.getLogger().severe("Error loading first join times from MySQL: " + e.getMessage());
+                plugin.getLogger().severe("Error saving first join time to MySQL: " + e.getMessage());
                 throw new RuntimeException(e);
             }
-            
-            return firstJoinTimes;
-        });
+        }, executor);
     }
     
     @Override
-    public CompletableFuture<Void> saveFirstJoinTime(UUID playerId, long timestamp) {
+    public CompletableFuture<Void> savePlayerIP(UUID playerId, String ipAddress) {
         return CompletableFuture.runAsync(() -> {
             try (Connection conn = dataSource.getConnection()) {
-                String sql = "UPDATE players SET first_join_time = ? WHERE uuid = ?";
+                String sql = "UPDATE players SET ip_address = ? WHERE uuid = ?";
                 try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                    stmt.setLong(1, timestamp);
-                    stmt.setString(2, playerId.toString());
+                    stmt.setString(1, ipAddress);
+                    stmt.setBytes(2, UuidBytes.toBytes(playerId));
                     
                     int rowsAffected = stmt.executeUpdate();
                     if (rowsAffected == 0) {
                         // Player doesn't exist, insert them
-                        sql = "INSERT INTO players (uuid, name, referral_enabled, first_join_time) VALUES (?, 'Unknown', FALSE, ?)";
+                        sql = "INSERT INTO players (uuid, name, referral_enabled, ip_address) VALUES (?, 'Unknown', FALSE, ?)";
                         try (PreparedStatement insertStmt = conn.prepareStatement(sql)) {
-                            insertStmt.setString(1, playerId.toString());
-                            insertStmt.setLong(2, timestamp);
+                            insertStmt.setBytes(1, UuidBytes.toBytes(playerId));
+                            insertStmt.setString(2, ipAddress);
                             insertStmt.executeUpdate();
                         }
                     }
                 }
                 
             } catch (SQLException e) {
-                plugin.getLogger().severe("Error saving first join time to MySQL: " + e.getMessage());
+                plugin.getLogger().severe("Error saving player IP to MySQL: " + e.getMessage());
                 throw new RuntimeException(e);
             }
-        });
+        }, executor);
     }
     
     @Override
-    public CompletableFuture<Map<UUID, String>> loadPlayerIPs() {
+    public CompletableFuture<Void> saveIpSighting(UUID playerId, byte[] address, long timestamp) {
+        return CompletableFuture.runAsync(() -> {
+            try (Connection conn = dataSource.getConnection()) {
+                String sql = "INSERT INTO ip_history (uuid, ip_address, first_seen, last_seen) VALUES (?, ?, ?, ?) " +
+                           "ON DUPLICATE KEY UPDATE last_seen = GREATEST(last_seen, VALUES(last_seen))";
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setBytes(1, UuidBytes.toBytes(playerId));
+                    stmt.setBytes(2, address);
+                    stmt.setLong(3, timestamp);
+                    stmt.setLong(4, timestamp);
+                    stmt.executeUpdate();
+                }
+                
+            } catch (SQLException e) {
+                plugin.getLogger().severe("Error saving IP history to MySQL: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        }, executor);
+    }
+    
+    @Override
+    public CompletableFuture<List<IpSighting>> loadIpHistory(long since) {
         return CompletableFuture.supplyAsync(() -> {
-            Map<UUID, String> playerIPs = new HashMap<>();
+            List<IpSighting> history = new ArrayList<>();
             
             try (Connection conn = dataSource.getConnection()) {
-                String sql = "SELECT uuid, ip_address FROM players WHERE ip_address IS NOT NULL";
-                try (PreparedStatement stmt = conn.prepareStatement(sql);
-                     ResultSet rs = stmt.executeQuery()) {
-                    
-                    while (rs.next()) {
-                        UUID uuid = UUID.fromString(rs.getString("uuid"));
-                        String ipAddress = rs.getString("ip_address");
-                        playerIPs.put(uuid, ipAddress);
+                String sql = "SELECT uuid, ip_address, last_seen FROM ip_history WHERE last_seen >= ?";
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setLong(1, since);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            history.add(new IpSighting(UuidBytes.fromBytes(rs.getBytes("uuid")), rs.getBytes("ip_address"), rs.getLong("last_seen")));
+                        }
                     }
                 }
                 
             } catch (SQLException e) {
-                plugin.getLogger().severe("Error loading player IPs from MySQL: " + e.getMessage());
+                plugin.getLogger().severe("Error loading IP history from MySQL: " + e.getMessage());
                 throw new RuntimeException(e);
             }
             
-            return playerIPs;
-        });
+            return history;
+        }, executor);
     }
     
     @Override
-    public CompletableFuture<Void> savePlayerIP(UUID playerId, String ipAddress) {
+    public CompletableFuture<Void> pruneIpHistory(long before) {
         return CompletableFuture.runAsync(() -> {
             try (Connection conn = dataSource.getConnection()) {
-                String sql = "UPDATE players SET ip_address = ? WHERE uuid = ?";
+                String sql = "DELETE FROM ip_history WHERE last_seen < ?";
                 try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                    stmt.setString(1, ipAddress);
-                    stmt.setString(2, playerId.toString());
-                    
-                    int rowsAffected = stmt.executeUpdate();
-                    if (rowsAffected == 0) {
-                        // Player doesn't exist, insert them
-                        sql = "INSERT INTO players (uuid, name, referral_enabled, ip_address) VALUES (?, 'Unknown', FALSE, ?)";
-                        try (PreparedStatement insertStmt = conn.prepareStatement(sql)) {
-                            insertStmt.setString(1, playerId.toString());
-                            insertStmt.setString(2, ipAddress);
-                            insertStmt.executeUpdate();
-                        }
-                    }
+                    stmt.setLong(1, before);
+                    stmt.executeUpdate();
                 }
                 
             } catch (SQLException e) {
-                plugin.getLogger().severe("Error saving player IP to MySQL: " + e.getMessage());
+                plugin.getLogger().severe("Error pruning IP history in MySQL: " + e.getMessage());
                 throw new RuntimeException(e);
             }
-        });
+        }, executor);
     }
     
     @Override
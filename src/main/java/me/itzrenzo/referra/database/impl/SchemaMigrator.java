@@ -0,0 +1,101 @@
+package me.itzrenzo.referra.database.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Brings a database up to the latest schema by applying, in order, every migration newer than the version recorded in
+ * {@code schema_version}. Databases from before the table existed start at version 0, so each migration checks what
+ * is already there before changing anything. Applied versions are recorded only after their migration finishes.
+ */
+public class SchemaMigrator {
+    @FunctionalInterface
+    public interface Transactions {
+        /** Runs the work in its own transaction and commits it */
+        void run(String description, SqlWork work) throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface Step {
+        void apply(Transactions transactions) throws SQLException;
+    }
+
+    public record Migration(int version, String description, Step step) {
+    }
+
+    private final Logger logger;
+    private final Transactions transactions;
+    private final List<Migration> migrations;
+
+    public SchemaMigrator(Logger logger, Transactions transactions, List<Migration> migrations) {
+        for (int i = 1; i < migrations.size(); i++) {
+            if (migrations.get(i).version() <= migrations.get(i - 1).version()) {
+                throw new IllegalArgumentException("Schema migrations must be in increasing version order");
+            }
+        }
+        this.logger = logger;
+        this.transactions = transactions;
+        this.migrations = migrations;
+    }
+
+    /**
+     * A migration that runs entirely in one transaction.
+     */
+    public static Migration migration(int version, String description, SqlWork work) {
+        return new Migration(version, description, transactions -> transactions.run(description, work));
+    }
+
+    public void migrate() throws SQLException {
+        int[] current = new int[1];
+        transactions.run("reading the schema version", conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                        "version INTEGER PRIMARY KEY, description VARCHAR(255) NOT NULL, applied_at BIGINT NOT NULL)");
+                try (ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version")) {
+                    current[0] = rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+        });
+
+        int latest = migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).version();
+        if (current[0] > latest) {
+            throw new SQLException("Database schema version " + current[0] + " is newer than the latest one this plugin knows ("
+                    + latest + "). Update the plugin or restore a backup.");
+        }
+
+        for (Migration migration : migrations) {
+            if (migration.version() <= current[0]) {
+                continue;
+            }
+
+            logger.info("Applying schema migration " + migration.version() + ": " + migration.description());
+            migration.step().apply(transactions);
+            transactions.run("recording schema version " + migration.version(), conn -> {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "INSERT INTO schema_version (version, description, applied_at) VALUES (?, ?, ?)")) {
+                    stmt.setInt(1, migration.version());
+                    stmt.setString(2, migration.description());
+                    stmt.setLong(3, System.currentTimeMillis());
+                    stmt.executeUpdate();
+                }
+            });
+        }
+    }
+
+    public static boolean tableExists(Connection conn, String table) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getTables(conn.getCatalog(), null, table, new String[] {"TABLE"})) {
+            return rs.next();
+        }
+    }
+
+    public static boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), null, table, column)) {
+            return rs.next();
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package me.itzrenzo.referra.database.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A unit of JDBC work that runs on a connection provided by the caller.
+ */
+@FunctionalInterface
+public interface SqlWork {
+    void run(Connection conn) throws SQLException;
+}
@@ -0,0 +1,251 @@
+package me.itzrenzo.referra.database.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands out SQLite connections. In persistent mode reads lease one of a fixed set of long-lived read-only connections,
+ * and the single writer keeps its own read-write connection. Prepared statements are cached per connection and SQL string.
+ * Leases look like ordinary connections: closing one returns it, and closing a cached statement only clears its parameters.
+ */
+public class SqliteConnectionProvider implements AutoCloseable {
+    // SQLITE_OPEN_READONLY, see org.sqlite.SQLiteOpenMode
+    private static final String READ_ONLY_OPEN_MODE = "1";
+
+    private final String jdbcUrl;
+    private final SqliteSettings settings;
+    private final BlockingQueue<PooledConnection> idleReaders;
+    private final List<PooledConnection> openConnections = new ArrayList<>();
+    private int openedReaders;
+    private boolean closed;
+
+    public SqliteConnectionProvider(String jdbcUrl, SqliteSettings settings) {
+        this.jdbcUrl = jdbcUrl;
+        this.settings = settings;
+        this.idleReaders = new ArrayBlockingQueue<>(Math.max(1, settings.readConnections()));
+    }
+
+    /**
+     * @return a connection for reading that must be closed by the caller. In persistent mode callers wait for a free
+     * read connection when all of them are leased.
+     */
+    public Connection getConnection() throws SQLException {
+        if (!settings.persistentConnection()) {
+            return DriverManager.getConnection(jdbcUrl);
+        }
+
+        PooledConnection reader = idleReaders.poll();
+        if (reader == null) {
+            reader = openReaderIfBelowLimit();
+        }
+        if (reader == null) {
+            try {
+                reader = idleReaders.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a SQLite read connection", e);
+            }
+        }
+        return reader.lease(this::returnReader);
+    }
+
+    /**
+     * Opens the read-write connection used by the single writer. The caller owns it and must close it.
+     */
+    public PooledConnection openWriteConnection() throws SQLException {
+        return new PooledConnection(open(false), settings.statementCacheSize());
+    }
+
+    private synchronized PooledConnection openReaderIfBelowLimit() throws SQLException {
+        if (closed) {
+            throw new SQLException("SQLite connection provider is closed");
+        }
+        if (openedReaders >= Math.max(1, settings.readConnections())) {
+            return null;
+        }
+
+        PooledConnection reader = new PooledConnection(open(true), settings.statementCacheSize());
+        openConnections.add(reader);
+        openedReaders++;
+        return reader;
+    }
+
+    private void returnReader(PooledConnection reader) throws SQLException {
+        Connection connection = reader.connection();
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            idleReaders.add(reader);
+        }
+    }
+
+    private Connection open(boolean readOnly) throws SQLException {
+        Properties properties = new Properties();
+        if (readOnly) {
+            properties.setProperty("open_mode", READ_ONLY_OPEN_MODE);
+        }
+
+        Connection opened = DriverManager.getConnection(jdbcUrl, properties);
+        try (Statement stmt = opened.createStatement()) {
+            for (String pragma : settings.pragmas()) {
+                // The journal mode is stored in the file, so only the writer sets it
+                if (readOnly && pragma.startsWith("PRAGMA journal_mode")) {
+                    continue;
+                }
+                stmt.execute(pragma);
+            }
+        } catch (SQLException e) {
+            opened.close();
+            throw e;
+        }
+        return opened;
+    }
+
+    @Override
+    public synchronized void close() throws SQLException {
+        closed = true;
+        SQLException failure = null;
+        for (PooledConnection connection : openConnections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        openConnections.clear();
+        idleReaders.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * A long-lived connection with its own prepared-statement cache.
+     */
+    public static final class PooledConnection implements AutoCloseable {
+        private final Connection connection;
+        private final int statementCacheSize;
+        private final Map<String, PreparedStatement> statements;
+
+        private PooledConnection(Connection connection, int statementCacheSize) {
+            this.connection = connection;
+            this.statementCacheSize = statementCacheSize;
+            this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= statementCacheSize) {
+                        return false;
+                    }
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+            };
+        }
+
+        public Connection connection() {
+            return connection;
+        }
+
+        /**
+         * @return a view of this connection whose close() hands it to {@code onRelease} instead of closing it
+         */
+        public Connection lease(Release onRelease) {
+            InvocationHandler handler = new InvocationHandler() {
+                private boolean released;
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("close")) {
+                        if (!released) {
+                            released = true;
+                            onRelease.release(PooledConnection.this);
+                        }
+                        return null;
+                    }
+                    if (method.getName().equals("isClosed")) {
+                        return released || connection.isClosed();
+                    }
+                    if (released) {
+                        throw new SQLException("Connection lease was already closed");
+                    }
+
+                    if (method.getName().equals("prepareStatement") && args.length == 1 && statementCacheSize > 0) {
+                        return cachedStatement((String) args[0]);
+                    }
+                    return invokeTarget(connection, method, args);
+                }
+            };
+
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, handler);
+        }
+
+        private PreparedStatement cachedStatement(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null || statement.isClosed()) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+
+            PreparedStatement cached = statement;
+            InvocationHandler handler = (proxy, method, args) -> {
+                if (method.getName().equals("close")) {
+                    cached.clearParameters();
+                    cached.clearBatch();
+                    return null;
+                }
+                return invokeTarget(cached, method, args);
+            };
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] {PreparedStatement.class}, handler);
+        }
+
+        public int getCachedStatementCount() {
+            return statements.size();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            statements.values().forEach(SqliteConnectionProvider::closeQuietly);
+            statements.clear();
+            connection.close();
+        }
+    }
+
+    @FunctionalInterface
+    public interface Release {
+        void release(PooledConnection connection) throws SQLException;
+    }
+
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+            // The statement is being discarded anyway
+        }
+    }
+}
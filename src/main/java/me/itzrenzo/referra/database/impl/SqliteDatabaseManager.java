@@ -1,30 +1,47 @@
 package me.itzrenzo.referra.database.impl;
 
+import me.itzrenzo.referra.data.IpSighting;
+import me.itzrenzo.referra.data.PlayerRecord;
 import me.itzrenzo.referra.data.PlayerReferralData;
+import me.itzrenzo.referra.data.PlayerSaveBatch;
+import me.itzrenzo.referra.database.DataLoadSink;
 import me.itzrenzo.referra.database.DatabaseManager;
-import org.bukkit.plugin.java.JavaPlugin;
+import me.itzrenzo.referra.util.BoundedExecutor;
+import me.itzrenzo.referra.util.UuidBytes;
+import org.bukkit.plugin.Plugin;
 
 import java.io.File;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Locale;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 public class SqliteDatabaseManager implements DatabaseManager {
-    private final JavaPlugin plugin;
+    private final Plugin plugin;
     private final String filename;
-    private String jdbcUrl;
-
-    public SqliteDatabaseManager(JavaPlugin plugin, String filename) {
+    private final SqliteSettings settings;
+    private final int migrationChunkSize;
+    private final BoundedExecutor executor;
+    private SqliteConnectionProvider connections;
+    private SqliteWriter writer;
+
+    public SqliteDatabaseManager(Plugin plugin, String filename, SqliteSettings settings, int migrationChunkSize,
+                                 BoundedExecutor executor) {
         this.plugin = plugin;
         this.filename = filename;
+        this.settings = settings;
+        this.migrationChunkSize = migrationChunkSize;
+        this.executor = executor;
     }
 
     @Override
@@ -35,25 +52,26 @@ public class SqliteDatabaseManager implements DatabaseManager {
 
                 File dbFile = new File(plugin.getDataFolder(), filename);
                 plugin.getDataFolder().mkdirs();
-                jdbcUrl = "jdbc:sqlite:" + dbFile.getAbsolutePath();
+                connections = new SqliteConnectionProvider("jdbc:sqlite:" + dbFile.getAbsolutePath(), settings);
+                writer = new SqliteWriter(plugin, connections, settings);
 
-                createTables();
+                // Migrations run through the writer, since read-only connections cannot create a missing database file
+                new SchemaMigrator(plugin.getLogger(), this::inWriteTransaction, migrations()).migrate();
                 plugin.getLogger().info("SQLite database initialized successfully: " + filename);
             } catch (ClassNotFoundException | SQLException e) {
                 plugin.getLogger().severe("Failed to initialize SQLite database: " + e.getMessage());
                 throw new RuntimeException(e);
             }
-        });
+        }, executor);
     }
 
     private Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(jdbcUrl);
+        return connections.getConnection();
     }
 
-    private void createTables() throws SQLException {
-        String createPlayersTable = """
-            CREATE TABLE IF NOT EXISTS players (
-                uuid TEXT PRIMARY KEY,
+    private static final String PLAYERS_TABLE = """
+            CREATE TABLE IF NOT EXISTS players%1$s (
+                uuid BLOB PRIMARY KEY,
                 name TEXT NOT NULL,
                 referral_enabled BOOLEAN DEFAULT FALSE,
                 claimed_payout BOOLEAN DEFAULT FALSE,
@@ -62,202 +80,391 @@ public class SqliteDatabaseManager implements DatabaseManager {
             )
         """;
 
-        String createConfirmedReferralsTable = """
-            CREATE TABLE IF NOT EXISTS confirmed_referrals (
-                referrer_uuid TEXT,
-                referred_uuid TEXT,
+    private static final String CONFIRMED_REFERRALS_TABLE = """
+            CREATE TABLE IF NOT EXISTS confirmed_referrals%1$s (
+                referrer_uuid BLOB,
+                referred_uuid BLOB,
                 PRIMARY KEY (referrer_uuid, referred_uuid),
-                FOREIGN KEY (referrer_uuid) REFERENCES players(uuid)
+                FOREIGN KEY (referrer_uuid) REFERENCES players%1$s(uuid)
             )
         """;
 
-        String createPendingReferralsTable = """
-            CREATE TABLE IF NOT EXISTS pending_referrals (
-                referrer_uuid TEXT,
-                referred_uuid TEXT,
+    private static final String PENDING_REFERRALS_TABLE = """
+            CREATE TABLE IF NOT EXISTS pending_referrals%1$s (
+                referrer_uuid BLOB,
+                referred_uuid BLOB,
                 timestamp INTEGER,
                 PRIMARY KEY (referrer_uuid, referred_uuid),
-                FOREIGN KEY (referrer_uuid) REFERENCES players(uuid)
+                FOREIGN KEY (referrer_uuid) REFERENCES players%1$s(uuid)
             )
         """;
 
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement()) {
-            stmt.execute(createPlayersTable);
-            stmt.execute(createConfirmedReferralsTable);
-            stmt.execute(createPendingReferralsTable);
-            stmt.execute("ALTER TABLE players ADD COLUMN claimed_payout BOOLEAN DEFAULT FALSE");
-        } catch (SQLException e) {
-            String message = e.getMessage() == null ? "" : e.getMessage().toLowerCase(Locale.ROOT);
-            if (!message.contains("duplicate column")) {
-                throw e;
+    private static final String IP_HISTORY_TABLE = """
+            CREATE TABLE IF NOT EXISTS ip_history%1$s (
+                uuid BLOB NOT NULL,
+                ip_address BLOB NOT NULL,
+                first_seen INTEGER NOT NULL,
+                last_seen INTEGER NOT NULL,
+                PRIMARY KEY (uuid, ip_address)
+            )
+        """;
+
+    private List<SchemaMigrator.Migration> migrations() {
+        return List.of(
+                SchemaMigrator.migration(1, "Add players.claimed_payout", this::addClaimedPayoutColumn),
+                new SchemaMigrator.Migration(2, "Store UUIDs as binary", this::migrateToBinaryUuids),
+                SchemaMigrator.migration(3, "Create tables", this::createTables),
+                SchemaMigrator.migration(4, "Index referred players, names, IP addresses and first joins", this::createLookupIndexes),
+                SchemaMigrator.migration(5, "Track the database generation", conn -> DatabaseGeneration.createTable(conn, "INSERT OR IGNORE")));
+    }
+
+    private void inWriteTransaction(String description, SqlWork work) throws SQLException {
+        try {
+            writer.submit(description, work).join();
+        } catch (CompletionException e) {
+            throw new SQLException("Failed " + description, e.getCause());
+        }
+    }
+
+    private void addClaimedPayoutColumn(Connection conn) throws SQLException {
+        if (SchemaMigrator.tableExists(conn, "players") && !SchemaMigrator.columnExists(conn, "players", "claimed_payout")) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE players ADD COLUMN claimed_payout BOOLEAN DEFAULT FALSE");
             }
         }
     }
 
+    private void createTables(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(PLAYERS_TABLE.formatted(""));
+            stmt.execute(CONFIRMED_REFERRALS_TABLE.formatted(""));
+            stmt.execute(PENDING_REFERRALS_TABLE.formatted(""));
+            stmt.execute(IP_HISTORY_TABLE.formatted(""));
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_ip_history_last_seen ON ip_history (last_seen)");
+        }
+    }
+
+    private void createLookupIndexes(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_confirmed_referrals_referred ON confirmed_referrals (referred_uuid)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_pending_referrals_referred ON pending_referrals (referred_uuid)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_players_name ON players (name)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_players_ip_address ON players (ip_address)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_players_first_join_time ON players (first_join_time)");
+        }
+    }
+
+    private boolean hasTextUuids(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT type FROM pragma_table_info('players') WHERE name = 'uuid'")) {
+            return rs.next() && rs.getString("type").equalsIgnoreCase("TEXT");
+        }
+    }
+
+    private void migrateToBinaryUuids(SchemaMigrator.Transactions transactions) throws SQLException {
+        boolean[] textUuids = new boolean[1];
+        transactions.run("checking the UUID layout", conn -> textUuids[0] = hasTextUuids(conn));
+        if (!textUuids[0]) {
+            return;
+        }
+
+        String shadow = BinaryUuidMigration.SHADOW_SUFFIX;
+        BinaryUuidMigration migration = new BinaryUuidMigration(plugin.getLogger(), BinaryUuidMigration.Dialect.SQLITE, migrationChunkSize, List.of(
+                new BinaryUuidMigration.Table("players", List.of("uuid"), Set.of("uuid"), PLAYERS_TABLE.formatted(shadow)),
+                new BinaryUuidMigration.Table("confirmed_referrals", List.of("referrer_uuid", "referred_uuid"),
+                        Set.of("referrer_uuid", "referred_uuid"), CONFIRMED_REFERRALS_TABLE.formatted(shadow)),
+                new BinaryUuidMigration.Table("pending_referrals", List.of("referrer_uuid", "referred_uuid"),
+                        Set.of("referrer_uuid", "referred_uuid"), PENDING_REFERRALS_TABLE.formatted(shadow)),
+                new BinaryUuidMigration.Table("ip_history", List.of("uuid", "ip_address"), Set.of("uuid"), IP_HISTORY_TABLE.formatted(shadow))));
+
+        // Chunks are submitted one at a time, so the writer commits each of them on its own
+        migration.migrate(transactions);
+
+        // Index names are global in SQLite and the old one moved with ip_history_text
+        transactions.run("dropping the old IP history index", conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP INDEX IF EXISTS idx_ip_history_last_seen");
+            }
+        });
+    }
+
     @Override
     public void close() {
+        if (!executor.shutdown(30, TimeUnit.SECONDS)) {
+            plugin.getLogger().warning("Timed out waiting for SQLite operations to finish");
+        }
+        if (writer != null && !writer.close(30, TimeUnit.SECONDS)) {
+            plugin.getLogger().warning("Timed out waiting for queued SQLite writes to commit");
+        }
+
+        if (connections != null) {
+            try {
+                connections.close();
+            } catch (SQLException e) {
+                plugin.getLogger().warning("Error closing SQLite connection: " + e.getMessage());
+            }
+        }
     }
 
     @Override
-    public CompletableFuture<Map<UUID, PlayerReferralData>> loadAllPlayerData() {
-        return CompletableFuture.supplyAsync(() -> {
-            Map<UUID, PlayerReferralData> playerData = new HashMap<>();
+    public CompletableFuture<Long> advanceGeneration() {
+        long[] generation = new long[1];
+        return writer.submit("advancing the database generation", conn -> generation[0] = DatabaseGeneration.advance(conn))
+                .thenApply(ignored -> generation[0]);
+    }
 
+    @Override
+    public CompletableFuture<Void> loadAll(DataLoadSink sink) {
+        return CompletableFuture.runAsync(() -> {
+            // SQLite steps through rows as they are read, so one connection streams each table once
             try (Connection conn = getConnection()) {
-                String sql = "SELECT uuid, name, referral_enabled, claimed_payout FROM players";
-                try (PreparedStatement stmt = conn.prepareStatement(sql);
-                     ResultSet rs = stmt.executeQuery()) {
+                sink.expect(StartupScan.estimateRowCount(conn, "players"),
+                        StartupScan.estimateRowCount(conn, "confirmed_referrals") + StartupScan.estimateRowCount(conn, "pending_referrals"));
+                StartupScan.players(conn, null, null, 0, sink);
+                StartupScan.referrals(conn, null, null, 0, sink);
+            } catch (SQLException e) {
+                plugin.getLogger().severe("Error loading data from SQLite: " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        }, executor);
+    }
 
-                    while (rs.next()) {
-                        UUID uuid = UUID.fromString(rs.getString("uuid"));
-                        String name = rs.getString("name");
-                        boolean enabled = rs.getBoolean("referral_enabled");
-                        boolean claimedReward = rs.getBoolean("claimed_payout");
-
-                        PlayerReferralData data = new PlayerReferralData(uuid, name);
-                        data.setReferralEnabled(enabled);
-                        data.setClaimedReward(claimedReward);
-                        playerData.put(uuid, data);
+    @Override
+    public CompletableFuture<Map<UUID, PlayerReferralData>> loadActiveReferrers() {
+        return CompletableFuture.supplyAsync(() -> loadPlayerData(
+                "SELECT uuid, name, referral_enabled, claimed_payout FROM players WHERE uuid IN " +
+                        "(SELECT referrer_uuid FROM confirmed_referrals UNION SELECT referrer_uuid FROM pending_referrals)"), executor);
+    }
+
+    private Map<UUID, PlayerReferralData> loadPlayerData(String playersQuery) {
+        Map<UUID, PlayerReferralData> playerData = new HashMap<>();
+
+        try (Connection conn = getConnection()) {
+            String sql = playersQuery;
+            try (PreparedStatement stmt = conn.prepareStatement(sql);
+                 ResultSet rs = stmt.executeQuery()) {
+
+                while (rs.next()) {
+                    UUID uuid = UuidBytes.fromBytes(rs.getBytes("uuid"));
+                    String name = rs.getString("name");
+                    boolean enabled = rs.getBoolean("referral_enabled");
+                    boolean claimedReward = rs.getBoolean("claimed_payout");
+
+                    PlayerReferralData data = new PlayerReferralData(uuid, name);
+                    data.setReferralEnabled(enabled);
+                    data.setClaimedReward(claimedReward);
+                    playerData.put(uuid, data);
+                }
+            }
+
+            sql = "SELECT referrer_uuid, referred_uuid FROM confirmed_referrals";
+            try (PreparedStatement stmt = conn.prepareStatement(sql);
+                 ResultSet rs = stmt.executeQuery()) {
+
+                while (rs.next()) {
+                    UUID referrerUuid = UuidBytes.fromBytes(rs.getBytes("referrer_uuid"));
+                    UUID referredUuid = UuidBytes.fromBytes(rs.getBytes("referred_uuid"));
+
+                    PlayerReferralData data = playerData.get(referrerUuid);
+                    if (data != null) {
+                        data.addReferral(referredUuid);
                     }
                 }
+            }
 
-                sql = "SELECT referrer_uuid, referred_uuid FROM confirmed_referrals";
-                try (PreparedStatement stmt = conn.prepareStatement(sql);
-                     ResultSet rs = stmt.executeQuery()) {
+            sql = "SELECT referrer_uuid, referred_uuid, timestamp FROM pending_referrals";
+            try (PreparedStatement stmt = conn.prepareStatement(sql);
+                 ResultSet rs = stmt.executeQuery()) {
 
-                    while (rs.next()) {
-                        UUID referrerUuid = UUID.fromString(rs.getString("referrer_uuid"));
-                        UUID referredUuid = UUID.fromString(rs.getString("referred_uuid"));
+                while (rs.next()) {
+                    UUID referrerUuid = UuidBytes.fromBytes(rs.getBytes("referrer_uuid"));
+                    UUID referredUuid = UuidBytes.fromBytes(rs.getBytes("referred_uuid"));
+                    long timestamp = rs.getLong("timestamp");
+
+                    PlayerReferralData data = playerData.get(referrerUuid);
+                    if (data != null) {
+                        data.addPendingReferral(referredUuid, timestamp);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().severe("Error loading player data from SQLite: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+
+        playerData.values().forEach(PlayerReferralData::markClean);
+        return playerData;
+    }
 
-                        PlayerReferralData data = playerData.get(referrerUuid);
-                        if (data != null) {
-                            data.addReferral(referredUuid);
+    @Override
+    public CompletableFuture<PlayerRecord> loadPlayer(UUID playerId) {
+        return CompletableFuture.supplyAsync(() -> {
+            PlayerReferralData data = null;
+            UUID referrer = null;
+            Long firstJoinTime = null;
+            String ipAddress = null;
+
+            try (Connection conn = getConnection()) {
+                String sql = "SELECT name, referral_enabled, claimed_payout, first_join_time, ip_address FROM players WHERE uuid = ?";
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setBytes(1, UuidBytes.toBytes(playerId));
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) {
+                            data = new PlayerReferralData(playerId, rs.getString("name"));
+                            data.setReferralEnabled(rs.getBoolean("referral_enabled"));
+                            data.setClaimedReward(rs.getBoolean("claimed_payout"));
+
+                            long timestamp = rs.getLong("first_join_time");
+                            firstJoinTime = rs.wasNull() ? null : timestamp;
+                            ipAddress = rs.getString("ip_address");
                         }
                     }
                 }
 
-                sql = "SELECT referrer_uuid, referred_uuid, timestamp FROM pending_referrals";
-                try (PreparedStatement stmt = conn.prepareStatement(sql);
-                     ResultSet rs = stmt.executeQuery()) {
+                if (data != null) {
+                    sql = "SELECT referred_uuid FROM confirmed_referrals WHERE referrer_uuid = ?";
+                    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                        stmt.setBytes(1, UuidBytes.toBytes(playerId));
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                data.addReferral(UuidBytes.fromBytes(rs.getBytes("referred_uuid")));
+                            }
+                        }
+                    }
 
-                    while (rs.next()) {
-                        UUID referrerUuid = UUID.fromString(rs.getString("referrer_uuid"));
-                        UUID referredUuid = UUID.fromString(rs.getString("referred_uuid"));
-                        long timestamp = rs.getLong("timestamp");
+                    sql = "SELECT referred_uuid, timestamp FROM pending_referrals WHERE referrer_uuid = ?";
+                    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                        stmt.setBytes(1, UuidBytes.toBytes(playerId));
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                data.addPendingReferral(UuidBytes.fromBytes(rs.getBytes("referred_uuid")), rs.getLong("timestamp"));
+                            }
+                        }
+                    }
+                }
 
-                        PlayerReferralData data = playerData.get(referrerUuid);
-                        if (data != null) {
-                            data.addPendingReferral(referredUuid, timestamp);
+                sql = "SELECT referrer_uuid FROM confirmed_referrals WHERE referred_uuid = ? " +
+                        "UNION ALL SELECT referrer_uuid FROM pending_referrals WHERE referred_uuid = ? LIMIT 1";
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setBytes(1, UuidBytes.toBytes(playerId));
+                    stmt.setBytes(2, UuidBytes.toBytes(playerId));
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) {
+                            referrer = UuidBytes.fromBytes(rs.getBytes("referrer_uuid"));
                         }
                     }
                 }
             } catch (SQLException e) {
-                plugin.getLogger().severe("Error loading player data from SQLite: " + e.getMessage());
+                plugin.getLogger().severe("Error loading player " + playerId + " from SQLite: " + e.getMessage());
                 throw new RuntimeException(e);
             }
 
-            return playerData;
-        });
+            if (data != null) {
+                data.markClean();
+            }
+            return new PlayerRecord(data, referrer, firstJoinTime, ipAddress);
+        }, executor);
     }
 
     @Override
     public CompletableFuture<Void> savePlayerData(PlayerReferralData data) {
-        return CompletableFuture.runAsync(() -> {
-            Connection conn = null;
-            try {
-                conn = getConnection();
-                conn.setAutoCommit(false);
-                savePlayerDataSync(conn, data, true);
-                conn.commit();
-            } catch (SQLException e) {
-                rollbackQuietly(conn, "Error rolling back transaction");
-                plugin.getLogger().severe("Error saving player data to SQLite: " + e.getMessage());
-                throw new RuntimeException(e);
-            } finally {
-                resetAutoCommitAndClose(conn);
-            }
-        });
+        PlayerSaveBatch batch = new PlayerSaveBatch();
+        return writer.submit("saving player data",
+                conn -> batch.write(data, (player, saveProfile) -> savePlayerDataSync(conn, player, saveProfile)))
+                .thenRun(batch::markClean);
     }
 
     @Override
     public CompletableFuture<Void> saveAllPlayerData(Map<UUID, PlayerReferralData> playerData) {
-        return CompletableFuture.runAsync(() -> {
-            Connection conn = null;
-            try {
-                conn = getConnection();
-                conn.setAutoCommit(false);
+        PlayerSaveBatch batch = new PlayerSaveBatch();
+        return writer.submit("saving all player data",
+                conn -> batch.writeChanged(playerData.values(), (player, saveProfile) -> savePlayerDataSync(conn, player, saveProfile)))
+                .thenRun(batch::markClean);
+    }
 
-                for (PlayerReferralData data : playerData.values()) {
-                    savePlayerDataSync(conn, data, false);
-                }
+    @Override
+    public CompletableFuture<Void> insertPending(UUID referrerId, UUID referredId, long timestamp) {
+        return writer.submit("saving pending referral", conn -> insertPendingSync(conn, referrerId, referredId, timestamp));
+    }
 
-                conn.commit();
-            } catch (SQLException e) {
-                rollbackQuietly(conn, "Error rolling back bulk save transaction");
-                plugin.getLogger().severe("Error saving all player data to SQLite: " + e.getMessage());
-                throw new RuntimeException(e);
-            } finally {
-                resetAutoCommitAndClose(conn);
-            }
-        });
+    @Override
+    public CompletableFuture<Void> promotePendingToConfirmed(UUID referrerId, UUID referredId) {
+        return writer.submit("confirming referral", conn -> promotePendingToConfirmedSync(conn, referrerId, referredId));
     }
 
-    private void savePlayerDataSync(Connection conn, PlayerReferralData data, boolean rewriteReferrals) throws SQLException {
-        String sql = "INSERT INTO players (uuid, name, referral_enabled, claimed_payout) VALUES (?, ?, ?, ?) " +
-                "ON CONFLICT(uuid) DO UPDATE SET name = excluded.name, referral_enabled = excluded.referral_enabled, claimed_payout = excluded.claimed_payout";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, data.getPlayerId().toString());
-            stmt.setString(2, data.getPlayerName());
-            stmt.setBoolean(3, data.isReferralEnabled());
-            stmt.setBoolean(4, data.hasClaimedReward());
-            stmt.executeUpdate();
+    @Override
+    public CompletableFuture<Void> deleteReferral(UUID referrerId, UUID referredId) {
+        return writer.submit("deleting referral", conn -> deleteReferralSync(conn, referrerId, referredId));
+    }
+
+    private void savePlayerDataSync(Connection conn, PlayerReferralData data, boolean saveProfile) throws SQLException {
+        if (saveProfile) {
+            String sql = "INSERT INTO players (uuid, name, referral_enabled, claimed_payout) VALUES (?, ?, ?, ?) " +
+                    "ON CONFLICT(uuid) DO UPDATE SET name = excluded.name, referral_enabled = excluded.referral_enabled, claimed_payout = excluded.claimed_payout";
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setBytes(1, UuidBytes.toBytes(data.getPlayerId()));
+                stmt.setString(2, data.getPlayerName());
+                stmt.setBoolean(3, data.isReferralEnabled());
+                stmt.setBoolean(4, data.hasClaimedReward());
+                stmt.executeUpdate();
+            }
         }
 
-        if (!rewriteReferrals) {
-            clearAndInsertReferrals(conn, data);
-            return;
+        for (UUID referredId : data.getChangedReferrals()) {
+            if (data.getConfirmedReferrals().contains(referredId)) {
+                promotePendingToConfirmedSync(conn, data.getPlayerId(), referredId);
+                continue;
+            }
+
+            Long timestamp = data.getPendingReferrals().get(referredId);
+            if (timestamp != null) {
+                insertPendingSync(conn, data.getPlayerId(), referredId, timestamp);
+            } else {
+                deleteReferralSync(conn, data.getPlayerId(), referredId);
+            }
         }
+    }
 
-        clearAndInsertReferrals(conn, data);
+    private void insertPendingSync(Connection conn, UUID referrerId, UUID referredId, long timestamp) throws SQLException {
+        String sql = "INSERT INTO pending_referrals (referrer_uuid, referred_uuid, timestamp) VALUES (?, ?, ?) " +
+                "ON CONFLICT(referrer_uuid, referred_uuid) DO UPDATE SET timestamp = excluded.timestamp";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setBytes(1, UuidBytes.toBytes(referrerId));
+            stmt.setBytes(2, UuidBytes.toBytes(referredId));
+            stmt.setLong(3, timestamp);
+            stmt.executeUpdate();
+        }
     }
 
-    private void clearAndInsertReferrals(Connection conn, PlayerReferralData data) throws SQLException {
-        String sql = "DELETE FROM confirmed_referrals WHERE referrer_uuid = ?";
+    private void promotePendingToConfirmedSync(Connection conn, UUID referrerId, UUID referredId) throws SQLException {
+        String sql = "DELETE FROM pending_referrals WHERE referrer_uuid = ? AND referred_uuid = ?";
         try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, data.getPlayerId().toString());
+            stmt.setBytes(1, UuidBytes.toBytes(referrerId));
+            stmt.setBytes(2, UuidBytes.toBytes(referredId));
             stmt.executeUpdate();
         }
 
-        sql = "DELETE FROM pending_referrals WHERE referrer_uuid = ?";
+        sql = "INSERT OR IGNORE INTO confirmed_referrals (referrer_uuid, referred_uuid) VALUES (?, ?)";
         try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, data.getPlayerId().toString());
+            stmt.setBytes(1, UuidBytes.toBytes(referrerId));
+            stmt.setBytes(2, UuidBytes.toBytes(referredId));
             stmt.executeUpdate();
         }
+    }
 
-        if (!data.getConfirmedReferrals().isEmpty()) {
-            sql = "INSERT INTO confirmed_referrals (referrer_uuid, referred_uuid) VALUES (?, ?)";
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                for (UUID referredUuid : data.getConfirmedReferrals()) {
-                    stmt.setString(1, data.getPlayerId().toString());
-                    stmt.setString(2, referredUuid.toString());
-                    stmt.addBatch();
-                }
-                stmt.executeBatch();
-            }
+    private void deleteReferralSync(Connection conn, UUID referrerId, UUID referredId) throws SQLException {
+        String sql = "DELETE FROM confirmed_referrals WHERE referrer_uuid = ? AND referred_uuid = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setBytes(1, UuidBytes.toBytes(referrerId));
+            stmt.setBytes(2, UuidBytes.toBytes(referredId));
+            stmt.executeUpdate();
         }
 
-        if (!data.getPendingReferrals().isEmpty()) {
-            sql = "INSERT INTO pending_referrals (referrer_uuid, referred_uuid, timestamp) VALUES (?, ?, ?)";
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                for (Map.Entry<UUID, Long> entry : data.getPendingReferrals().entrySet()) {
-                    stmt.setString(1, data.getPlayerId().toString());
-                    stmt.setString(2, entry.getKey().toString());
-                    stmt.setLong(3, entry.getValue());
-                    stmt.addBatch();
-                }
-                stmt.executeBatch();
-            }
+        sql = "DELETE FROM pending_referrals WHERE referrer_uuid = ? AND referred_uuid = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setBytes(1, UuidBytes.toBytes(referrerId));
+            stmt.setBytes(2, UuidBytes.toBytes(referredId));
+            stmt.executeUpdate();
         }
     }
 
@@ -272,8 +479,8 @@ public class SqliteDatabaseManager implements DatabaseManager {
                      ResultSet rs = stmt.executeQuery()) {
 
                     while (rs.next()) {
-                        UUID referrerUuid = UUID.fromString(rs.getString("referrer_uuid"));
-                        UUID referredUuid = UUID.fromString(rs.getString("referred_uuid"));
+                        UUID referrerUuid = UuidBytes.fromBytes(rs.getBytes("referrer_uuid"));
+                        UUID referredUuid = UuidBytes.fromBytes(rs.getBytes("referred_uuid"));
                         mappings.put(referredUuid, referrerUuid);
                     }
                 }
@@ -283,8 +490,8 @@ public class SqliteDatabaseManager implements DatabaseManager {
                      ResultSet rs = stmt.executeQuery()) {
 
                     while (rs.next()) {
-                        UUID referrerUuid = UUID.fromString(rs.getString("referrer_uuid"));
-                        UUID referredUuid = UUID.fromString(rs.getString("referred_uuid"));
+                        UUID referrerUuid = UuidBytes.fromBytes(rs.getBytes("referrer_uuid"));
+                        UUID referredUuid = UuidBytes.fromBytes(rs.getBytes("referred_uuid"));
                         mappings.put(referredUuid, referrerUuid);
                     }
                 }
@@ -294,89 +501,78 @@ public class SqliteDatabaseManager implements DatabaseManager {
             }
 
             return mappings;
-        });
+        }, executor);
     }
 
     @Override
-    public CompletableFuture<Map<UUID, Long>> loadFirstJoinTimes() {
-        return CompletableFuture.supplyAsync(() -> {
-            Map<UUID, Long> firstJoinTimes = new HashMap<>();
-
-            try (Connection conn = getConnection()) {
-                String sql = "SELECT uuid, first_join_time FROM players WHERE first_join_time IS NOT NULL";
-                try (PreparedStatement stmt = conn.prepareStatement(sql);
-                     ResultSet rs = stmt.executeQuery()) {
-
-                    while (rs.next()) {
-                        UUID uuid = UUID.fromString(rs.getString("uuid"));
-                        long timestamp = rs.getLong("first_join_time");
-                        firstJoinTimes.put(uuid, timestamp);
-                    }
-                }
-            } catch (SQLException e) {
-                plugin.getLogger().severe("Error loading first join times from SQLite: " + e.getMessage());
-                throw new RuntimeException(e);
+    public CompletableFuture<Void> saveFirstJoinTime(UUID playerId, long timestamp) {
+        return writer.submit("saving first join time", conn -> {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO players (uuid, name, referral_enabled, claimed_payout, first_join_time) VALUES (?, 'Unknown', FALSE, FALSE, ?) " +
+                            "ON CONFLICT(uuid) DO UPDATE SET first_join_time = excluded.first_join_time")) {
+                stmt.setBytes(1, UuidBytes.toBytes(playerId));
+                stmt.setLong(2, timestamp);
+                stmt.executeUpdate();
             }
+        });
+    }
 
-            return firstJoinTimes;
+    @Override
+    public CompletableFuture<Void> savePlayerIP(UUID playerId, String ipAddress) {
+        return writer.submit("saving player IP", conn -> {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO players (uuid, name, referral_enabled, claimed_payout, ip_address) VALUES (?, 'Unknown', FALSE, FALSE, ?) " +
+                            "ON CONFLICT(uuid) DO UPDATE SET ip_address = excluded.ip_address")) {
+                stmt.setBytes(1, UuidBytes.toBytes(playerId));
+                stmt.setString(2, ipAddress);
+                stmt.executeUpdate();
+            }
         });
     }
 
     @Override
-    public CompletableFuture<Void> saveFirstJoinTime(UUID playerId, long timestamp) {
-        return CompletableFuture.runAsync(() -> {
-            try (Connection conn = getConnection();
-                 PreparedStatement stmt = conn.prepareStatement(
-                         "INSERT INTO players (uuid, name, referral_enabled, claimed_payout, first_join_time) VALUES (?, 'Unknown', FALSE, FALSE, ?) " +
-                                 "ON CONFLICT(uuid) DO UPDATE SET first_join_time = excluded.first_join_time")) {
-                stmt.setString(1, playerId.toString());
-                stmt.setLong(2, timestamp);
+    public CompletableFuture<Void> saveIpSighting(UUID playerId, byte[] address, long timestamp) {
+        return writer.submit("saving IP history", conn -> {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO ip_history (uuid, ip_address, first_seen, last_seen) VALUES (?, ?, ?, ?) " +
+                            "ON CONFLICT(uuid, ip_address) DO UPDATE SET last_seen = MAX(last_seen, excluded.last_seen)")) {
+                stmt.setBytes(1, UuidBytes.toBytes(playerId));
+                stmt.setBytes(2, address);
+                stmt.setLong(3, timestamp);
+                stmt.setLong(4, timestamp);
                 stmt.executeUpdate();
-            } catch (SQLException e) {
-                plugin.getLogger().severe("Error saving first join time to SQLite: " + e.getMessage());
-                throw new RuntimeException(e);
             }
         });
     }
 
     @Override
-    public CompletableFuture<Map<UUID, String>> loadPlayerIPs() {
+    public CompletableFuture<List<IpSighting>> loadIpHistory(long since) {
         return CompletableFuture.supplyAsync(() -> {
-            Map<UUID, String> playerIPs = new HashMap<>();
-
-            try (Connection conn = getConnection()) {
-                String sql = "SELECT uuid, ip_address FROM players WHERE ip_address IS NOT NULL";
-                try (PreparedStatement stmt = conn.prepareStatement(sql);
-                     ResultSet rs = stmt.executeQuery()) {
+            List<IpSighting> history = new ArrayList<>();
 
+            try (Connection conn = getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("SELECT uuid, ip_address, last_seen FROM ip_history WHERE last_seen >= ?")) {
+                stmt.setLong(1, since);
+                try (ResultSet rs = stmt.executeQuery()) {
                     while (rs.next()) {
-                        UUID uuid = UUID.fromString(rs.getString("uuid"));
-                        String ipAddress = rs.getString("ip_address");
-                        playerIPs.put(uuid, ipAddress);
+                        history.add(new IpSighting(UuidBytes.fromBytes(rs.getBytes("uuid")), rs.getBytes("ip_address"), rs.getLong("last_seen")));
                     }
                 }
             } catch (SQLException e) {
-                plugin.getLogger().severe("Error loading player IPs from SQLite: " + e.getMessage());
+                plugin.getLogger().severe("Error loading IP history from SQLite: " + e.getMessage());
                 throw new RuntimeException(e);
             }
 
-            return playerIPs;
-        });
+            return history;
+        }, executor);
     }
 
     @Override
-    public CompletableFuture<Void> savePlayerIP(UUID playerId, String ipAddress) {
-        return CompletableFuture.runAsync(() -> {
-            try (Connection conn = getConnection();
-                 PreparedStatement stmt = conn.prepareStatement(
-                         "INSERT INTO players (uuid, name, referral_enabled, claimed_payout, ip_address) VALUES (?, 'Unknown', FALSE, FALSE, ?) " +
-                                 "ON CONFLICT(uuid) DO UPDATE SET ip_address = excluded.ip_address")) {
-                stmt.setString(1, playerId.toString());
-                stmt.setString(2, ipAddress);
+    public CompletableFuture<Void> pruneIpHistory(long before) {
+        return writer.submit("pruning IP history", conn -> {
+            try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM ip_history WHERE last_seen < ?")) {
+                stmt.setLong(1, before);
                 stmt.executeUpdate();
-            } catch (SQLException e) {
-                plugin.getLogger().severe("Error saving player IP to SQLite: " + e.getMessage());
-                throw new RuntimeException(e);
             }
         });
     }
@@ -386,37 +582,7 @@ public class SqliteDatabaseManager implements DatabaseManager {
         return "SQLITE";
     }
 
-    private void rollbackQuietly(Connection conn, String messagePrefix) {
-        if (conn == null) {
-            return;
-        }
-
-        try {
-            if (!conn.getAutoCommit()) {
-                conn.rollback();
-            }
-        } catch (SQLException e) {
-            plugin.getLogger().severe(messagePrefix + ": " + e.getMessage());
-        }
-    }
-
-    private void resetAutoCommitAndClose(Connection conn) {
-        if (conn == null) {
-            return;
-        }
-
-        try {
-            if (!conn.getAutoCommit()) {
-                conn.setAutoCommit(true);
-            }
-        } catch (SQLException e) {
-            plugin.getLogger().severe("Error resetting SQLite auto-commit: " + e.getMessage());
-        }
-
-        try {
-            conn.close();
-        } catch (SQLException e) {
-            plugin.getLogger().warning("Error closing SQLite connection: " + e.getMessage());
-        }
+    public SqliteWriter getWriter() {
+        return writer;
     }
 }
@@ -0,0 +1,63 @@
+package me.itzrenzo.referra.database.impl;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Connection settings for the SQLite backend.
+ *
+ * @param persistentConnection  keep connections open instead of reopening the file for every operation
+ * @param statementCacheSize    prepared statements kept per persistent connection
+ * @param readConnections       read-only connections shared by queries
+ * @param writeBatchSize        most queued writes committed together in one transaction
+ * @param writeBatchDelayMillis how long the writer waits for more writes before committing a batch that is not full
+ */
+public record SqliteSettings(boolean persistentConnection, String journalMode, String synchronous, long mmapSize,
+                             long cacheSize, String tempStore, int busyTimeoutMillis, int statementCacheSize,
+                             int readConnections, int writeBatchSize, long writeBatchDelayMillis) {
+    private static final Set<String> JOURNAL_MODES = Set.of("DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL", "OFF");
+    private static final Set<String> SYNCHRONOUS_MODES = Set.of("OFF", "NORMAL", "FULL", "EXTRA");
+    private static final Set<String> TEMP_STORES = Set.of("DEFAULT", "FILE", "MEMORY");
+
+    public static final SqliteSettings DEFAULTS = new SqliteSettings(true, "WAL", "NORMAL", 256L * 1024 * 1024,
+            -16_000, "MEMORY", 5000, 64, 4, 256, 2);
+
+    public SqliteSettings {
+        journalMode = checked(journalMode, JOURNAL_MODES, "journal-mode");
+        synchronous = checked(synchronous, SYNCHRONOUS_MODES, "synchronous");
+        tempStore = checked(tempStore, TEMP_STORES, "temp-store");
+        mmapSize = Math.max(0, mmapSize);
+        busyTimeoutMillis = Math.max(0, busyTimeoutMillis);
+        statementCacheSize = Math.max(0, statementCacheSize);
+        readConnections = Math.max(1, readConnections);
+        writeBatchSize = Math.max(1, writeBatchSize);
+        writeBatchDelayMillis = Math.max(0, writeBatchDelayMillis);
+    }
+
+    public SqliteSettings withPersistentConnection(boolean persistent) {
+        return new SqliteSettings(persistent, journalMode, synchronous, mmapSize, cacheSize, tempStore, busyTimeoutMillis,
+                persistent ? statementCacheSize : 0, readConnections, writeBatchSize, writeBatchDelayMillis);
+    }
+
+    /**
+     * @return the pragmas to run on every newly opened connection, in order
+     */
+    public String[] pragmas() {
+        return new String[] {
+                "PRAGMA journal_mode = " + journalMode,
+                "PRAGMA synchronous = " + synchronous,
+                "PRAGMA mmap_size = " + mmapSize,
+                "PRAGMA cache_size = " + cacheSize,
+                "PRAGMA temp_store = " + tempStore,
+                "PRAGMA busy_timeout = " + busyTimeoutMillis
+        };
+    }
+
+    private static String checked(String value, Set<String> allowed, String name) {
+        String normalized = value.toUpperCase(Locale.ROOT);
+        if (!allowed.contains(normalized)) {
+            throw new IllegalArgumentException("Invalid SQLite " + name + " '" + value + "', expected one of " + allowed);
+        }
+        return normalized;
+    }
+}
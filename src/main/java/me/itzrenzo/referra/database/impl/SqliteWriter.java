@@ -0,0 +1,243 @@
+package me.itzrenzo.referra.database.impl;
+
+import org.bukkit.plugin.Plugin;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The only thread that writes to the SQLite file. Queued writes are drained in batches of up to {@code writeBatchSize}
+ * and committed together in one transaction, so concurrent saves share a single fsync instead of fighting over the
+ * write lock. Each write runs under its own savepoint, so one failing write does not roll back the rest of its batch.
+ * Futures complete on the writer thread once the batch is committed and must not block on other writes.
+ */
+public class SqliteWriter implements AutoCloseable {
+    private record Write(String description, SqlWork work, CompletableFuture<Void> result) {
+    }
+
+    private final Plugin plugin;
+    private final SqliteConnectionProvider connections;
+    private final int maxBatchSize;
+    private final long maxBatchDelayNanos;
+    private final boolean persistentConnection;
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean accepting = true;
+    private SqliteConnectionProvider.PooledConnection connection;
+
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile int maxBatch;
+    private volatile long lastCommitNanos;
+    private volatile long maxCommitNanos;
+
+    public SqliteWriter(Plugin plugin, SqliteConnectionProvider connections, SqliteSettings settings) {
+        this.plugin = plugin;
+        this.connections = connections;
+        this.maxBatchSize = settings.writeBatchSize();
+        this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(settings.writeBatchDelayMillis());
+        this.persistentConnection = settings.persistentConnection();
+        this.thread = Thread.ofPlatform().name("referra-sqlite-writer").daemon(true).start(this::runLoop);
+    }
+
+    /**
+     * Queues a write. The returned future completes once the transaction containing it has committed.
+     */
+    public synchronized CompletableFuture<Void> submit(String description, SqlWork work) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (!accepting) {
+            result.completeExceptionally(new IllegalStateException("SQLite writer is closed"));
+            return result;
+        }
+        queue.add(new Write(description, work, result));
+        return result;
+    }
+
+    private void runLoop() {
+        List<Write> batch = new ArrayList<>(maxBatchSize);
+        while (accepting || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fillBatch(batch);
+            } catch (InterruptedException e) {
+                // close() interrupts a writer that is waiting, anything queued is still drained
+            }
+
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+        closeConnection();
+    }
+
+    private void fillBatch(List<Write> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + maxBatchDelayNanos;
+        while (batch.size() < maxBatchSize) {
+            Write next = queue.poll();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !accepting) {
+                    return;
+                }
+                next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    return;
+                }
+            }
+            batch.add(next);
+        }
+    }
+
+    private void commit(List<Write> batch) {
+        long start = System.nanoTime();
+        List<Write> applied = new ArrayList<>(batch.size());
+        Connection conn = null;
+        try {
+            conn = connection().lease(released -> { });
+            conn.setAutoCommit(false);
+            for (Write write : batch) {
+                Savepoint savepoint = conn.setSavepoint();
+                try {
+                    write.work().run(conn);
+                    conn.releaseSavepoint(savepoint);
+                    applied.add(write);
+                } catch (SQLException | RuntimeException e) {
+                    conn.rollback(savepoint);
+                    fail(write, e);
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            rollbackQuietly(conn);
+            applied.forEach(write -> fail(write, e));
+            applied.clear();
+            // Reopen on the next batch in case the connection itself is broken
+            closeConnection();
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true);
+                } catch (SQLException ignored) {
+                    // The connection is reopened by the next batch if it is gone
+                }
+            }
+            if (!persistentConnection) {
+                closeConnection();
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        lastCommitNanos = elapsed;
+        maxCommitNanos = Math.max(maxCommitNanos, elapsed);
+        maxBatch = Math.max(maxBatch, batch.size());
+        batchCount.incrementAndGet();
+        writeCount.addAndGet(batch.size());
+        applied.forEach(write -> write.result().complete(null));
+    }
+
+    private SqliteConnectionProvider.PooledConnection connection() throws SQLException {
+        if (connection == null) {
+            connection = connections.openWriteConnection();
+        }
+        return connection;
+    }
+
+    private void fail(Write write, Exception e) {
+        failedCount.incrementAndGet();
+        plugin.getLogger().severe("Error " + write.description() + " in SQLite: " + e.getMessage());
+        write.result().completeExceptionally(new RuntimeException(e));
+    }
+
+    private void rollbackQuietly(Connection conn) {
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.rollback();
+        } catch (SQLException ignored) {
+            // Nothing more to undo
+        }
+    }
+
+    private void closeConnection() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            plugin.getLogger().warning("Error closing SQLite write connection: " + e.getMessage());
+        }
+        connection = null;
+    }
+
+    /**
+     * Stops accepting writes and waits for the queued ones to commit.
+     *
+     * @return true if the queue drained within the timeout
+     */
+    public boolean close(long timeout, TimeUnit unit) {
+        synchronized (this) {
+            accepting = false;
+        }
+        thread.interrupt();
+        try {
+            thread.join(unit.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !thread.isAlive();
+    }
+
+    @Override
+    public void close() {
+        close(30, TimeUnit.SECONDS);
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatch;
+    }
+
+    public double getAverageBatchSize() {
+        long batches = batchCount.get();
+        return batches == 0 ? 0.0 : (double) writeCount.get() / batches;
+    }
+
+    public double getLastCommitMillis() {
+        return lastCommitNanos / 1_000_000.0;
+    }
+
+    public double getMaxCommitMillis() {
+        return maxCommitNanos / 1_000_000.0;
+    }
+}
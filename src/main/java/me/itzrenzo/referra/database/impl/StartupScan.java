@@ -0,0 +1,113 @@
+package me.itzrenzo.referra.database.impl;
+
+import me.itzrenzo.referra.database.DataLoadSink;
+import me.itzrenzo.referra.util.UuidBytes;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+
+/**
+ * Reads whole tables for the startup load, streaming each row straight into a {@link DataLoadSink}. Scans can be
+ * limited to a range of binary UUIDs so a table can be read by several connections at once; a null bound leaves that
+ * side of the range open.
+ */
+public final class StartupScan {
+    private StartupScan() {
+    }
+
+    /**
+     * Estimates a SQLite table's rows from its largest rowid, read from the end of the table's b-tree instead of
+     * counting every row. Deleted rows leave gaps, so this can only overstate the count, which is fine for sizing.
+     */
+    public static int estimateRowCount(Connection conn, String table) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(rowid) FROM " + table)) {
+            return rs.next() ? (int) Math.min(rs.getLong(1), Integer.MAX_VALUE) : 0;
+        }
+    }
+
+    public static void players(Connection conn, byte[] from, byte[] to, int fetchSize, DataLoadSink sink) throws SQLException {
+        String sql = "SELECT uuid, name, referral_enabled, claimed_payout, first_join_time, ip_address FROM players"
+                + range("uuid", from, to);
+        try (PreparedStatement stmt = prepare(conn, sql, from, to, fetchSize);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                long firstJoinTime = rs.getLong("first_join_time");
+                sink.player(UuidBytes.fromBytes(rs.getBytes("uuid")), rs.getString("name"),
+                        rs.getBoolean("referral_enabled"), rs.getBoolean("claimed_payout"),
+                        rs.wasNull() ? null : firstJoinTime, rs.getString("ip_address"));
+            }
+        }
+    }
+
+    /**
+     * Scans the confirmed referrals and then the pending referrals whose referrer falls in the range.
+     */
+    public static void referrals(Connection conn, byte[] from, byte[] to, int fetchSize, DataLoadSink sink) throws SQLException {
+        String sql = "SELECT referrer_uuid, referred_uuid FROM confirmed_referrals" + range("referrer_uuid", from, to);
+        try (PreparedStatement stmt = prepare(conn, sql, from, to, fetchSize);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                UUID referrerId = UuidBytes.fromBytes(rs.getBytes("referrer_uuid"));
+                sink.confirmedReferral(referrerId, UuidBytes.fromBytes(rs.getBytes("referred_uuid")));
+            }
+        }
+
+        sql = "SELECT referrer_uuid, referred_uuid, timestamp FROM pending_referrals" + range("referrer_uuid", from, to);
+        try (PreparedStatement stmt = prepare(conn, sql, from, to, fetchSize);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                UUID referrerId = UuidBytes.fromBytes(rs.getBytes("referrer_uuid"));
+                sink.pendingReferral(referrerId, UuidBytes.fromBytes(rs.getBytes("referred_uuid")), rs.getLong("timestamp"));
+            }
+        }
+    }
+
+    /**
+     * Splits the UUID space into {@code parts} ranges on the first UUID byte. Returns {@code parts + 1} bounds where
+     * range {@code i} runs from bound {@code i} inclusive to bound {@code i + 1} exclusive; the outer bounds are null.
+     */
+    public static byte[][] splitUuidRange(int parts) {
+        parts = Math.max(1, Math.min(256, parts));
+        byte[][] bounds = new byte[parts + 1][];
+        for (int i = 1; i < parts; i++) {
+            bounds[i] = new byte[UuidBytes.LENGTH];
+            bounds[i][0] = (byte) (i * 256 / parts);
+        }
+        return bounds;
+    }
+
+    private static String range(String column, byte[] from, byte[] to) {
+        if (from == null && to == null) {
+            return "";
+        }
+        if (from == null) {
+            return " WHERE " + column + " < ?";
+        }
+        return to == null ? " WHERE " + column + " >= ?" : " WHERE " + column + " >= ? AND " + column + " < ?";
+    }
+
+    private static PreparedStatement prepare(Connection conn, String sql, byte[] from, byte[] to, int fetchSize) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            int index = 1;
+            if (from != null) {
+                stmt.setBytes(index++, from);
+            }
+            if (to != null) {
+                stmt.setBytes(index, to);
+            }
+            if (fetchSize != 0) {
+                stmt.setFetchSize(fetchSize);
+            }
+            return stmt;
+        } catch (SQLException e) {
+            stmt.close();
+            throw e;
+        }
+    }
+}
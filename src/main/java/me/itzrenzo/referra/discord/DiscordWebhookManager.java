@@ -1,6 +1,12 @@
 package me.itzrenzo.referra.discord;
 
-import org.bukkit.plugin.java.JavaPlugin;
+import me.itzrenzo.referra.jfr.EventThresholds;
+import me.itzrenzo.referra.jfr.WebhookDeliveryEvent;
+import me.itzrenzo.referra.metrics.Counter;
+import me.itzrenzo.referra.metrics.LatencyHistogram;
+import me.itzrenzo.referra.metrics.MetricsRegistry;
+import me.itzrenzo.referra.util.BoundedExecutor;
+import org.bukkit.plugin.Plugin;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -9,9 +15,17 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class DiscordWebhookManager {
-    private final JavaPlugin plugin;
+    private final Plugin plugin;
+    private final BoundedExecutor executor;
+    private final LatencyHistogram sendLatency;
+    private final Counter delivered;
+    private final Counter failed;
+    private final Counter dropped;
+    private final EventThresholds eventThresholds;
 
     private boolean enabled;
     private String webhookUrl;
@@ -21,9 +35,17 @@ public class DiscordWebhookManager {
     private int embedColor;
     private boolean notifyThresholdReached;
     private boolean notifyReferralConfirmed;
+    private int connectTimeoutMillis;
+    private int readTimeoutMillis;
 
-    public DiscordWebhookManager(JavaPlugin plugin) {
+    public DiscordWebhookManager(Plugin plugin, BoundedExecutor executor, MetricsRegistry metrics, EventThresholds eventThresholds) {
         this.plugin = plugin;
+        this.executor = executor;
+        this.eventThresholds = eventThresholds;
+        this.sendLatency = metrics.histogram("referra_webhook_seconds", "Time taken to post a Discord webhook");
+        this.delivered = metrics.counter("referra_webhooks", "Discord webhooks by outcome", "result", "delivered");
+        this.failed = metrics.counter("referra_webhooks", "Discord webhooks by outcome", "result", "failed");
+        this.dropped = metrics.counter("referra_webhooks", "Discord webhooks by outcome", "result", "dropped");
         loadConfiguration();
     }
 
@@ -36,6 +58,8 @@ public class DiscordWebhookManager {
         embedColor = plugin.getConfig().getInt("discord.webhook.embed-color", 5814783);
         notifyThresholdReached = plugin.getConfig().getBoolean("discord.notifications.threshold-reached", true);
         notifyReferralConfirmed = plugin.getConfig().getBoolean("discord.notifications.referral-confirmed", false);
+        connectTimeoutMillis = Math.max(1, plugin.getConfig().getInt("discord.connect-timeout-ms", 5000));
+        readTimeoutMillis = Math.max(1, plugin.getConfig().getInt("discord.read-timeout-ms", 10000));
 
         if (enabled && (webhookUrl.isEmpty() || webhookUrl.contains("YOUR_WEBHOOK"))) {
             plugin.getLogger().warning("Discord webhook is enabled but no valid webhook URL is configured!");
@@ -80,26 +104,56 @@ public class DiscordWebhookManager {
     }
 
     private void sendWebhook(DiscordEmbed embed) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                HttpURLConnection connection = (HttpURLConnection) new URL(webhookUrl).openConnection();
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Type", "application/json");
-                connection.setDoOutput(true);
-
-                try (OutputStream os = connection.getOutputStream()) {
-                    byte[] input = buildWebhookPayload(embed).getBytes(StandardCharsets.UTF_8);
-                    os.write(input, 0, input.length);
-                }
-
-                int responseCode = connection.getResponseCode();
-                if (responseCode != 200 && responseCode != 204) {
-                    plugin.getLogger().warning("Discord webhook failed with response code: " + responseCode);
-                }
-            } catch (IOException e) {
-                plugin.getLogger().warning("Failed to send Discord webhook: " + e.getMessage());
+        try {
+            CompletableFuture.runAsync(() -> postWebhook(embed), executor);
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+            plugin.getLogger().warning("Dropping Discord webhook: " + e.getMessage());
+        }
+    }
+
+    private void postWebhook(DiscordEmbed embed) {
+        WebhookDeliveryEvent event = new WebhookDeliveryEvent();
+        event.begin();
+        long started = System.nanoTime();
+        int responseCode = -1;
+        String error = null;
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(webhookUrl).openConnection();
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setDoOutput(true);
+
+            try (OutputStream os = connection.getOutputStream()) {
+                byte[] input = buildWebhookPayload(embed).getBytes(StandardCharsets.UTF_8);
+                os.write(input, 0, input.length);
+            }
+
+            responseCode = connection.getResponseCode();
+            if (responseCode != 200 && responseCode != 204) {
+                failed.increment();
+                plugin.getLogger().warning("Discord webhook failed with response code: " + responseCode);
+            } else {
+                delivered.increment();
+            }
+        } catch (IOException e) {
+            failed.increment();
+            error = e.getClass().getSimpleName() + ": " + e.getMessage();
+            plugin.getLogger().warning("Failed to send Discord webhook: " + e.getMessage());
+        } finally {
+            long elapsed = System.nanoTime() - started;
+            sendLatency.record(elapsed);
+            event.end();
+            if (elapsed >= eventThresholds.getWebhookDeliveryNanos() && event.shouldCommit()) {
+                event.notification = embed.title;
+                event.responseCode = responseCode;
+                event.delivered = responseCode == 200 || responseCode == 204;
+                event.error = error;
+                event.commit();
             }
-        });
+        }
     }
 
     private String buildWebhookPayload(DiscordEmbed embed) {
@@ -128,6 +182,14 @@ public class DiscordWebhookManager {
                 .replace("\t", "\\t");
     }
 
+    public BoundedExecutor getExecutor() {
+        return executor;
+    }
+
+    public void close() {
+        executor.shutdown(5, TimeUnit.SECONDS);
+    }
+
     public String getServerInvite() {
         return serverInvite;
     }
@@ -0,0 +1,29 @@
+package me.itzrenzo.referra.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * One player checked for a referral that can be confirmed, on join or by the periodic scan.
+ */
+@Name("me.itzrenzo.referra.ConfirmationCheck")
+@Label("Referral Confirmation Check")
+@Category({"Referra", "Referrals"})
+@Description("A referral confirmation check that took longer than jfr.thresholds.confirmation-check-ms")
+@Threshold("0 ms")
+@StackTrace(false)
+public class ConfirmationCheckEvent extends jdk.jfr.Event {
+    @Label("Player")
+    public String player;
+
+    @Label("Referrer")
+    public String referrer;
+
+    @Label("Outcome")
+    @Description("confirmed, not-referred, playtime, not-pending or referrer-missing")
+    public String outcome;
+}
@@ -0,0 +1,33 @@
+package me.itzrenzo.referra.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A {@code DatabaseManager} call, from the call until its future completed, so time spent queued for the database
+ * executor or a writer thread is included.
+ */
+@Name("me.itzrenzo.referra.DatabaseCall")
+@Label("Database Call")
+@Category({"Referra", "Database"})
+@Description("A referral database operation that took longer than jfr.thresholds.database-call-ms")
+@Threshold("0 ms")
+@StackTrace(false)
+public class DatabaseCallEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    public String operation;
+
+    @Label("Rows")
+    @Description("Rows read or written, or -1 when the backend does not report it")
+    public long rows;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+
+    @Label("Error")
+    public String error;
+}
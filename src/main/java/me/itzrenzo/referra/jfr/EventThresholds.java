@@ -0,0 +1,48 @@
+package me.itzrenzo.referra.jfr;
+
+import org.bukkit.plugin.Plugin;
+
+/**
+ * How long each Referra flight recorder event has to take before it is recorded, from the {@code jfr.thresholds}
+ * section of the config. A recording's own threshold for an event still applies on top of these.
+ */
+public final class EventThresholds {
+    private final Plugin plugin;
+    private volatile long databaseCallNanos;
+    private volatile long confirmationCheckNanos;
+    private volatile long referralDecisionNanos;
+    private volatile long webhookDeliveryNanos;
+
+    public EventThresholds(Plugin plugin) {
+        this.plugin = plugin;
+        loadConfiguration();
+    }
+
+    public void loadConfiguration() {
+        databaseCallNanos = load("database-call-ms", 10);
+        confirmationCheckNanos = load("confirmation-check-ms", 1);
+        referralDecisionNanos = load("referral-decision-ms", 0);
+        webhookDeliveryNanos = load("webhook-delivery-ms", 500);
+    }
+
+    private long load(String key, double defaultMillis) {
+        double millis = plugin.getConfig().getDouble("jfr.thresholds." + key, defaultMillis);
+        return (long) (Math.max(0.0, millis) * 1_000_000);
+    }
+
+    public long getDatabaseCallNanos() {
+        return databaseCallNanos;
+    }
+
+    public long getConfirmationCheckNanos() {
+        return confirmationCheckNanos;
+    }
+
+    public long getReferralDecisionNanos() {
+        return referralDecisionNanos;
+    }
+
+    public long getWebhookDeliveryNanos() {
+        return webhookDeliveryNanos;
+    }
+}
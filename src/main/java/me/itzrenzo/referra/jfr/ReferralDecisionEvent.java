@@ -0,0 +1,32 @@
+package me.itzrenzo.referra.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A request to add a referral, including the time spent waiting for the player locks.
+ */
+@Name("me.itzrenzo.referra.ReferralDecision")
+@Label("Referral Decision")
+@Category({"Referra", "Referrals"})
+@Description("An add-referral decision that took longer than jfr.thresholds.referral-decision-ms")
+@Threshold("0 ms")
+@StackTrace(false)
+public class ReferralDecisionEvent extends jdk.jfr.Event {
+    @Label("Referrer")
+    public String referrer;
+
+    @Label("Referred")
+    public String referred;
+
+    @Label("Accepted")
+    public boolean accepted;
+
+    @Label("Rejected By")
+    @Description("The check that rejected the referral: already-referred, referrer-unavailable, limit-reached, cycle or same-ip")
+    public String rejectedBy;
+}
@@ -0,0 +1,32 @@
+package me.itzrenzo.referra.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * One attempt to post a Discord webhook.
+ */
+@Name("me.itzrenzo.referra.WebhookDelivery")
+@Label("Webhook Delivery")
+@Category({"Referra", "Discord"})
+@Description("A Discord webhook post that took longer than jfr.thresholds.webhook-delivery-ms")
+@Threshold("0 ms")
+@StackTrace(false)
+public class WebhookDeliveryEvent extends jdk.jfr.Event {
+    @Label("Notification")
+    public String notification;
+
+    @Label("Response Code")
+    @Description("The HTTP status, or -1 when no response was received")
+    public int responseCode;
+
+    @Label("Delivered")
+    public boolean delivered;
+
+    @Label("Error")
+    public String error;
+}
@@ -1,22 +1,45 @@
 package me.itzrenzo.referra.listeners;
 
 import me.itzrenzo.referra.data.ReferralDataManager;
+import me.itzrenzo.referra.metrics.Counter;
+import me.itzrenzo.referra.metrics.LatencyHistogram;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
-import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.scheduler.BukkitTask;
 import org.bukkit.scheduler.BukkitRunnable;
 
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
 public class PlayerEventListener implements Listener {
     private final ReferralDataManager dataManager;
-    private final JavaPlugin plugin;
+    private final Plugin plugin;
+    private final Set<UUID> queuedJoins = Collections.synchronizedSet(new LinkedHashSet<>());
+    private final LatencyHistogram joinLatency;
+    private final Counter joinsQueued;
+    private final LatencyHistogram scanLatency;
+    private final Counter scannedPlayers;
     private BukkitTask referralCheckTask;
     
-    public PlayerEventListener(ReferralDataManager dataManager, JavaPlugin plugin) {
+    public PlayerEventListener(ReferralDataManager dataManager, Plugin plugin) {
         this.dataManager = dataManager;
         this.plugin = plugin;
+        this.joinLatency = dataManager.getMetrics().histogram("referra_join_seconds", "Main thread time spent handling a player join");
+        this.joinsQueued = dataManager.getMetrics().counter("referra_joins_queued", "Joins deferred because the data was still loading");
+        this.scanLatency = dataManager.getMetrics().histogram("referra_confirmation_scan_seconds",
+                "Main thread time spent checking every online player for confirmed referrals");
+        this.scannedPlayers = dataManager.getMetrics().counter("referra_confirmation_scan_players", "Players checked by confirmation scans");
 
         reloadCheckTask();
     }
@@ -37,23 +60,96 @@ public class PlayerEventListener implements Listener {
         plugin.getLogger().info("Referral check task started with " + dataManager.getCheckIntervalMinutes() + " minute intervals");
     }
     
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+
+        if (dataManager.isReady()) {
+            dataManager.prefetchPlayer(event.getUniqueId());
+        }
+    }
+    
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
-        Player player = event.getPlayer();
+        if (!dataManager.isReady()) {
+            queuedJoins.add(event.getPlayer().getUniqueId());
+            joinsQueued.increment();
+            return;
+        }
 
-        String playerIP = null;
-        if (player.getAddress() != null && player.getAddress().getAddress() != null) {
-            playerIP = player.getAddress().getAddress().getHostAddress();
+        handleJoin(event.getPlayer());
+    }
+    
+    private void handleJoin(Player player) {
+        long started = System.nanoTime();
+        dataManager.loadOnlinePlayer(player.getUniqueId());
+
+        InetAddress playerAddress = null;
+        if (player.getAddress() != null) {
+            playerAddress = player.getAddress().getAddress();
         }
-        dataManager.recordPlayerIP(player.getUniqueId(), playerIP);
+        dataManager.recordPlayerIP(player.getUniqueId(), playerAddress);
         dataManager.recordFirstJoin(player.getUniqueId());
         dataManager.checkAndConfirmReferrals(player);
         dataManager.sendRewardReminder(player);
+        joinLatency.recordSince(started);
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        queuedJoins.remove(event.getPlayer().getUniqueId());
+        if (!dataManager.isReady()) {
+            return;
+        }
+
+        dataManager.unloadPlayer(event.getPlayer().getUniqueId());
+    }
+    
+    /**
+     * Prefetches the players who joined while the data was loading. Safe to call off the main thread.
+     */
+    public void prefetchQueuedJoins() {
+        for (UUID playerId : snapshotQueuedJoins()) {
+            dataManager.prefetchPlayer(playerId);
+        }
+    }
+    
+    /**
+     * Runs the join handling that was skipped while the data was loading, for every queued player still online.
+     */
+    public void replayQueuedJoins() {
+        List<UUID> joins = snapshotQueuedJoins();
+        queuedJoins.clear();
+        for (UUID playerId : joins) {
+            Player player = plugin.getServer().getPlayer(playerId);
+            if (player != null) {
+                handleJoin(player);
+            }
+        }
+
+        if (!joins.isEmpty()) {
+            plugin.getLogger().info("Replayed " + joins.size() + " player joins from while referral data was loading");
+        }
+    }
+    
+    private List<UUID> snapshotQueuedJoins() {
+        synchronized (queuedJoins) {
+            return new ArrayList<>(queuedJoins);
+        }
     }
     
     private void checkAllPlayersForReferralConfirmation() {
+        if (!dataManager.isReady()) {
+            return;
+        }
+
+        long started = System.nanoTime();
         for (Player player : plugin.getServer().getOnlinePlayers()) {
             dataManager.checkAndConfirmReferrals(player);
+            scannedPlayers.increment();
         }
+        scanLatency.recordSince(started);
     }
 }
\ No newline at end of file
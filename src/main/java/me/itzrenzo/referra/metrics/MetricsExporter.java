@@ -0,0 +1,126 @@
+package me.itzrenzo.referra.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Publishes a {@link MetricsRegistry} as the {@code metrics} section of the config asks: over JMX, as an OpenMetrics
+ * text file rewritten on an interval, and on an HTTP endpoint that only listens on the loopback address.
+ */
+public class MetricsExporter {
+    private static final String OBJECT_NAME = "me.itzrenzo.referra:type=Metrics";
+
+    private final Plugin plugin;
+    private final MetricsRegistry registry;
+    private ObjectName registeredName;
+    private BukkitTask fileTask;
+    private HttpServer httpServer;
+
+    public MetricsExporter(Plugin plugin, MetricsRegistry registry) {
+        this.plugin = plugin;
+        this.registry = registry;
+    }
+
+    /**
+     * Starts every export the config turns on, stopping the ones from an earlier call first.
+     */
+    public void start() {
+        close();
+
+        if (plugin.getConfig().getBoolean("metrics.jmx", true)) {
+            registerMBean();
+        }
+
+        String file = plugin.getConfig().getString("metrics.openmetrics.file", "");
+        if (file != null && !file.isBlank()) {
+            Path path = plugin.getDataFolder().toPath().resolve(file);
+            long intervalTicks = Math.max(1L, plugin.getConfig().getLong("metrics.openmetrics.file-interval-seconds", 15)) * 20L;
+            fileTask = plugin.getServer().getScheduler()
+                    .runTaskTimerAsynchronously(plugin, () -> writeFile(path), intervalTicks, intervalTicks);
+        }
+
+        int port = plugin.getConfig().getInt("metrics.openmetrics.http-port", 0);
+        if (port > 0) {
+            startHttpServer(port);
+        }
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            // Left behind when the plugin was reloaded without stopping the server
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new MetricsMBean(registry), name);
+            registeredName = name;
+        } catch (JMException e) {
+            plugin.getLogger().warning("Could not publish metrics over JMX: " + e.getMessage());
+        }
+    }
+
+    private void writeFile(Path path) {
+        // Written next to the file and moved over it, so a collector never reads half a file
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            Files.writeString(temporary, OpenMetricsFormat.format(registry));
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Could not write metrics to " + path + ": " + e.getMessage());
+        }
+    }
+
+    private void startHttpServer(int port) {
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            httpServer.createContext("/metrics", exchange -> {
+                byte[] body = OpenMetricsFormat.format(registry).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", OpenMetricsFormat.CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            });
+            httpServer.start();
+            plugin.getLogger().info("Serving metrics on http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + port + "/metrics");
+        } catch (IOException e) {
+            httpServer = null;
+            plugin.getLogger().warning("Could not serve metrics on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    public void close() {
+        if (fileTask != null) {
+            fileTask.cancel();
+            fileTask = null;
+        }
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException e) {
+                plugin.getLogger().warning("Could not remove the metrics from JMX: " + e.getMessage());
+            }
+            registeredName = null;
+        }
+    }
+}
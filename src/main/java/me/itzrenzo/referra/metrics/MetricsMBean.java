@@ -0,0 +1,97 @@
+package me.itzrenzo.referra.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ReflectionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Read-only JMX view of a {@link MetricsRegistry}. Every counter and gauge is one attribute, named after the metric
+ * with its label value appended after a dot; every histogram adds count, mean, p50, p99 and max attributes. The
+ * attribute list follows the registry, so metrics registered later show up the next time a client refreshes.
+ */
+public final class MetricsMBean implements DynamicMBean {
+    private final MetricsRegistry registry;
+
+    public MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    private Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (MetricsRegistry.Family family : registry.getFamilies()) {
+            for (Map.Entry<String, Object> child : family.getChildren().entrySet()) {
+                String name = child.getKey().isEmpty() ? family.getName() : family.getName() + "." + child.getKey();
+                switch (child.getValue()) {
+                    case Counter counter -> values.put(name, counter.get());
+                    case LongSupplier gauge -> values.put(name, gauge.getAsLong());
+                    case LatencyHistogram histogram -> {
+                        values.put(name + ".count", histogram.getCount());
+                        values.put(name + ".meanMillis", histogram.getMeanMillis());
+                        values.put(name + ".p50Millis", histogram.getPercentileMillis(0.50));
+                        values.put(name + ".p99Millis", histogram.getPercentileMillis(0.99));
+                        values.put(name + ".maxMillis", histogram.getMaxMillis());
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Object value = snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Object> values = snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Object value = values.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Object> values = snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            attributes[i++] = new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                    value.getKey(), true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Referra metrics", attributes, null, null, null);
+    }
+}
@@ -0,0 +1,121 @@
+package me.itzrenzo.referra.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The plugin's counters, gauges and latency histograms, grouped into named families the way OpenMetrics exports them.
+ * A family has either no label or a single one, such as the database operation. Registering a name again returns the
+ * existing metric, so components can register theirs again after a reload.
+ */
+public final class MetricsRegistry {
+    public enum Type {
+        COUNTER,
+        GAUGE,
+        HISTOGRAM
+    }
+
+    /**
+     * Every metric with the same name, by label value. The value is {@code ""} when the family has no label.
+     */
+    public static final class Family {
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final String labelName;
+        private final Map<String, Object> children = new LinkedHashMap<>();
+
+        private Family(String name, String help, Type type, String labelName) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelName = labelName;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHelp() {
+            return help;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /** The label name, or null when the family has none */
+        public String getLabelName() {
+            return labelName;
+        }
+
+        /**
+         * {@link Counter}, {@link LongSupplier} or {@link LatencyHistogram} by label value, in registration order
+         */
+        public Map<String, Object> getChildren() {
+            synchronized (children) {
+                return new LinkedHashMap<>(children);
+            }
+        }
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public Counter counter(String name, String help) {
+        return (Counter) register(name, help, Type.COUNTER, null, "", Counter::new);
+    }
+
+    public Counter counter(String name, String help, String labelName, String labelValue) {
+        return (Counter) register(name, help, Type.COUNTER, labelName, labelValue, Counter::new);
+    }
+
+    public LatencyHistogram histogram(String name, String help) {
+        return (LatencyHistogram) register(name, help, Type.HISTOGRAM, null, "", LatencyHistogram::new);
+    }
+
+    public LatencyHistogram histogram(String name, String help, String labelName, String labelValue) {
+        return (LatencyHistogram) register(name, help, Type.HISTOGRAM, labelName, labelValue, LatencyHistogram::new);
+    }
+
+    /**
+     * A value read whenever the metrics are exported, replacing any earlier gauge of the same name. The supplier is
+     * called from the exporting thread.
+     */
+    public void gauge(String name, String help, LongSupplier value) {
+        Family family = family(name, help, Type.GAUGE, null);
+        synchronized (family.children) {
+            family.children.put("", value);
+        }
+    }
+
+    public List<Family> getFamilies() {
+        synchronized (families) {
+            return Collections.unmodifiableList(new ArrayList<>(families.values()));
+        }
+    }
+
+    private Object register(String name, String help, Type type, String labelName, String labelValue,
+                            Supplier<Object> factory) {
+        Family family = family(name, help, type, labelName);
+        synchronized (family.children) {
+            return family.children.computeIfAbsent(labelValue, ignored -> factory.get());
+        }
+    }
+
+    private Family family(String name, String help, Type type, String labelName) {
+        synchronized (families) {
+            Family family = families.computeIfAbsent(name, ignored -> new Family(name, help, type, labelName));
+            if (family.type != type || !Objects.equals(family.labelName, labelName)) {
+                throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type
+                        + (family.labelName != null ? " labelled by " + family.labelName : ""));
+            }
+            return family;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package me.itzrenzo.referra.metrics;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Writes a {@link MetricsRegistry} in the OpenMetrics text format that Prometheus scrapes.
+ */
+public final class OpenMetricsFormat {
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    private static final String[] BUCKET_LABELS = Arrays.stream(LatencyHistogram.BUCKET_SECONDS)
+            .mapToObj(seconds -> BigDecimal.valueOf(seconds).stripTrailingZeros().toPlainString())
+            .toArray(String[]::new);
+
+    private OpenMetricsFormat() {
+    }
+
+    public static String format(MetricsRegistry registry) {
+        StringBuilder out = new StringBuilder();
+        for (MetricsRegistry.Family family : registry.getFamilies()) {
+            String name = family.getName();
+            out.append("# TYPE ").append(name).append(' ').append(family.getType().name().toLowerCase(Locale.ROOT)).append('\n');
+            out.append("# HELP ").append(name).append(' ').append(escape(family.getHelp())).append('\n');
+
+            for (Map.Entry<String, Object> child : family.getChildren().entrySet()) {
+                String label = family.getLabelName() == null ? "" : family.getLabelName() + "=\"" + escape(child.getKey()) + "\"";
+                switch (child.getValue()) {
+                    case Counter counter -> sample(out, name + "_total", label, Long.toString(counter.get()));
+                    case LongSupplier gauge -> sample(out, name, label, Long.toString(gauge.getAsLong()));
+                    case LatencyHistogram histogram -> histogram(out, name, label, histogram);
+                    default -> throw new IllegalStateException("Unknown metric type in " + name);
+                }
+            }
+        }
+        return out.append("# EOF\n").toString();
+    }
+
+    private static void histogram(StringBuilder out, String name, String label, LatencyHistogram histogram) {
+        long[] counts = histogram.getBucketCounts();
+        String prefix = label.isEmpty() ? "" : label + ",";
+        // The count is the sum of the buckets read here, so the two agree even while samples are being recorded
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_LABELS.length; i++) {
+            cumulative += counts[i];
+            sample(out, name + "_bucket", prefix + "le=\"" + BUCKET_LABELS[i] + "\"", Long.toString(cumulative));
+        }
+        cumulative += counts[counts.length - 1];
+        sample(out, name + "_bucket", prefix + "le=\"+Inf\"", Long.toString(cumulative));
+        sample(out, name + "_count", label, Long.toString(cumulative));
+        sample(out, name + "_sum", label, Double.toString(histogram.getSumSeconds()));
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,147 @@
+package me.itzrenzo.referra.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor for blocking I/O that runs at most {@code maxConcurrency} tasks at once and keeps at most
+ * {@code queueCapacity} waiting. Submissions beyond that are handled by the {@link RejectionPolicy}.
+ */
+public class BoundedExecutor implements Executor {
+    public enum Mode {
+        /** One virtual thread per task, gated by a semaphore */
+        VIRTUAL,
+        /** A fixed pool of daemon platform threads */
+        PLATFORM
+    }
+
+    public enum RejectionPolicy {
+        /** Run the task on the submitting thread, slowing the producer down */
+        CALLER_RUNS,
+        /** Throw a RejectedExecutionException to the submitter */
+        ABORT
+    }
+
+    private final String name;
+    private final int queueCapacity;
+    private final int maxConcurrency;
+    private final RejectionPolicy rejectionPolicy;
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public BoundedExecutor(String name, Mode mode, int maxConcurrency, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        this.name = name;
+        this.queueCapacity = Math.max(0, queueCapacity);
+        this.rejectionPolicy = rejectionPolicy;
+
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        if (mode == Mode.VIRTUAL) {
+            this.delegate = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+            this.permits = new Semaphore(this.maxConcurrency, true);
+        } else {
+            this.delegate = Executors.newFixedThreadPool(this.maxConcurrency, Thread.ofPlatform().name(name + "-", 0).daemon(true).factory());
+            this.permits = null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (outstanding.incrementAndGet() > maxConcurrency + queueCapacity) {
+            outstanding.decrementAndGet();
+            reject(task);
+            return;
+        }
+
+        long submittedAt = System.nanoTime();
+        try {
+            delegate.execute(() -> run(task, submittedAt));
+        } catch (RejectedExecutionException e) {
+            outstanding.decrementAndGet();
+            rejectedCount.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private void run(Runnable task, long submittedAt) {
+        if (permits != null) {
+            permits.acquireUninterruptibly();
+        }
+
+        running.incrementAndGet();
+        long waited = System.nanoTime() - submittedAt;
+        startedCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        try {
+            task.run();
+        } finally {
+            running.decrementAndGet();
+            outstanding.decrementAndGet();
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    private void reject(Runnable task) {
+        rejectedCount.incrementAndGet();
+        if (rejectionPolicy == RejectionPolicy.CALLER_RUNS && !delegate.isShutdown()) {
+            task.run();
+            return;
+        }
+        throw new RejectedExecutionException(name + " queue is full (" + queueCapacity + " tasks waiting)");
+    }
+
+    /**
+     * Stops accepting tasks and waits for the ones already submitted to finish.
+     *
+     * @return true if everything finished within the timeout
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        delegate.shutdown();
+        try {
+            return delegate.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return Math.max(0, outstanding.get() - running.get());
+    }
+
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long started = startedCount.get();
+        return started == 0 ? 0.0 : totalWaitNanos.get() / 1_000_000.0 / started;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+}
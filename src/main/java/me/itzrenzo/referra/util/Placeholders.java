@@ -0,0 +1,20 @@
+package me.itzrenzo.referra.util;
+
+import java.util.Map;
+
+/**
+ * Fills {@code {name}} placeholders in configured messages and reward commands.
+ */
+public final class Placeholders {
+
+    private Placeholders() {
+    }
+
+    public static String apply(String input, Map<String, String> replacements) {
+        String output = input;
+        for (Map.Entry<String, String> entry : replacements.entrySet()) {
+            output = output.replace("{" + entry.getKey() + "}", entry.getValue());
+        }
+        return output;
+    }
+}
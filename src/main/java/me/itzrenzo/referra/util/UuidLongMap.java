@@ -0,0 +1,101 @@
+package me.itzrenzo.referra.util;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * UUID to {@code long} map without boxing. Each entry costs three longs of table space instead of a
+ * {@link java.util.HashMap} node plus boxed key and value.
+ */
+public class UuidLongMap extends UuidOpenHashMap {
+
+    public UuidLongMap() {
+        this(0);
+    }
+
+    public UuidLongMap(int expectedSize) {
+        super(1, expectedSize);
+    }
+
+    public long get(UUID key, long defaultValue) {
+        long hi = key.getMostSignificantBits();
+        long lo = key.getLeastSignificantBits();
+        long stamp = lock.tryOptimisticRead();
+        Table current = table;
+        int slot = lookup(current, hi, lo);
+        long value = slot < 0 ? defaultValue : current.values[slot];
+        if (lock.validate(stamp)) {
+            return value;
+        }
+
+        stamp = lock.readLock();
+        try {
+            current = table;
+            slot = lookup(current, hi, lo);
+            return slot < 0 ? defaultValue : current.values[slot];
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public void put(UUID key, long value) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = claimSlot(key.getMostSignificantBits(), key.getLeastSignificantBits());
+            table.values[slot < 0 ? -slot - 1 : slot] = value;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return true if the key was absent and the value was stored
+     */
+    public boolean putIfAbsent(UUID key, long value) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = claimSlot(key.getMostSignificantBits(), key.getLeastSignificantBits());
+            if (slot >= 0) {
+                return false;
+            }
+            table.values[-slot - 1] = value;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean remove(UUID key) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = lookup(table, key.getMostSignificantBits(), key.getLeastSignificantBits());
+            if (slot < 0) {
+                return false;
+            }
+            releaseSlot(slot);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void putAll(Map<UUID, Long> entries) {
+        ensureCapacity(size() + entries.size());
+        for (Map.Entry<UUID, Long> entry : entries.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        long stamp = lock.readLock();
+        try {
+            forEachSlot((hi, lo, values, offset) -> consumer.accept(new UUID(hi, lo), values[offset]));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public interface EntryConsumer {
+        void accept(UUID key, long value);
+    }
+}
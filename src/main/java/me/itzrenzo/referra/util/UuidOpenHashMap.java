@@ -0,0 +1,271 @@
+package me.itzrenzo.referra.util;
+
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Base for open-addressing maps keyed by a UUID stored as two raw longs.
+ * Slots use linear probing with backward-shift deletion, so no tombstones build up.
+ * Writers take the write lock; readers try an optimistic read first and only fall back to the read lock on contention.
+ */
+abstract class UuidOpenHashMap {
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.7f;
+
+    protected final StampedLock lock = new StampedLock();
+    private final int valueWidth;
+    protected Table table;
+    private int size;
+
+    protected UuidOpenHashMap(int valueWidth, int expectedSize) {
+        this.valueWidth = valueWidth;
+        this.table = new Table(capacityFor(expectedSize), valueWidth);
+    }
+
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int currentSize = size;
+        if (lock.validate(stamp)) {
+            return currentSize;
+        }
+
+        stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean containsKey(UUID key) {
+        long hi = key.getMostSignificantBits();
+        long lo = key.getLeastSignificantBits();
+        long stamp = lock.tryOptimisticRead();
+        boolean found = lookup(table, hi, lo) >= 0;
+        if (lock.validate(stamp)) {
+            return found;
+        }
+
+        stamp = lock.readLock();
+        try {
+            return lookup(table, hi, lo) >= 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            table = new Table(MIN_CAPACITY, valueWidth);
+            size = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Ensures the table can hold the given number of entries without resizing.
+     */
+    public void ensureCapacity(int expectedSize) {
+        long stamp = lock.writeLock();
+        try {
+            int capacity = capacityFor(expectedSize);
+            if (capacity > table.mask + 1) {
+                resize(capacity);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the slot holding the key, or -1 if the key is absent. The nil UUID lives in the extra slot at index capacity.
+     */
+    protected static int lookup(Table table, long hi, long lo) {
+        if (hi == 0 && lo == 0) {
+            return table.hasNilKey ? table.mask + 1 : -1;
+        }
+
+        long[] keys = table.keys;
+        int mask = table.mask;
+        int slot = hash(hi, lo) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            long slotHi = keys[slot << 1];
+            long slotLo = keys[(slot << 1) + 1];
+            if (slotHi == hi && slotLo == lo) {
+                return slot;
+            }
+            if (slotHi == 0 && slotLo == 0) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds or creates the slot for a key. Must be called while holding the write lock.
+     *
+     * @return the slot index if the key already existed, otherwise {@code -(slot + 1)} for the newly claimed slot
+     */
+    protected int claimSlot(long hi, long lo) {
+        int existing = lookup(table, hi, lo);
+        if (existing >= 0) {
+            return existing;
+        }
+
+        if (size + 1 > table.threshold) {
+            resize((table.mask + 1) << 1);
+        }
+
+        size++;
+        if (hi == 0 && lo == 0) {
+            table.hasNilKey = true;
+            return -(table.mask + 2);
+        }
+
+        long[] keys = table.keys;
+        int mask = table.mask;
+        int slot = hash(hi, lo) & mask;
+        while (keys[slot << 1] != 0 || keys[(slot << 1) + 1] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot << 1] = hi;
+        keys[(slot << 1) + 1] = lo;
+        return -(slot + 1);
+    }
+
+    /**
+     * Removes the entry in the given slot. Must be called while holding the write lock.
+     */
+    protected void releaseSlot(int slot) {
+        size--;
+        Table current = table;
+        if (slot == current.mask + 1) {
+            current.hasNilKey = false;
+            clearValue(current, slot);
+            return;
+        }
+
+        long[] keys = current.keys;
+        int mask = current.mask;
+        int gap = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            long nextHi = keys[next << 1];
+            long nextLo = keys[(next << 1) + 1];
+            if (nextHi == 0 && nextLo == 0) {
+                break;
+            }
+
+            int home = hash(nextHi, nextLo) & mask;
+            boolean staysPut = gap <= next
+                    ? gap < home && home <= next
+                    : gap < home || home <= next;
+            if (!staysPut) {
+                keys[gap << 1] = nextHi;
+                keys[(gap << 1) + 1] = nextLo;
+                System.arraycopy(current.values, next * valueWidth, current.values, gap * valueWidth, valueWidth);
+                gap = next;
+            }
+        }
+
+        keys[gap << 1] = 0;
+        keys[(gap << 1) + 1] = 0;
+        clearValue(current, gap);
+    }
+
+    /**
+     * Walks every occupied slot. Must be called while holding at least the read lock.
+     */
+    protected void forEachSlot(SlotVisitor visitor) {
+        Table current = table;
+        if (current.hasNilKey) {
+            visitor.visit(0, 0, current.values, (current.mask + 1) * valueWidth);
+        }
+
+        long[] keys = current.keys;
+        for (int slot = 0; slot <= current.mask; slot++) {
+            long hi = keys[slot << 1];
+            long lo = keys[(slot << 1) + 1];
+            if (hi != 0 || lo != 0) {
+                visitor.visit(hi, lo, current.values, slot * valueWidth);
+            }
+        }
+    }
+
+    private void clearValue(Table target, int slot) {
+        for (int i = 0; i < valueWidth; i++) {
+            target.values[slot * valueWidth + i] = 0;
+        }
+    }
+
+    private void resize(int capacity) {
+        Table previous = table;
+        Table resized = new Table(capacity, valueWidth);
+        long[] keys = previous.keys;
+        for (int slot = 0; slot <= previous.mask; slot++) {
+            long hi = keys[slot << 1];
+            long lo = keys[(slot << 1) + 1];
+            if (hi == 0 && lo == 0) {
+                continue;
+            }
+
+            int target = hash(hi, lo) & resized.mask;
+            while (resized.keys[target << 1] != 0 || resized.keys[(target << 1) + 1] != 0) {
+                target = (target + 1) & resized.mask;
+            }
+            resized.keys[target << 1] = hi;
+            resized.keys[(target << 1) + 1] = lo;
+            System.arraycopy(previous.values, slot * valueWidth, resized.values, target * valueWidth, valueWidth);
+        }
+
+        if (previous.hasNilKey) {
+            resized.hasNilKey = true;
+            System.arraycopy(previous.values, (previous.mask + 1) * valueWidth, resized.values, capacity * valueWidth, valueWidth);
+        }
+        table = resized;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long needed = (long) Math.ceil(Math.max(0, expectedSize) / (double) LOAD_FACTOR) + 1;
+        int capacity = MIN_CAPACITY;
+        while (capacity < needed && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(long hi, long lo) {
+        long h = hi ^ Long.rotateLeft(lo, 32);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    protected interface SlotVisitor {
+        void visit(long hi, long lo, long[] values, int offset);
+    }
+
+    protected static final class Table {
+        final long[] keys;
+        final long[] values;
+        final int mask;
+        final int threshold;
+        boolean hasNilKey;
+
+        private Table(int capacity, int valueWidth) {
+            this.keys = new long[capacity << 1];
+            this.values = new long[(capacity + 1) * valueWidth];
+            this.mask = capacity - 1;
+            this.threshold = (int) (capacity * LOAD_FACTOR);
+        }
+    }
+}
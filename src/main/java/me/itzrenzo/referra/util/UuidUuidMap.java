@@ -0,0 +1,106 @@
+package me.itzrenzo.referra.util;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * UUID to UUID map that keeps both keys and values as raw longs, four per entry.
+ */
+public class UuidUuidMap extends UuidOpenHashMap {
+
+    public UuidUuidMap() {
+        this(0);
+    }
+
+    public UuidUuidMap(int expectedSize) {
+        super(2, expectedSize);
+    }
+
+    public UUID get(UUID key) {
+        long hi = key.getMostSignificantBits();
+        long lo = key.getLeastSignificantBits();
+        long stamp = lock.tryOptimisticRead();
+        Table current = table;
+        int slot = lookup(current, hi, lo);
+        long valueHi = slot < 0 ? 0 : current.values[slot << 1];
+        long valueLo = slot < 0 ? 0 : current.values[(slot << 1) + 1];
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                current = table;
+                slot = lookup(current, hi, lo);
+                valueHi = slot < 0 ? 0 : current.values[slot << 1];
+                valueLo = slot < 0 ? 0 : current.values[(slot << 1) + 1];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return slot < 0 ? null : new UUID(valueHi, valueLo);
+    }
+
+    public void put(UUID key, UUID value) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = claimSlot(key.getMostSignificantBits(), key.getLeastSignificantBits());
+            store(slot < 0 ? -slot - 1 : slot, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return true if the key was absent and the value was stored
+     */
+    public boolean putIfAbsent(UUID key, UUID value) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = claimSlot(key.getMostSignificantBits(), key.getLeastSignificantBits());
+            if (slot >= 0) {
+                return false;
+            }
+            store(-slot - 1, value);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean remove(UUID key) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = lookup(table, key.getMostSignificantBits(), key.getLeastSignificantBits());
+            if (slot < 0) {
+                return false;
+            }
+            releaseSlot(slot);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void putAll(Map<UUID, UUID> entries) {
+        ensureCapacity(size() + entries.size());
+        for (Map.Entry<UUID, UUID> entry : entries.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        long stamp = lock.readLock();
+        try {
+            forEachSlot((hi, lo, values, offset) -> consumer.accept(new UUID(hi, lo), new UUID(values[offset], values[offset + 1])));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void store(int slot, UUID value) {
+        table.values[slot << 1] = value.getMostSignificantBits();
+        table.values[(slot << 1) + 1] = value.getLeastSignificantBits();
+    }
+
+    public interface EntryConsumer {
+        void accept(UUID key, UUID value);
+    }
+}
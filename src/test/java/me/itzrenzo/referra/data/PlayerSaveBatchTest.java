@@ -0,0 +1,54 @@
+package me.itzrenzo.referra.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlayerSaveBatchTest {
+    @Test
+    void writesOnlyChangedPlayersAndTheirProfileWhenItChanged() {
+        PlayerReferralData clean = new PlayerReferralData(new UUID(0, 1), "Clean");
+        clean.markClean();
+        PlayerReferralData referralsOnly = new PlayerReferralData(new UUID(0, 2), "Referrer");
+        referralsOnly.markClean();
+        referralsOnly.addReferral(new UUID(0, 3));
+
+        List<String> writes = new ArrayList<>();
+        PlayerSaveBatch batch = new PlayerSaveBatch();
+        batch.writeChanged(List.of(clean, referralsOnly), (data, saveProfile) -> writes.add(data.getPlayerName() + " " + saveProfile));
+        batch.markClean();
+
+        assertEquals(List.of("Referrer false"), writes);
+        assertEquals(1, batch.size());
+        assertFalse(referralsOnly.isDirty());
+    }
+
+    @Test
+    void changeDuringTheWriteStaysDirty() {
+        PlayerReferralData data = new PlayerReferralData(new UUID(0, 1), "Alice");
+        PlayerSaveBatch batch = new PlayerSaveBatch();
+
+        batch.write(data, (player, saveProfile) -> player.setReferralEnabled(!player.isReferralEnabled()));
+        batch.markClean();
+
+        assertTrue(data.isDirty());
+    }
+
+    @Test
+    void nothingIsMarkedCleanUntilAsked() {
+        PlayerReferralData data = new PlayerReferralData(new UUID(0, 1), "Alice");
+        PlayerSaveBatch batch = new PlayerSaveBatch();
+
+        batch.writeChanged(List.of(data), (player, saveProfile) -> { });
+
+        assertTrue(data.isDirty());
+        batch.markClean();
+        assertFalse(data.isDirty());
+    }
+}
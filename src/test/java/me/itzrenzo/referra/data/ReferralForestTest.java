@@ -0,0 +1,86 @@
+package me.itzrenzo.referra.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReferralForestTest {
+    @Test
+    void unlinkSplitsOffTheChildsSubtree() {
+        UUID top = new UUID(0, 1);
+        UUID middle = new UUID(0, 2);
+        UUID bottom = new UUID(0, 3);
+        UUID sibling = new UUID(0, 4);
+        ReferralForest forest = new ReferralForest();
+        forest.link(middle, top);
+        forest.link(bottom, middle);
+        forest.link(sibling, top);
+
+        forest.unlink(middle);
+
+        assertEquals(middle, forest.rootOf(bottom));
+        assertEquals(top, forest.rootOf(sibling));
+        assertTrue(forest.isAncestor(middle, bottom));
+        assertFalse(forest.isAncestor(top, bottom));
+
+        forest.link(top, bottom);
+        assertEquals(middle, forest.rootOf(sibling));
+        assertTrue(forest.isAncestor(middle, sibling));
+    }
+
+    @Test
+    void matchesTheReferralMapUnderRandomLinksAndUnlinks() {
+        Random random = new Random(1);
+        for (int round = 0; round < 50; round++) {
+            UUID[] players = new UUID[2 + random.nextInt(40)];
+            for (int i = 0; i < players.length; i++) {
+                players[i] = new UUID(round, i);
+            }
+
+            ReferralForest forest = new ReferralForest();
+            Map<UUID, UUID> referredBy = new HashMap<>();
+            for (int step = 0; step < 200; step++) {
+                UUID child = players[random.nextInt(players.length)];
+                UUID referrer = players[random.nextInt(players.length)];
+                if (random.nextInt(4) == 0) {
+                    if (referredBy.remove(child) != null) {
+                        forest.unlink(child);
+                    }
+                } else if (!referredBy.containsKey(child) && !isAncestor(referredBy, child, referrer)) {
+                    referredBy.put(child, referrer);
+                    forest.link(child, referrer);
+                }
+
+                for (UUID player : players) {
+                    assertEquals(rootOf(referredBy, player), forest.rootOf(player));
+                    for (UUID other : players) {
+                        assertEquals(isAncestor(referredBy, player, other), forest.isAncestor(player, other));
+                    }
+                }
+            }
+        }
+    }
+
+    private static UUID rootOf(Map<UUID, UUID> referredBy, UUID player) {
+        while (referredBy.containsKey(player)) {
+            player = referredBy.get(player);
+        }
+        return player;
+    }
+
+    private static boolean isAncestor(Map<UUID, UUID> referredBy, UUID ancestor, UUID player) {
+        for (UUID current = player; current != null; current = referredBy.get(current)) {
+            if (current.equals(ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,120 @@
+package me.itzrenzo.referra.database;
+
+import me.itzrenzo.referra.data.PlayerReferralData;
+import me.itzrenzo.referra.database.impl.InMemoryDatabaseManager;
+import me.itzrenzo.referra.database.impl.InMemoryDatabaseManager.Fault;
+import me.itzrenzo.referra.database.impl.InMemoryDatabaseManager.Operation;
+import me.itzrenzo.referra.util.BoundedExecutor;
+import org.bukkit.Server;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteBehindQueueTest {
+    private BoundedExecutor executor;
+    private InMemoryDatabaseManager database;
+    private WriteBehindQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        executor = new BoundedExecutor("test-database", BoundedExecutor.Mode.PLATFORM, 1, 100,
+                BoundedExecutor.RejectionPolicy.CALLER_RUNS);
+        database = new InMemoryDatabaseManager(Logger.getLogger("WriteBehindQueueTest"), Map.of(), 1L, executor);
+        database.initialize().join();
+        // The timer never fires, so only explicit flushes reach the database
+        queue = new WriteBehindQueue(plugin(), database, 60_000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.setFault(Operation.SAVE_ALL, Fault.NONE);
+        queue.close();
+        database.close();
+    }
+
+    @Test
+    void failedFlushKeepsDataQueuedAndDirty() {
+        UUID playerId = UUID.randomUUID();
+        PlayerReferralData data = new PlayerReferralData(playerId, "Alice");
+        data.setReferralEnabled(true);
+        database.setFault(Operation.SAVE_ALL, new Fault(0, 0, 1.0));
+
+        queue.enqueue(data);
+        assertThrows(CompletionException.class, () -> queue.flush().join());
+
+        assertEquals(1, database.getFailureCount(Operation.SAVE_ALL));
+        assertEquals(1, queue.getQueueDepth());
+        assertTrue(data.isDirty());
+        assertNull(database.loadPlayer(playerId).join().data());
+
+        database.setFault(Operation.SAVE_ALL, Fault.NONE);
+        queue.flush().join();
+
+        assertEquals(0, queue.getQueueDepth());
+        assertFalse(data.isDirty());
+        assertTrue(database.loadPlayer(playerId).join().data().isReferralEnabled());
+    }
+
+    @Test
+    void changesMadeAfterFailedFlushAreSavedOnRetry() {
+        UUID playerId = UUID.randomUUID();
+        PlayerReferralData data = new PlayerReferralData(playerId, "Bob");
+        database.setFault(Operation.SAVE_ALL, new Fault(0, 0, 1.0));
+
+        data.setReferralEnabled(true);
+        assertThrows(CompletionException.class, () -> queue.flush(data).join());
+        data.setReferralEnabled(false);
+        queue.enqueue(data);
+
+        assertEquals(1, queue.getQueueDepth());
+        database.setFault(Operation.SAVE_ALL, Fault.NONE);
+        queue.flush().join();
+
+        assertFalse(data.isDirty());
+        assertFalse(database.loadPlayer(playerId).join().data().isReferralEnabled());
+    }
+
+    private static Plugin plugin() {
+        BukkitTask task = proxy(BukkitTask.class, (method, args) -> null);
+        BukkitScheduler scheduler = proxy(BukkitScheduler.class,
+                (method, args) -> method.getName().equals("runTaskTimerAsynchronously") ? task : null);
+        Server server = proxy(Server.class, (method, args) -> method.getName().equals("getScheduler") ? scheduler : null);
+        Logger logger = Logger.getLogger("WriteBehindQueueTest");
+        return proxy(Plugin.class, (method, args) -> switch (method.getName()) {
+            case "getServer" -> server;
+            case "getLogger" -> logger;
+            case "getName" -> "Referra";
+            default -> null;
+        });
+    }
+
+    private interface Handler {
+        Object invoke(Method method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (instance, method, args) -> switch (method.getName()) {
+                    case "equals" -> instance == args[0];
+                    case "hashCode" -> System.identityHashCode(instance);
+                    case "toString" -> type.getSimpleName() + " stub";
+                    default -> handler.invoke(method, args);
+                }));
+    }
+}
@@ -0,0 +1,66 @@
+package me.itzrenzo.referra.database.impl;
+
+import me.itzrenzo.referra.database.impl.InMemoryDatabaseManager.Fault;
+import me.itzrenzo.referra.database.impl.InMemoryDatabaseManager.Operation;
+import me.itzrenzo.referra.util.BoundedExecutor;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class InMemoryDatabaseManagerTest {
+    private static final int CALLS = 64;
+
+    @Test
+    void sameSeedFailsTheSameCallsWhenCallsAreSequential() {
+        List<Boolean> first = outcomes(7L);
+
+        assertEquals(first, outcomes(7L));
+        assertNotEquals(first, outcomes(8L));
+    }
+
+    @Test
+    void failedWriteLeavesStateUntouched() {
+        BoundedExecutor executor = executor();
+        InMemoryDatabaseManager database = new InMemoryDatabaseManager(Logger.getLogger("InMemoryDatabaseManagerTest"),
+                Map.of(Operation.SAVE_FIRST_JOIN, new Fault(0, 0, 1.0)), 1L, executor);
+        UUID playerId = UUID.randomUUID();
+
+        assertThrows(CompletionException.class, () -> database.saveFirstJoinTime(playerId, 1000L).join());
+
+        assertEquals(1, database.getCallCount(Operation.SAVE_FIRST_JOIN));
+        assertEquals(1, database.getFailureCount(Operation.SAVE_FIRST_JOIN));
+        assertNull(database.loadPlayer(playerId).join().firstJoinTime());
+        database.close();
+    }
+
+    private static List<Boolean> outcomes(long seed) {
+        InMemoryDatabaseManager database = new InMemoryDatabaseManager(Logger.getLogger("InMemoryDatabaseManagerTest"),
+                Map.of(Operation.SAVE_FIRST_JOIN, new Fault(0, 0, 0.5)), seed, executor());
+        List<Boolean> outcomes = new ArrayList<>();
+        for (int i = 0; i < CALLS; i++) {
+            try {
+                database.saveFirstJoinTime(UUID.randomUUID(), i).join();
+                outcomes.add(true);
+            } catch (CompletionException e) {
+                outcomes.add(false);
+            }
+        }
+        database.close();
+        return outcomes;
+    }
+
+    private static BoundedExecutor executor() {
+        return new BoundedExecutor("test-database", BoundedExecutor.Mode.PLATFORM, 1, 100,
+                BoundedExecutor.RejectionPolicy.CALLER_RUNS);
+    }
+}